@@ -0,0 +1,139 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits and withdrawals, both on an account used by a single thread and on an account
+ * shared by several threads (where the balance updates compete with each other).
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBenchmark {
+
+    /**
+     * Account used by a single thread, with enough balance for every withdrawal.
+     */
+    @State(Scope.Thread)
+    public static class PrivateAccount {
+        Account account;
+
+        @Setup
+        public void setUp() {
+            account = fundedAccount();
+        }
+    }
+
+    /**
+     * Account shared by all threads, with enough balance for every withdrawal.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedAccount {
+        Account account;
+
+        @Setup
+        public void setUp() {
+            account = fundedAccount();
+        }
+    }
+
+    /**
+     * Account without balance or credit, so every withdrawal is declined.
+     */
+    @State(Scope.Thread)
+    public static class EmptyAccount {
+        Account account;
+
+        @Setup
+        public void setUp() {
+            account = Account.open(2, new Customer("98765432100", "Jane", "Doe"));
+        }
+    }
+
+    @Benchmark
+    public double deposit(PrivateAccount state) {
+        return state.account.deposit(0.01);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double depositContended(SharedAccount state) {
+        return state.account.deposit(0.01);
+    }
+
+    @Benchmark
+    public double withdraw(PrivateAccount state) throws InsufficientFundsException {
+        return state.account.withdraw(0.01);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double withdrawContended(SharedAccount state) throws InsufficientFundsException {
+        return state.account.withdraw(0.01);
+    }
+
+    @Benchmark
+    public int tryWithdraw(PrivateAccount state) {
+        return state.account.tryWithdraw(0.01);
+    }
+
+    @Benchmark
+    public Object withdrawDeclined(EmptyAccount state) {
+        try {
+            return state.account.withdraw(100.00);
+        } catch (InsufficientFundsException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public int tryWithdrawDeclined(EmptyAccount state) {
+        return state.account.tryWithdraw(100.00);
+    }
+
+    private static Account fundedAccount() {
+        Account account = Account.open(1, new Customer("12345678900", "John", "Doe"));
+        account.deposit(1_000_000_000.00);
+        return account;
+    }
+
+    /**
+     * Baseline for the two benchmarks above: a declined withdrawal as it used to be, with
+     * a new exception (and its stack trace) created for every declined operation.
+     */
+    @Benchmark
+    public Object withdrawDeclinedWithStackTrace(EmptyAccount state) {
+        try {
+            return declineWithNewException(state.account, 100.00);
+        } catch (InsufficientFundsException e) {
+            return e;
+        }
+    }
+
+    private static double declineWithNewException(Account account, double value) throws InsufficientFundsException {
+        if (account.getBalance() + account.getCreditLimit() < value) {
+            throw new InsufficientFundsException("Insufficient funds to complete the operation");
+        }
+        return account.getBalance();
+    }
+
+}
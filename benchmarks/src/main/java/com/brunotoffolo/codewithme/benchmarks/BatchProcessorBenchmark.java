@@ -0,0 +1,105 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.processing.BatchResult;
+import com.brunotoffolo.codewithme.exceptions.processing.Operation;
+import com.brunotoffolo.codewithme.exceptions.processing.ShardedBatchProcessor;
+import com.brunotoffolo.codewithme.exceptions.registry.AccountRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations per second applied by the sharded batch processor with 1 to 8 shards, for
+ * a batch of deposits, withdrawals and purchases spread over 100 thousand accounts. On a
+ * machine with enough cores, the throughput should grow almost linearly with the number
+ * of shards.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class BatchProcessorBenchmark {
+
+    private static final int ACCOUNTS = 100_000;
+    private static final int BATCH_SIZE = 1_000_000;
+
+    @Param({"1", "2", "4", "8"})
+    int shards;
+
+    private List<Operation> batch;
+    private AccountRegistry registry;
+    private ShardedBatchProcessor processor;
+
+    @Setup
+    public void createBatch() {
+        Random random = new Random(42);
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            int account = random.nextInt(ACCOUNTS);
+            switch (random.nextInt(3)) {
+                case 0:
+                    batch.add(Operation.deposit(account, 1 + random.nextInt(100000)));
+                    break;
+                case 1:
+                    batch.add(Operation.withdrawal(account, 1 + random.nextInt(100000)));
+                    break;
+                default:
+                    batch.add(Operation.purchase(4000000000000000L + account, 1 + random.nextInt(10000), "Groceries"));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Creates new accounts for each iteration, so card histories do not grow for the whole run.
+     */
+    @Setup(Level.Iteration)
+    public void createAccounts() {
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.YEAR, 3);
+
+        registry = new AccountRegistry(ACCOUNTS, ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Account account = Account.open(i, new Customer("987.654.321-00", "John", "Doe"));
+            account.addCreditCard(new CreditCard(123456, expiration, 5000, "Visa", 4000000000000000L + i));
+            registry.register(account);
+        }
+        processor = new ShardedBatchProcessor(registry, shards);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeProcessor() {
+        processor.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BatchResult process() {
+        return processor.process(batch);
+    }
+
+}
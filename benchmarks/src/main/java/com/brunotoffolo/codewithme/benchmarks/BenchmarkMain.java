@@ -0,0 +1,40 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Accepts the same arguments as the standard JMH runner,
+ * but adds the GC profiler when no profiler is given, so every run also reports the
+ * allocation rate of each benchmark (as with -prof gc).
+ *
+ * @author Bruno Toffolo
+ */
+public class BenchmarkMain {
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args JMH command line arguments (run with -h to list them).
+     * @throws Exception If the benchmarks could not be run
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (options.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+
+}
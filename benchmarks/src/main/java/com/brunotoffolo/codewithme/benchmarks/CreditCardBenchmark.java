@@ -0,0 +1,140 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.InvoiceRenderer;
+import com.brunotoffolo.codewithme.exceptions.model.Purchase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purchases, invoices and purchase construction.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CreditCardBenchmark {
+
+    private static final String[] DESCRIPTIONS = {
+            "Groceries", "Gold ring", "Wine bottle", "Air tickets", "Hotel reservation", "Sightseeing tour pack"
+    };
+
+    /**
+     * Card used by a single thread. The card is replaced on each iteration, so its
+     * history does not grow for the whole run.
+     */
+    @State(Scope.Thread)
+    public static class PrivateCard {
+        CreditCard card;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            card = newCard(1_000_000_000.00);
+        }
+    }
+
+    /**
+     * Card shared by all threads, replaced on each iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedCard {
+        CreditCard card;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            card = newCard(1_000_000_000.00);
+        }
+    }
+
+    /**
+     * Card holding a given number of purchases, used to generate invoices.
+     */
+    @State(Scope.Thread)
+    public static class InvoicedCard {
+        @Param({"10", "100", "1000"})
+        int purchases;
+
+        CreditCard card;
+        File invoice;
+        StringBuilder text;
+
+        @Setup
+        public void setUp() throws IOException, InsufficientFundsException {
+            card = newCard(1_000_000_000.00);
+            for (int i = 0; i < purchases; i++) {
+                card.addPurchase(10.00 + i * 1.25, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+            }
+            invoice = File.createTempFile("invoice", ".txt");
+            text = new StringBuilder();
+        }
+
+        @TearDown
+        public void tearDown() {
+            invoice.delete();
+        }
+    }
+
+    @Benchmark
+    public double addPurchase(PrivateCard state) throws InsufficientFundsException {
+        return state.card.addPurchase(0.01, DESCRIPTIONS[(state.next++ & 0x7fffffff) % DESCRIPTIONS.length]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double addPurchaseContended(SharedCard state) throws InsufficientFundsException {
+        // The description index is only a spread of values, so races on it do not matter
+        return state.card.addPurchase(0.01, DESCRIPTIONS[(state.next++ & 0x7fffffff) % DESCRIPTIONS.length]);
+    }
+
+    @Benchmark
+    public Purchase newPurchase() {
+        return new Purchase(42.50, "Groceries");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public File createInvoice(InvoicedCard state) {
+        state.card.createInvoice(state.invoice.getPath());
+        return state.invoice;
+    }
+
+    /**
+     * Invoice text only, without the file system cost of {@link #createInvoice}.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public StringBuilder renderInvoice(InvoicedCard state) {
+        state.text.setLength(0);
+        return new InvoiceRenderer().render(state.card, InvoiceRenderer.currentTime(), state.text);
+    }
+
+    private static CreditCard newCard(double limit) {
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.YEAR, 3);
+        return new CreditCard(123456, expiration, limit, "VISA", 4000000000000000L);
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEvents;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.persistence.Durability;
+import com.brunotoffolo.codewithme.exceptions.persistence.WriteAheadLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Committed deposits per second with a {@link WriteAheadLog} at each durability level.
+ * With several threads, {@link Durability#GROUP} lets one sync cover the deposits of
+ * every waiting thread.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DurabilityBenchmark {
+
+    @Param({"ASYNC", "GROUP", "SYNC"})
+    Durability durability;
+
+    private Path directory;
+    private WriteAheadLog log;
+    private Account account;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wal-benchmark");
+        log = new WriteAheadLog(directory, durability);
+        BankingEvents.setChangeLog(log);
+        account = Account.open(1, new Customer("12345678900", "John", "Doe"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BankingEvents.setChangeLog(null);
+        log.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public double deposit() {
+        return account.deposit(0.01);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public double depositContended() {
+        return account.deposit(0.01);
+    }
+
+}
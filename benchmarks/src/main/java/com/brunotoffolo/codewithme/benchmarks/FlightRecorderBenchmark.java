@@ -0,0 +1,94 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.model.FlightRecorderEvents;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of deposits, declined withdrawals and purchases with no flight recording
+ * running and with a recording of the banking events, to show that the events cost
+ * next to nothing while they are disabled.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlightRecorderBenchmark {
+
+    @Param({"false", "true"})
+    boolean recording;
+
+    private Recording flightRecording;
+    private Account account;
+    private CreditCard card;
+
+    @Setup(Level.Trial)
+    public void startRecording() {
+        if (recording) {
+            flightRecording = new Recording();
+            flightRecording.enable(FlightRecorderEvents.DEPOSIT);
+            flightRecording.enable(FlightRecorderEvents.WITHDRAWAL);
+            flightRecording.enable(FlightRecorderEvents.PURCHASE);
+            flightRecording.enable(FlightRecorderEvents.DECLINE);
+            flightRecording.setMaxSize(64 << 20);
+            flightRecording.start();
+        }
+    }
+
+    /**
+     * Creates a new card for each iteration, so its history does not grow for the whole run.
+     */
+    @Setup(Level.Iteration)
+    public void createAccount() {
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.YEAR, 3);
+        account = Account.open(1, new Customer("987.654.321-00", "John", "Doe"));
+        card = new CreditCard(123456, expiration, 1_000_000_000.00, "Visa", 4000000000000000L);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopRecording() {
+        if (flightRecording != null) {
+            flightRecording.close();
+        }
+    }
+
+    @Benchmark
+    public double deposit() {
+        return account.deposit(0.01);
+    }
+
+    @Benchmark
+    public int declinedWithdrawal() {
+        return account.tryWithdraw(1_000_000.00);
+    }
+
+    @Benchmark
+    public double addPurchase() throws InsufficientFundsException {
+        return card.addPurchase(0.01, "Groceries");
+    }
+
+}
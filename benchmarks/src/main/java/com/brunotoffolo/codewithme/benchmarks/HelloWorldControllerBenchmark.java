@@ -0,0 +1,70 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import br.org.venturus.codewithme.spring.controller.HelloWorldController;
+import com.brunotoffolo.codewithme.exceptions.journal.EventJournal;
+import com.brunotoffolo.codewithme.exceptions.journal.OverflowPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The controller method of spring-mvc-demo, called directly (without the dispatcher
+ * servlet or the view rendering), with its journal writing to a discarding stream.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HelloWorldControllerBenchmark {
+
+    private HelloWorldController controller;
+    private EventJournal journal;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        journal = new EventJournal(new PrintStream(OutputStream.nullOutputStream()),
+                EventJournal.DEFAULT_CAPACITY, OverflowPolicy.DROP);
+        controller = new HelloWorldController();
+
+        // Injected by Spring in the webapp
+        Field field = HelloWorldController.class.getDeclaredField("journal");
+        field.setAccessible(true);
+        field.set(controller, journal);
+    }
+
+    @TearDown
+    public void tearDown() {
+        journal.close();
+    }
+
+    @Benchmark
+    public ModelAndView showMessage() {
+        return controller.showMessage("Bob");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ModelAndView showMessageContended() {
+        return controller.showMessage("Bob");
+    }
+
+}
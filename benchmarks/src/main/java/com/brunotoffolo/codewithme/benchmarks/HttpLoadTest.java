@@ -0,0 +1,201 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small load generator for the spring-mvc-demo webapp. A number of clients send requests
+ * to one or more URLs, each client waiting for its response before sending the next
+ * request, and the throughput and latency percentiles of each URL are reported.
+ *
+ * Comparing /hello/{name} with /async/hello/{name} shows the cost and benefit of the
+ * asynchronous handling mode. Start the webapp first, for instance with the Jetty Maven
+ * plugin, and then run:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.brunotoffolo.codewithme.benchmarks.HttpLoadTest \
+ *     http://localhost:8080/hello/Bob http://localhost:8080/async/hello/Bob
+ * </pre>
+ *
+ * The number of clients and the duration of each run can be set with the system
+ * properties clients (default 64) and seconds (default 20). Every URL is warmed up for
+ * a quarter of the duration before it is measured.
+ *
+ * With -Dconcurrent=true, every URL gets its own clients and all of them are loaded at
+ * the same time instead of one after the other, for instance to overload the webapp
+ * with requests of different priorities and see which ones its admission control
+ * sheds. Requests rejected with 503 (Service Unavailable) are counted apart from the
+ * other errors, and left out of the latencies.
+ *
+ * @author Bruno Toffolo
+ */
+public class HttpLoadTest {
+
+    /**
+     * Runs the load test.
+     *
+     * @param args URLs to be tested, one after the other.
+     * @throws InterruptedException If interrupted while waiting for the clients
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length == 0) {
+            System.err.println("Usage: HttpLoadTest <url> [<url>...]");
+            System.exit(1);
+        }
+
+        int clients = Integer.getInteger("clients", 64);
+        int seconds = Integer.getInteger("seconds", 20);
+        boolean concurrent = Boolean.getBoolean("concurrent");
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        List<HttpRequest> requests = new ArrayList<>(args.length);
+        for (String url : args) {
+            requests.add(HttpRequest.newBuilder(URI.create(url)).build());
+        }
+
+        System.out.println("Clients: " + clients + " per URL | Duration: " + seconds + " s"
+                + (concurrent ? " | All URLs at the same time" : " per URL"));
+        List<List<HttpRequest>> runs = new ArrayList<>();
+        if (concurrent) {
+            runs.add(requests);
+        } else {
+            for (HttpRequest request : requests) {
+                runs.add(List.of(request));
+            }
+        }
+
+        for (List<HttpRequest> run : runs) {
+            run(client, run, clients, TimeUnit.SECONDS.toNanos(seconds) / 4);
+            List<Result> results = run(client, run, clients, TimeUnit.SECONDS.toNanos(seconds));
+            for (int i = 0; i < run.size(); i++) {
+                System.out.println(run.get(i).uri());
+                System.out.println(results.get(i));
+            }
+        }
+    }
+
+    private static List<Result> run(HttpClient client, List<HttpRequest> requests, int clients, long durationNanos)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + durationNanos;
+        List<List<Worker>> workers = new ArrayList<>(requests.size());
+        for (HttpRequest request : requests) {
+            List<Worker> requestWorkers = new ArrayList<>(clients);
+            for (int i = 0; i < clients; i++) {
+                Worker worker = new Worker(client, request, deadline);
+                worker.start();
+                requestWorkers.add(worker);
+            }
+            workers.add(requestWorkers);
+        }
+
+        List<Result> results = new ArrayList<>(requests.size());
+        for (List<Worker> requestWorkers : workers) {
+            Result result = new Result(durationNanos);
+            for (Worker worker : requestWorkers) {
+                worker.join();
+                result.add(worker);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Client sending requests one after the other until the deadline.
+     */
+    private static final class Worker extends Thread {
+        private final HttpClient client;
+        private final HttpRequest request;
+        private final long deadline;
+
+        private long[] latencies = new long[1024];
+        private int count;
+        private int errors;
+        private int rejected;
+
+        Worker(HttpClient client, HttpRequest request, long deadline) {
+            this.client = client;
+            this.request = request;
+            this.deadline = deadline;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long start;
+            while ((start = System.nanoTime()) < deadline) {
+                try {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    if (response.statusCode() == 503) {
+                        rejected++;
+                        continue;
+                    }
+                    if (response.statusCode() >= 400) {
+                        errors++;
+                        continue;
+                    }
+                } catch (Exception e) {
+                    errors++;
+                    continue;
+                }
+
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Latencies of all the clients of a run.
+     */
+    private static final class Result {
+        private final long durationNanos;
+        private long[] latencies = new long[0];
+        private int errors;
+        private int rejected;
+
+        Result(long durationNanos) {
+            this.durationNanos = durationNanos;
+        }
+
+        void add(Worker worker) {
+            int previous = latencies.length;
+            latencies = Arrays.copyOf(latencies, previous + worker.count);
+            System.arraycopy(worker.latencies, 0, latencies, previous, worker.count);
+            errors += worker.errors;
+            rejected += worker.rejected;
+        }
+
+        private double percentileMillis(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            Arrays.sort(latencies);
+            double throughput = latencies.length / (durationNanos / 1e9);
+            double rejectedPercent = 100.0 * rejected / Math.max(1, latencies.length + rejected + errors);
+            return String.format("  Throughput: %.0f requests/s | Rejected (503): %d (%.1f%%) | Errors: %d%n"
+                            + "  Latency (ms): p50 %.2f | p90 %.2f | p99 %.2f | p99.9 %.2f | max %.2f",
+                    throughput, rejected, rejectedPercent, errors, percentileMillis(50), percentileMillis(90), percentileMillis(99),
+                    percentileMillis(99.9), percentileMillis(100));
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import br.org.venturus.codewithme.spring.metrics.LatencyInterceptor;
+import br.org.venturus.codewithme.spring.metrics.LatencyMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead added to every request by the latency interceptor of spring-mvc-demo: the
+ * calls made by the dispatcher servlet before and after the handler, which read the
+ * clock and record the latency in the histogram of the handler. It should stay a tiny
+ * fraction of the time taken by the request itself (hundreds of nanoseconds against
+ * milliseconds), also when 8 threads record into the same histogram.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LatencyInterceptorBenchmark {
+
+    private LatencyMetrics metrics;
+    private LatencyInterceptor interceptor;
+    private final Object handler = new Object();
+
+    @Setup
+    public void setUp() {
+        metrics = new LatencyMetrics();
+        interceptor = new LatencyInterceptor(metrics);
+
+        // Gives writeMetrics a couple of handlers with a realistic spread of latencies
+        for (int i = 1; i <= 100_000; i++) {
+            metrics.requestStarted();
+            metrics.requestFinished("/hello/{name}", i * 1_000L, false);
+            metrics.requestStarted();
+            metrics.requestFinished("/async/hello/{name}", i * 2_000L, i % 1000 == 0);
+        }
+    }
+
+    /**
+     * Request and response of a single thread, as each request is handled by one thread.
+     */
+    @State(Scope.Thread)
+    public static class Exchange {
+        MockHttpServletRequest request;
+        MockHttpServletResponse response;
+
+        @Setup
+        public void setUp() {
+            request = new MockHttpServletRequest("GET", "/hello/Bob");
+            request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/hello/{name}");
+            response = new MockHttpServletResponse();
+        }
+    }
+
+    @Benchmark
+    public void intercepted(Exchange exchange) {
+        interceptor.preHandle(exchange.request, exchange.response, handler);
+        interceptor.afterCompletion(exchange.request, exchange.response, handler, null);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void interceptedContended(Exchange exchange) {
+        interceptor.preHandle(exchange.request, exchange.response, handler);
+        interceptor.afterCompletion(exchange.request, exchange.response, handler, null);
+    }
+
+    /**
+     * Time to render the /metrics page, which copies the histogram of every handler.
+     */
+    @Benchmark
+    public String writeMetrics() {
+        StringBuilder out = new StringBuilder(1024);
+        metrics.writeTo(out);
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.model.Money;
+import com.brunotoffolo.codewithme.exceptions.model.Purchase;
+import com.brunotoffolo.codewithme.exceptions.model.PurchaseLedger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Total of a purchase history, computed with double amounts (the original representation
+ * of a purchase) and with fixed-point amounts in cents.
+ *
+ * The double sums must add the values one after the other, as reordering them would
+ * change the rounding, and the result still has to be rounded to cents. The sums in
+ * cents are exact and can be vectorized by the JIT, both over a plain array and over the
+ * chunks of a {@link PurchaseLedger}.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MoneyBenchmark {
+
+    @Param({"1000", "100000"})
+    int purchases;
+
+    private List<Purchase> purchaseList;
+    private double[] doubleAmounts;
+    private long[] centAmounts;
+    private PurchaseLedger ledger;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        purchaseList = new ArrayList<>(purchases);
+        doubleAmounts = new double[purchases];
+        centAmounts = new long[purchases];
+        ledger = new PurchaseLedger();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < purchases; i++) {
+            long cents = 1 + random.nextInt(100000);
+            purchaseList.add(new Purchase(Money.toDouble(cents), "Groceries"));
+            doubleAmounts[i] = Money.toDouble(cents);
+            centAmounts[i] = cents;
+            ledger.append(now, cents, "Groceries");
+        }
+    }
+
+    @Benchmark
+    public long sumPurchaseObjects() {
+        double total = 0;
+        for (Purchase purchase : purchaseList) {
+            total += purchase.getAmount();
+        }
+        return Money.toCents(total);
+    }
+
+    @Benchmark
+    public long sumDoubleArray() {
+        double total = 0;
+        for (double amount : doubleAmounts) {
+            total += amount;
+        }
+        return Money.toCents(total);
+    }
+
+    @Benchmark
+    public long sumCentArray() {
+        return Money.sum(centAmounts, 0, centAmounts.length);
+    }
+
+    @Benchmark
+    public long sumLedger() {
+        return ledger.sumAmountCents(0, ledger.size());
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.registry.IntObjectMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Account lookups by number in the primitive-keyed map used by the account registry,
+ * compared with a HashMap with boxed keys.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class RegistryBenchmark {
+
+    @Param({"1000", "1000000", "10000000"})
+    int accounts;
+
+    private IntObjectMap<Account> registry;
+    private Map<Integer, Account> hashMap;
+
+    /**
+     * Random number generator of each thread, used to pick the looked up numbers.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        long seed = System.nanoTime() | 1;
+    }
+
+    @Setup
+    public void setUp() {
+        Account account = Account.open(1, new Customer("987.654.321-00", "John", "Doe"));
+        registry = new IntObjectMap<>(accounts);
+        hashMap = new HashMap<>(accounts * 2);
+        for (int i = 0; i < accounts; i++) {
+            registry.put(i, account);
+            hashMap.put(i, account);
+        }
+    }
+
+    @Benchmark
+    public Account registryLookup(Cursor cursor) {
+        return registry.get(nextNumber(cursor));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Account registryLookupContended(Cursor cursor) {
+        return registry.get(nextNumber(cursor));
+    }
+
+    @Benchmark
+    public Account hashMapLookup(Cursor cursor) {
+        return hashMap.get(nextNumber(cursor));
+    }
+
+    private int nextNumber(Cursor cursor) {
+        // Random order (xorshift), as requests do not arrive sorted by account number
+        long seed = cursor.seed;
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        cursor.seed = seed;
+        return (int) (((seed >>> 32) * accounts) >>> 32);
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.AccountSnapshot;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deposits on an account with 3 credit cards from 2 threads, alone and while 2 other
+ * threads read the account: either with a snapshot of the account and its cards, or with
+ * their getters one by one (which may mix values from before and after a deposit). As
+ * snapshots never block the writers, the deposits should go as fast with snapshot
+ * readers as with getter readers, and the snapshot readers should still make progress.
+ *
+ * Each group has its own account. Compare the deposit scores of the two groups with
+ * readers, which have as many threads; on a machine with fewer than 4 cores, the group
+ * without readers gets more processor time for its deposits.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class SnapshotBenchmark {
+
+    private static final int CARDS = 3;
+
+    private Account account;
+
+    @Setup
+    public void setUp() {
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.YEAR, 3);
+
+        account = Account.open(1, new Customer("12345678900", "John", "Doe"));
+        for (int i = 0; i < CARDS; i++) {
+            account.addCreditCard(new CreditCard(123456, expiration, 5000, "Visa", 4000000000000000L + i));
+        }
+    }
+
+    @Benchmark
+    @Group("noReaders")
+    @GroupThreads(2)
+    public double depositAlone() {
+        return account.deposit(0.01);
+    }
+
+    @Benchmark
+    @Group("snapshotReaders")
+    @GroupThreads(2)
+    public double deposit() {
+        return account.deposit(0.01);
+    }
+
+    @Benchmark
+    @Group("snapshotReaders")
+    @GroupThreads(2)
+    public AccountSnapshot snapshot() {
+        return account.snapshot();
+    }
+
+    @Benchmark
+    @Group("getterReaders")
+    @GroupThreads(2)
+    public double depositWithGetterReaders() {
+        return account.deposit(0.01);
+    }
+
+    @Benchmark
+    @Group("getterReaders")
+    @GroupThreads(2)
+    public void getters(Blackhole blackhole) {
+        blackhole.consume(account.getBalanceCents());
+        blackhole.consume(account.getCreditLimitCents());
+        for (CreditCard card : account.getCreditCards()) {
+            blackhole.consume(card.getLimitCents());
+            blackhole.consume(card.getBalanceCents());
+            blackhole.consume(card.isBlocked());
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.processing.BatchResult;
+import com.brunotoffolo.codewithme.exceptions.processing.Operation;
+import com.brunotoffolo.codewithme.exceptions.processing.ShardedBatchProcessor;
+import com.brunotoffolo.codewithme.exceptions.registry.AccountRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers between random accounts from 4 threads, over 2 accounts (where every transfer
+ * competes for the same balances), 16 and 1000 accounts. The baseline moves the same
+ * amount with a withdrawal and a deposit, which is not atomic; the transfer should cost
+ * about the same, as it also updates each balance with a single compare-and-set.
+ *
+ * The batch benchmark applies 100 thousand transfers with the sharded batch processor
+ * and 4 shards, where most transfers have their accounts in different shards and make
+ * both shards meet before being applied.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final int BATCH_SIZE = 100_000;
+    private static final int SHARDS = 4;
+
+    @Param({"2", "16", "1000"})
+    int accounts;
+
+    private Account[] shared;
+
+    /**
+     * Creates new accounts for each iteration, with enough balance for every transfer.
+     */
+    @Setup(Level.Iteration)
+    public void createAccounts() {
+        shared = new Account[accounts];
+        for (int i = 0; i < accounts; i++) {
+            shared[i] = fundedAccount(i);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(accounts);
+        int target = (source + 1 + random.nextInt(accounts - 1)) % accounts;
+        return shared[source].tryTransfer(shared[target], 0.01);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double withdrawThenDeposit() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(accounts);
+        int target = (source + 1 + random.nextInt(accounts - 1)) % accounts;
+        shared[source].tryWithdraw(0.01);
+        return shared[target].deposit(0.01);
+    }
+
+    /**
+     * Batch of transfers between random accounts, applied to new accounts in each iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class TransferBatch {
+        List<Operation> batch;
+        ShardedBatchProcessor processor;
+
+        @Setup(Level.Iteration)
+        public void setUp(TransferBenchmark benchmark) {
+            int accounts = benchmark.accounts;
+            Random random = new Random(42);
+            batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                int source = random.nextInt(accounts);
+                int target = (source + 1 + random.nextInt(accounts - 1)) % accounts;
+                batch.add(Operation.transfer(source, target, 1 + random.nextInt(100)));
+            }
+
+            AccountRegistry registry = new AccountRegistry(accounts, accounts);
+            for (int i = 0; i < accounts; i++) {
+                registry.register(fundedAccount(i));
+            }
+            processor = new ShardedBatchProcessor(registry, SHARDS);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            processor.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BatchResult processBatch(TransferBatch state) {
+        return state.processor.process(state.batch);
+    }
+
+    private static Account fundedAccount(int number) {
+        Account account = Account.open(number, new Customer("12345678900", "John", "Doe"));
+        account.deposit(1_000_000_000.00);
+        return account;
+    }
+
+}
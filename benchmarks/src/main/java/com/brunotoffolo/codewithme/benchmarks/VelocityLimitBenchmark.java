@@ -0,0 +1,94 @@
+package com.brunotoffolo.codewithme.benchmarks;
+
+import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.VelocityLimits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a purchase with and without velocity limits on the card, to show the cost
+ * of the sliding-window checks. The limits are high enough never to decline a purchase,
+ * so every purchase goes through the whole path.
+ *
+ * @author Bruno Toffolo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VelocityLimitBenchmark {
+
+    private static final VelocityLimits HIGH_LIMITS =
+            new VelocityLimits(1_000_000_000, Long.MAX_VALUE / 4, 1_000_000_000, Long.MAX_VALUE / 4);
+
+    /**
+     * Card used by a single thread, replaced on each iteration so its history does not
+     * grow for the whole run.
+     */
+    @State(Scope.Thread)
+    public static class PrivateCard {
+        @Param({"false", "true"})
+        boolean limited;
+
+        CreditCard card;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            card = newCard(limited);
+        }
+    }
+
+    /**
+     * Card shared by all threads, replaced on each iteration.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedCard {
+        @Param({"false", "true"})
+        boolean limited;
+
+        CreditCard card;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            card = newCard(limited);
+        }
+    }
+
+    @Benchmark
+    public double addPurchase(PrivateCard state) throws InsufficientFundsException {
+        return state.card.addPurchase(0.01, "Groceries");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double addPurchaseContended(SharedCard state) throws InsufficientFundsException {
+        return state.card.addPurchase(0.01, "Groceries");
+    }
+
+    private static CreditCard newCard(boolean limited) {
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.YEAR, 3);
+        CreditCard card = new CreditCard(123456, expiration, 1_000_000_000.00, "Visa", 4000000000000000L);
+        if (limited) {
+            card.setVelocityLimits(HIGH_LIMITS);
+        }
+        return card;
+    }
+
+}
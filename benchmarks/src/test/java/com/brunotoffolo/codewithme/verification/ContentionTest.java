@@ -0,0 +1,336 @@
+package com.brunotoffolo.codewithme.verification;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEventListener;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEvents;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Money;
+import com.brunotoffolo.codewithme.exceptions.model.OperationStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Checks the lock-free balance updates of {@link Account} and {@link CreditCard} under
+ * contention: many threads deposit in, withdraw from and transfer between a few accounts,
+ * and make purchases on their cards, all at the same time.
+ *
+ * Every thread keeps, for each account and card, the amounts and the number of the
+ * operations it made that were approved and declined. Once all of them finish, each
+ * operation must have been either approved or declined and reported as such to the
+ * listeners exactly once, and each balance must be exactly what the approved operations
+ * add up to, so no update was lost or applied twice. While they run, every balance
+ * published by an operation and every balance read by a separate thread must stay within
+ * the limits. Withdrawals are more frequent than deposits and the card limits are reached
+ * halfway through the run, so most operations compete right at the limits.
+ *
+ * @author Bruno Toffolo
+ */
+public class ContentionTest {
+
+    private static final int ACCOUNTS = 8;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 50000;
+    /** Largest amount of a single operation, in cents. */
+    private static final int MAX_AMOUNT_CENTS = 5000;
+
+    private final Account[] accounts = new Account[ACCOUNTS];
+    private final CreditCard[] cards = new CreditCard[ACCOUNTS];
+    private final Mismatches violations = new Mismatches("limit violations");
+    private final Mismatches mismatches = new Mismatches("sum errors");
+    private EventCounter events;
+
+    @Before
+    public void openAccounts() {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = Fixtures.account(i + 1);
+            cards[i] = Fixtures.card(i);
+            accounts[i].addCreditCard(cards[i]);
+            // Purchases average half of the largest amount, so the limit is reached halfway
+            cards[i].setLimit(Money.toDouble((long) THREADS * OPERATIONS / ACCOUNTS * MAX_AMOUNT_CENTS / 4));
+        }
+        events = new EventCounter();
+        BankingEvents.register(events);
+    }
+
+    @After
+    public void unregister() {
+        BankingEvents.unregister(events);
+    }
+
+    @Test
+    public void accountsForEveryOperation() throws InterruptedException {
+        Worker[] workers = new Worker[THREADS];
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        for (int i = 0; i < THREADS; i++) {
+            workers[i] = new Worker(i, ready, go);
+            workers[i].start();
+        }
+
+        // Reads the balances while the workers change them
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    checkAccountBalance("sampled balance of account " + i, i, accounts[i].getBalanceCents());
+                    checkCardBalance("sampled balance of card " + i, i, cards[i].getBalanceCents());
+                }
+            }
+        }, "balance-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        ready.await();
+        go.countDown();
+        Tally total = new Tally();
+        for (Worker worker : workers) {
+            worker.join();
+            total.add(worker.tally);
+        }
+        sampler.interrupt();
+        sampler.join();
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            String account = "account " + i;
+            mismatches.check(account + " operations approved or declined", total.attempted[i],
+                    total.approved[i] + total.declined[i]);
+            mismatches.check(account + " operations reported as approved", total.approved[i],
+                    events.approved.get(i));
+            mismatches.check(account + " operations reported as declined", total.declined[i],
+                    events.declined.get(i));
+            mismatches.check(account + " balance", total.received[i] - total.paid[i],
+                    accounts[i].getBalanceCents());
+            mismatches.check(account + " balance reported to listeners", total.received[i] - total.paid[i],
+                    events.balanceChange.get(i));
+
+            String card = "card " + i;
+            mismatches.check(card + " purchases approved or declined", total.purchasesAttempted[i],
+                    total.purchasesApproved[i] + total.purchasesDeclined[i]);
+            mismatches.check(card + " purchases reported as approved", total.purchasesApproved[i],
+                    events.purchasesApproved.get(i));
+            mismatches.check(card + " purchases reported as declined", total.purchasesDeclined[i],
+                    events.purchasesDeclined.get(i));
+            mismatches.check(card + " purchases in the history", total.purchasesApproved[i],
+                    cards[i].getPurchases().size());
+            mismatches.check(card + " balance", total.purchased[i], cards[i].getBalanceCents());
+        }
+
+        violations.assertNone();
+        mismatches.assertNone();
+    }
+
+    private void checkAccountBalance(String what, int account, long balanceCents) {
+        if (balanceCents < -accounts[account].getCreditLimitCents()) {
+            violations.add(what + " is " + balanceCents);
+        }
+    }
+
+    private void checkCardBalance(String what, int card, long balanceCents) {
+        if (balanceCents < 0 || balanceCents > cards[card].getLimitCents()) {
+            violations.add(what + " is " + balanceCents);
+        }
+    }
+
+    /** Gets the index of an account, or -1 if it was not opened by this test. */
+    private int indexOf(Account account) {
+        int index = account.getNumber() - 1;
+        return index >= 0 && index < ACCOUNTS && accounts[index] == account ? index : -1;
+    }
+
+    /** Gets the index of a card, or -1 if it was not created by this test. */
+    private int indexOf(CreditCard card) {
+        long index = card.getNumber() - Fixtures.FIRST_CARD_NUMBER;
+        return index >= 0 && index < ACCOUNTS && cards[(int) index] == card ? (int) index : -1;
+    }
+
+    /**
+     * Counts, for each account and card of the test, the operations reported to the
+     * listeners, and checks every balance they publish.
+     */
+    private final class EventCounter implements BankingEventListener {
+        /** Operations made on each account (deposits, withdrawals and transfers out of it). */
+        final AtomicLongArray approved = new AtomicLongArray(ACCOUNTS);
+        final AtomicLongArray declined = new AtomicLongArray(ACCOUNTS);
+        final AtomicLongArray balanceChange = new AtomicLongArray(ACCOUNTS);
+        final AtomicLongArray purchasesApproved = new AtomicLongArray(ACCOUNTS);
+        final AtomicLongArray purchasesDeclined = new AtomicLongArray(ACCOUNTS);
+
+        @Override
+        public void onDeposit(Account account, long amountCents, long balanceCents) {
+            int index = indexOf(account);
+            if (index < 0) {
+                return;
+            }
+            approved.incrementAndGet(index);
+            balanceChange.addAndGet(index, amountCents);
+            checkAccountBalance("balance of account " + index + " after a deposit", index, balanceCents);
+        }
+
+        @Override
+        public void onWithdrawal(Account account, long amountCents, long balanceCents) {
+            int index = indexOf(account);
+            if (index < 0) {
+                return;
+            }
+            approved.incrementAndGet(index);
+            balanceChange.addAndGet(index, -amountCents);
+            checkAccountBalance("balance of account " + index + " after a withdrawal", index, balanceCents);
+        }
+
+        @Override
+        public void onWithdrawalDeclined(Account account, long amountCents) {
+            int index = indexOf(account);
+            if (index >= 0) {
+                declined.incrementAndGet(index);
+            }
+        }
+
+        @Override
+        public void onTransfer(Account source, Account target, long amountCents, long sourceBalanceCents,
+                               long targetBalanceCents) {
+            int from = indexOf(source);
+            int to = indexOf(target);
+            if (from < 0 || to < 0) {
+                return;
+            }
+            approved.incrementAndGet(from);
+            balanceChange.addAndGet(from, -amountCents);
+            balanceChange.addAndGet(to, amountCents);
+            checkAccountBalance("balance of account " + from + " after a transfer", from, sourceBalanceCents);
+            checkAccountBalance("balance of account " + to + " after a transfer", to, targetBalanceCents);
+        }
+
+        @Override
+        public void onTransferDeclined(Account source, Account target, long amountCents) {
+            int index = indexOf(source);
+            if (index >= 0) {
+                declined.incrementAndGet(index);
+            }
+        }
+
+        @Override
+        public void onPurchase(CreditCard card, long epochMillis, long amountCents, String description,
+                               long balanceCents) {
+            int index = indexOf(card);
+            if (index < 0) {
+                return;
+            }
+            purchasesApproved.incrementAndGet(index);
+            checkCardBalance("balance of card " + index + " after a purchase", index, balanceCents);
+        }
+
+        @Override
+        public void onPurchaseDeclined(CreditCard card, long amountCents) {
+            int index = indexOf(card);
+            if (index >= 0) {
+                purchasesDeclined.incrementAndGet(index);
+            }
+        }
+    }
+
+    /**
+     * Operations made by a thread on each account and card.
+     */
+    private static final class Tally {
+        /** Operations made on each account (deposits, withdrawals and transfers out of it). */
+        final long[] attempted = new long[ACCOUNTS];
+        final long[] approved = new long[ACCOUNTS];
+        final long[] declined = new long[ACCOUNTS];
+        /** Amounts approved into each account, by deposits and transfers. */
+        final long[] received = new long[ACCOUNTS];
+        /** Amounts approved out of each account, by withdrawals and transfers. */
+        final long[] paid = new long[ACCOUNTS];
+        final long[] purchasesAttempted = new long[ACCOUNTS];
+        final long[] purchasesApproved = new long[ACCOUNTS];
+        final long[] purchasesDeclined = new long[ACCOUNTS];
+        final long[] purchased = new long[ACCOUNTS];
+
+        void add(Tally other) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                attempted[i] += other.attempted[i];
+                approved[i] += other.approved[i];
+                declined[i] += other.declined[i];
+                received[i] += other.received[i];
+                paid[i] += other.paid[i];
+                purchasesAttempted[i] += other.purchasesAttempted[i];
+                purchasesApproved[i] += other.purchasesApproved[i];
+                purchasesDeclined[i] += other.purchasesDeclined[i];
+                purchased[i] += other.purchased[i];
+            }
+        }
+    }
+
+    /**
+     * Thread that makes random operations on the accounts and purchases on the cards,
+     * keeping the tally of those approved and declined.
+     */
+    private final class Worker extends Thread {
+        private final SplittableRandom random;
+        private final CountDownLatch ready;
+        private final CountDownLatch go;
+        final Tally tally = new Tally();
+
+        Worker(int index, CountDownLatch ready, CountDownLatch go) {
+            super("contention-worker-" + index);
+            this.random = new SplittableRandom(index);
+            this.ready = ready;
+            this.go = go;
+        }
+
+        @Override
+        public void run() {
+            ready.countDown();
+            try {
+                go.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (int i = 0; i < OPERATIONS; i++) {
+                int from = random.nextInt(ACCOUNTS);
+                long cents = 1 + random.nextInt(MAX_AMOUNT_CENTS);
+                double amount = Money.toDouble(cents);
+                int operation = random.nextInt(100);
+                tally.attempted[from]++;
+                // Slightly more withdrawals than deposits keep the accounts near their limits
+                if (operation < 30) {
+                    accounts[from].deposit(amount);
+                    tally.approved[from]++;
+                    tally.received[from] += cents;
+                } else if (operation < 70) {
+                    if (accounts[from].tryWithdraw(amount) == OperationStatus.APPROVED) {
+                        tally.approved[from]++;
+                        tally.paid[from] += cents;
+                    } else {
+                        tally.declined[from]++;
+                    }
+                } else {
+                    int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                    if (accounts[from].tryTransfer(accounts[to], amount) == OperationStatus.APPROVED) {
+                        tally.approved[from]++;
+                        tally.paid[from] += cents;
+                        tally.received[to] += cents;
+                    } else {
+                        tally.declined[from]++;
+                    }
+                }
+
+                int card = random.nextInt(ACCOUNTS);
+                cents = 1 + random.nextInt(MAX_AMOUNT_CENTS);
+                tally.purchasesAttempted[card]++;
+                String description = Fixtures.DESCRIPTIONS[i % Fixtures.DESCRIPTIONS.length];
+                if (cards[card].tryAddPurchase(Money.toDouble(cents), description) == OperationStatus.APPROVED) {
+                    tally.purchasesApproved[card]++;
+                    tally.purchased[card] += cents;
+                } else {
+                    tally.purchasesDeclined[card]++;
+                }
+            }
+        }
+    }
+
+}
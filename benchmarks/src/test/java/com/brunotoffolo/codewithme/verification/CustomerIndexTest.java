@@ -0,0 +1,120 @@
+package com.brunotoffolo.codewithme.verification;
+
+import com.brunotoffolo.codewithme.exceptions.model.Cpf;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.registry.CustomerIndex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link CustomerIndex} finds every customer by CPF, and by the first
+ * digits of the CPF in CPF order, and that it takes less heap than a
+ * java.util.HashMap keyed by the formatted CPF. The heap it reports through
+ * {@link CustomerIndex#footprintBytes()} must be close to the heap it really takes.
+ *
+ * The customers themselves are created first and are not measured. Lookups are made with
+ * new String objects, as a request would bring them.
+ *
+ * @author Bruno Toffolo
+ */
+public class CustomerIndexTest {
+
+    private static final int CUSTOMERS = 200_000;
+    private static final String[] PREFIXES = {"12", "123", "123.4", "123.45", "123.456", "123.456.7", "123.456.78"};
+
+    private final Customer[] customers = new Customer[CUSTOMERS];
+    private final String[] lookups = new String[CUSTOMERS];
+
+    @Before
+    public void createCustomers() {
+        // Distinct base digits, scattered over all the CPFs, skipping the few invalid ones
+        // such as 000.000.000-00
+        long next = 0;
+        for (int i = 0; i < CUSTOMERS; i++) {
+            long key;
+            do {
+                key = Cpf.withCheckDigits(++next * 1_000_003L % 1_000_000_000L);
+            } while (!Cpf.isValid(key));
+            String cpf = Cpf.format(key);
+            customers[i] = new Customer(cpf, "Customer", "#" + i);
+            lookups[i] = new String(cpf.toCharArray());
+        }
+    }
+
+    @Test
+    public void findsEveryCustomer() {
+        CustomerIndex index = indexAll();
+        Mismatches mismatches = new Mismatches("wrong lookups");
+        mismatches.check("customers", CUSTOMERS, index.size());
+        for (int i = 0; i < CUSTOMERS; i++) {
+            if (index.get(lookups[i]) != customers[i]) {
+                mismatches.add("customer " + lookups[i] + " not found");
+            }
+        }
+        mismatches.assertNone();
+    }
+
+    @Test
+    public void findsCustomersByPrefix() {
+        CustomerIndex index = indexAll();
+        Mismatches mismatches = new Mismatches("wrong searches");
+        for (String prefix : PREFIXES) {
+            List<Customer> results = index.findByPrefix(prefix, Integer.MAX_VALUE);
+
+            long expected = 0;
+            String digits = prefix.replace(".", "");
+            for (Customer customer : customers) {
+                if (customer.getCpf().replace(".", "").startsWith(digits)) {
+                    expected++;
+                }
+            }
+            mismatches.check("customers starting with " + prefix, expected, results.size());
+
+            for (int i = 1; i < results.size(); i++) {
+                if (Cpf.parse(results.get(i - 1).getCpf()) >= Cpf.parse(results.get(i).getCpf())) {
+                    mismatches.add("customers starting with " + prefix + " not sorted at " + i);
+                }
+            }
+        }
+        mismatches.assertNone();
+    }
+
+    @Test
+    public void takesLessHeapThanHashMap() {
+        long baseline = Fixtures.usedHeap();
+        Map<String, Customer> hashMap = new HashMap<>();
+        for (Customer customer : customers) {
+            hashMap.put(customer.getCpf(), customer);
+        }
+        long hashMapBytes = Fixtures.usedHeap() - baseline;
+        assertEquals(CUSTOMERS, hashMap.size());
+        hashMap = null;
+
+        baseline = Fixtures.usedHeap();
+        CustomerIndex index = indexAll();
+        long indexBytes = Fixtures.usedHeap() - baseline;
+        assertEquals(CUSTOMERS, index.size());
+        long estimatedBytes = index.footprintBytes();
+
+        assertTrue("The index takes " + indexBytes + " bytes, the HashMap " + hashMapBytes,
+                indexBytes < hashMapBytes);
+        assertTrue("The index takes " + indexBytes + " bytes, but is estimated at " + estimatedBytes,
+                Math.abs(indexBytes - estimatedBytes) < indexBytes / 10);
+    }
+
+    private CustomerIndex indexAll() {
+        CustomerIndex index = new CustomerIndex();
+        for (Customer customer : customers) {
+            index.register(customer);
+        }
+        return index;
+    }
+
+}
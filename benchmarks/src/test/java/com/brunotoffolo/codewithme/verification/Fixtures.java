@@ -0,0 +1,82 @@
+package com.brunotoffolo.codewithme.verification;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Accounts, cards and helpers shared by the verification tests.
+ *
+ * @author Bruno Toffolo
+ */
+final class Fixtures {
+
+    /** Descriptions given to the purchases, repeated as in a real history. */
+    static final String[] DESCRIPTIONS = {
+            "Groceries", "Gold ring", "Wine bottle", "Air tickets", "Hotel reservation", "Sightseeing tour pack"
+    };
+
+    /** Number of the first card created by {@link #card(int)}. */
+    static final long FIRST_CARD_NUMBER = 4000000000000000L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Opens an account for a customer of its own.
+     *
+     * @param number Account number, also used to build the CPF of the customer
+     * @return Opened account
+     */
+    static Account account(int number) {
+        return Account.open(number, new Customer(String.valueOf(10000000000L + number), "Customer", "#" + number));
+    }
+
+    /**
+     * Creates a card with a limit of 5000.00 that expires in three years.
+     *
+     * @param index Index of the card, added to {@link #FIRST_CARD_NUMBER} to get its number
+     * @return Created card
+     */
+    static CreditCard card(int index) {
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.YEAR, 3);
+        return new CreditCard(123456, expiration, 5000, "Visa", FIRST_CARD_NUMBER + index);
+    }
+
+    /**
+     * Gets the heap in use after a few garbage collections, to measure how much heap a
+     * structure takes by comparing the values before and after it is built.
+     *
+     * @return Used heap, in bytes
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Deletes a directory and everything in it.
+     *
+     * @param directory Directory to be deleted
+     * @throws IOException If a file could not be deleted
+     */
+    static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+}
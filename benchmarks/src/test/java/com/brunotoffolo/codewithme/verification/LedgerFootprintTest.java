@@ -0,0 +1,98 @@
+package com.brunotoffolo.codewithme.verification;
+
+import com.brunotoffolo.codewithme.exceptions.model.Money;
+import com.brunotoffolo.codewithme.exceptions.model.Purchase;
+import com.brunotoffolo.codewithme.exceptions.model.PurchaseLedger;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the columnar {@link PurchaseLedger} keeps every purchase it is given, and
+ * that it takes much less heap than a list of {@link Purchase} objects (the original
+ * representation of a credit card history) holding the same purchases. The heap it
+ * reports through {@link PurchaseLedger#footprintBytes()} must be close to the heap it
+ * really takes.
+ *
+ * @author Bruno Toffolo
+ */
+public class LedgerFootprintTest {
+
+    private static final int CARDS = 2000;
+    private static final int PURCHASES_PER_CARD = 100;
+
+    @Test
+    public void keepsEveryPurchase() {
+        PurchaseLedger ledger = new PurchaseLedger();
+        long now = System.currentTimeMillis();
+        // Enough purchases to fill a few chunks of the ledger
+        int count = 10 * PURCHASES_PER_CARD * PURCHASES_PER_CARD;
+        for (int i = 0; i < count; i++) {
+            ledger.append(now + i, Money.toCents(amountOf(i)), descriptionOf(i));
+        }
+
+        Mismatches mismatches = new Mismatches("purchases not kept");
+        mismatches.check("size", count, ledger.size());
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            mismatches.check("timestamp of purchase " + i, now + i, ledger.timestampAt(i));
+            mismatches.check("amount of purchase " + i, Money.toCents(amountOf(i)), ledger.amountCentsAt(i));
+            if (!descriptionOf(i).equals(ledger.descriptionAt(i))) {
+                mismatches.add("description of purchase " + i + ": expected " + descriptionOf(i) + ", got "
+                        + ledger.descriptionAt(i));
+            }
+            total += Money.toCents(amountOf(i));
+        }
+        mismatches.check("sum of the amounts", total, ledger.sumAmountCents(0, count));
+        mismatches.assertNone();
+    }
+
+    @Test
+    public void takesLessHeapThanPurchaseObjects() {
+        long baseline = Fixtures.usedHeap();
+        List<List<Purchase>> lists = new ArrayList<>(CARDS);
+        for (int card = 0; card < CARDS; card++) {
+            List<Purchase> history = new ArrayList<>();
+            for (int i = 0; i < PURCHASES_PER_CARD; i++) {
+                history.add(new Purchase(amountOf(i), descriptionOf(i)));
+            }
+            lists.add(history);
+        }
+        long listBytes = Fixtures.usedHeap() - baseline;
+        assertEquals(CARDS, lists.size());
+        lists = null;
+
+        baseline = Fixtures.usedHeap();
+        List<PurchaseLedger> ledgers = new ArrayList<>(CARDS);
+        long estimatedBytes = 0;
+        for (int card = 0; card < CARDS; card++) {
+            PurchaseLedger ledger = new PurchaseLedger();
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < PURCHASES_PER_CARD; i++) {
+                ledger.append(now, Money.toCents(amountOf(i)), descriptionOf(i));
+            }
+            estimatedBytes += ledger.footprintBytes();
+            ledgers.add(ledger);
+        }
+        long ledgerBytes = Fixtures.usedHeap() - baseline;
+        assertEquals(CARDS, ledgers.size());
+
+        assertTrue("The ledgers take " + ledgerBytes + " bytes, the lists of purchases " + listBytes,
+                ledgerBytes * 2 < listBytes);
+        assertTrue("The ledgers take " + ledgerBytes + " bytes, but are estimated at " + estimatedBytes,
+                Math.abs(ledgerBytes - estimatedBytes) < ledgerBytes / 10);
+    }
+
+    private static double amountOf(int i) {
+        return 10.00 + (i % 500) * 1.25;
+    }
+
+    private static String descriptionOf(int i) {
+        return Fixtures.DESCRIPTIONS[i % Fixtures.DESCRIPTIONS.length];
+    }
+
+}
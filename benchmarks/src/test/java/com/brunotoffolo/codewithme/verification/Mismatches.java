@@ -0,0 +1,76 @@
+package com.brunotoffolo.codewithme.verification;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Collects the differences found by a verification, so a test reports all of them at
+ * once instead of stopping at the first one. Differences may be added by many threads at
+ * the same time; only the first few are kept, as a broken update usually produces many.
+ *
+ * @author Bruno Toffolo
+ */
+final class Mismatches {
+
+    private static final int MAX_REPORTED = 10;
+
+    private final String kind;
+    private final AtomicLong count = new AtomicLong();
+    private final Queue<String> reported = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates an empty collection of differences.
+     *
+     * @param kind Name of the differences, used in the failure message
+     */
+    Mismatches(String kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * Adds a difference if a value is not the expected one.
+     *
+     * @param what Description of the value
+     * @param expected Expected value
+     * @param actual Value found
+     */
+    void check(String what, long expected, long actual) {
+        if (expected != actual) {
+            add(what + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    /**
+     * Adds a difference.
+     *
+     * @param message Description of the difference
+     */
+    void add(String message) {
+        if (count.incrementAndGet() <= MAX_REPORTED) {
+            reported.add(message);
+        }
+    }
+
+    /**
+     * Gets the number of differences found so far.
+     *
+     * @return Number of differences
+     */
+    long count() {
+        return count.get();
+    }
+
+    /**
+     * Fails the test if any difference was found, listing the first ones.
+     */
+    void assertNone() {
+        long found = count.get();
+        if (found > 0) {
+            fail(found + " " + kind + ", such as:\n  " + String.join("\n  ", reported));
+        }
+    }
+
+}
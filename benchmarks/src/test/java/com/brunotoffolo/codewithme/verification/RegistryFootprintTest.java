@@ -0,0 +1,100 @@
+package com.brunotoffolo.codewithme.verification;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.registry.IntObjectMap;
+import com.brunotoffolo.codewithme.exceptions.registry.LongObjectMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the primitive-keyed maps of the
+ * {@link com.brunotoffolo.codewithme.exceptions.registry.AccountRegistry} find every
+ * entry they hold and no other, and that they take much less heap than java.util.HashMap
+ * with boxed Integer and Long keys. The heap they report through their footprintBytes()
+ * method must be close to the heap they really take.
+ *
+ * Every entry points to the same account or card, so only the indexes themselves are
+ * measured. Entries are looked up in a scattered order, as requests for accounts and
+ * cards do not arrive sorted by number.
+ *
+ * @author Bruno Toffolo
+ */
+public class RegistryFootprintTest {
+
+    private static final int ENTRIES = 500_000;
+
+    private final Account account = Fixtures.account(1);
+    private final CreditCard card = Fixtures.card(0);
+
+    @Test
+    public void findsEveryEntry() {
+        IntObjectMap<Account> accounts = new IntObjectMap<>();
+        LongObjectMap<CreditCard> cards = new LongObjectMap<>();
+        // Only even numbers are added, so the odd ones must not be found
+        for (int i = 0; i < ENTRIES; i++) {
+            accounts.put(2 * i, account);
+            cards.put(Fixtures.FIRST_CARD_NUMBER + 2 * i, card);
+        }
+
+        Mismatches mismatches = new Mismatches("wrong lookups");
+        mismatches.check("accounts", ENTRIES, accounts.size());
+        mismatches.check("cards", ENTRIES, cards.size());
+        for (int i = 0; i < 2 * ENTRIES; i++) {
+            int key = scattered(i, 2 * ENTRIES);
+            boolean expected = key % 2 == 0;
+            if ((accounts.get(key) == account) != expected) {
+                mismatches.add("account " + key + (expected ? " not found" : " found"));
+            }
+            if ((cards.get(Fixtures.FIRST_CARD_NUMBER + key) == card) != expected) {
+                mismatches.add("card " + (Fixtures.FIRST_CARD_NUMBER + key) + (expected ? " not found" : " found"));
+            }
+        }
+        mismatches.assertNone();
+    }
+
+    @Test
+    public void takesLessHeapThanHashMaps() {
+        long baseline = Fixtures.usedHeap();
+        Map<Integer, Account> accountMap = new HashMap<>();
+        Map<Long, CreditCard> cardMap = new HashMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            accountMap.put(i, account);
+            cardMap.put(Fixtures.FIRST_CARD_NUMBER + i, card);
+        }
+        long hashMapBytes = Fixtures.usedHeap() - baseline;
+        assertEquals(ENTRIES, accountMap.size());
+        assertEquals(ENTRIES, cardMap.size());
+        accountMap = null;
+        cardMap = null;
+
+        baseline = Fixtures.usedHeap();
+        IntObjectMap<Account> accounts = new IntObjectMap<>();
+        LongObjectMap<CreditCard> cards = new LongObjectMap<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            accounts.put(i, account);
+            cards.put(Fixtures.FIRST_CARD_NUMBER + i, card);
+        }
+        long registryBytes = Fixtures.usedHeap() - baseline;
+        assertEquals(ENTRIES, accounts.size());
+        assertEquals(ENTRIES, cards.size());
+        long estimatedBytes = accounts.footprintBytes() + cards.footprintBytes();
+
+        assertTrue("The primitive-keyed maps take " + registryBytes + " bytes, the HashMaps " + hashMapBytes,
+                registryBytes * 2 < hashMapBytes);
+        assertTrue("The primitive-keyed maps take " + registryBytes + " bytes, but are estimated at "
+                + estimatedBytes, Math.abs(registryBytes - estimatedBytes) < registryBytes / 10);
+    }
+
+    private static int scattered(int i, int entries) {
+        // Multiplying by a large prime visits every number below entries exactly once
+        // (unless entries is a multiple of that prime), in a scattered order
+        return (int) ((i * 1_000_003L) % entries);
+    }
+
+}
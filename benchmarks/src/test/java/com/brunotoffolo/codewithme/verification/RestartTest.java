@@ -0,0 +1,124 @@
+package com.brunotoffolo.codewithme.verification;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEvents;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.persistence.Checkpointer;
+import com.brunotoffolo.codewithme.exceptions.persistence.Durability;
+import com.brunotoffolo.codewithme.exceptions.persistence.LogReader;
+import com.brunotoffolo.codewithme.exceptions.persistence.ModelState;
+import com.brunotoffolo.codewithme.exceptions.persistence.WriteAheadLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a restart brings back the accounts and cards as they were, both when the
+ * whole transaction log is replayed and when the newest snapshot is loaded and only the
+ * log written after it is replayed.
+ *
+ * Accounts with one credit card each are created and used while a {@link WriteAheadLog}
+ * records them. A snapshot is taken after 90% of the operations, and the remaining 10%
+ * are left in the log tail.
+ *
+ * @author Bruno Toffolo
+ */
+public class RestartTest {
+
+    private static final int ACCOUNTS = 2000;
+    private static final int ROUNDS = 20;
+
+    private final List<Account> accounts = new ArrayList<>(ACCOUNTS);
+    private Path directory;
+
+    @Before
+    public void recordOperations() throws IOException {
+        directory = Files.createTempDirectory("restart-test");
+        WriteAheadLog log = new WriteAheadLog(directory, Durability.ASYNC);
+        BankingEvents.setChangeLog(log);
+        try (Checkpointer checkpointer = new Checkpointer(directory, log)) {
+            for (int i = 0; i < ACCOUNTS; i++) {
+                Account account = Fixtures.account(i + 1);
+                account.deposit(1000);
+                account.addCreditCard(Fixtures.card(i));
+                accounts.add(account);
+            }
+
+            int snapshotRound = ROUNDS * 9 / 10;
+            for (int round = 0; round < ROUNDS; round++) {
+                if (round == snapshotRound) {
+                    log.sync();
+                    checkpointer.checkpoint();
+                }
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    Account account = accounts.get(i);
+                    CreditCard card = account.getCreditCards().get(0);
+                    String description = Fixtures.DESCRIPTIONS[round % Fixtures.DESCRIPTIONS.length];
+                    card.tryAddPurchase(10.00 + round * 1.25, description);
+                    account.tryWithdraw(50 + i % 100);
+                    account.tryTransfer(accounts.get((i + round + 1) % ACCOUNTS), 25);
+                    if (i % 97 == round) {
+                        card.block();
+                    }
+                }
+            }
+        } finally {
+            BankingEvents.setChangeLog(null);
+            log.close();
+        }
+    }
+
+    @After
+    public void deleteLog() throws IOException {
+        Fixtures.deleteDirectory(directory);
+    }
+
+    @Test
+    public void replaysTheWholeLog() throws IOException {
+        ModelState replayed = new ModelState();
+        LogReader.replay(directory, replayed);
+        checkRestored(replayed);
+    }
+
+    @Test
+    public void loadsTheSnapshotAndTheLogTail() throws IOException {
+        checkRestored(LogReader.recover(directory));
+    }
+
+    private void checkRestored(ModelState state) {
+        Mismatches mismatches = new Mismatches("differences after the restart");
+        mismatches.check("accounts", accounts.size(), state.getAccounts().size());
+        for (Account account : accounts) {
+            String what = "account " + account.getNumber();
+            Account restored = state.getAccount(account.getNumber());
+            if (restored == null) {
+                mismatches.add(what + " is missing");
+                continue;
+            }
+            mismatches.check(what + " balance", account.getBalanceCents(), restored.getBalanceCents());
+            mismatches.check(what + " credit limit", account.getCreditLimitCents(), restored.getCreditLimitCents());
+
+            CreditCard card = account.getCreditCards().get(0);
+            what = "card " + card.getNumber();
+            CreditCard restoredCard = state.getCard(card.getNumber());
+            if (restoredCard == null) {
+                mismatches.add(what + " is missing");
+                continue;
+            }
+            mismatches.check(what + " balance", card.getBalanceCents(), restoredCard.getBalanceCents());
+            mismatches.check(what + " limit", card.getLimitCents(), restoredCard.getLimitCents());
+            mismatches.check(what + " purchases", card.getPurchases().size(), restoredCard.getPurchases().size());
+            if (card.isBlocked() != restoredCard.isBlocked()) {
+                mismatches.add(what + (card.isBlocked() ? " is no longer blocked" : " is blocked"));
+            }
+        }
+        mismatches.assertNone();
+    }
+
+}
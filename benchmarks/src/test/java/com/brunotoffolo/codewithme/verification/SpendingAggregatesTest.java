@@ -0,0 +1,142 @@
+package com.brunotoffolo.codewithme.verification;
+
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Money;
+import com.brunotoffolo.codewithme.exceptions.model.PurchaseLedger;
+import com.brunotoffolo.codewithme.exceptions.model.SpendingAggregates;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Checks the {@link SpendingAggregates} of a credit card against the totals computed by
+ * reading its whole purchase history: per day, per month, per description and overall,
+ * both in amount and in number of purchases. The history is either restored, over two
+ * years and partly out of time order, or made of purchases from several threads at once.
+ *
+ * @author Bruno Toffolo
+ */
+public class SpendingAggregatesTest {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    /** Descriptions of the purchases, including purchases without one. */
+    private static final String[] DESCRIPTIONS = Arrays.copyOf(Fixtures.DESCRIPTIONS,
+            Fixtures.DESCRIPTIONS.length + 1);
+
+    @Test
+    public void matchesRestoredHistory() {
+        CreditCard card = Fixtures.card(0);
+        // Purchases spread over two years, with a few of them out of time order, as
+        // happens when late purchases are restored
+        Random random = new Random(42);
+        int count = 200000;
+        long end = System.currentTimeMillis();
+        long span = 2 * 365 * DAY_MILLIS;
+        for (int i = 0; i < count; i++) {
+            long epochMillis = end - span + span * i / count;
+            if (random.nextInt(100) == 0) {
+                epochMillis -= random.nextInt(90) * DAY_MILLIS;
+            }
+            card.restorePurchase(epochMillis, 1 + random.nextInt(100000),
+                    DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)]);
+        }
+
+        Mismatches mismatches = new Mismatches("totals different from the history");
+        checkAgainstHistory(card, mismatches);
+        mismatches.check("total of all days", card.getPurchases().sumAmountCents(0, count),
+                card.getAggregates().getTotalCentsBetween(dayOf(end - span).minusDays(90), dayOf(end)));
+        mismatches.assertNone();
+    }
+
+    @Test
+    public void matchesPurchasesMadeConcurrently() throws InterruptedException {
+        int threads = 4;
+        int purchasesPerThread = 20000;
+        CreditCard card = Fixtures.card(0);
+        // High enough for every purchase to be approved
+        card.setLimit(Money.toDouble((long) threads * purchasesPerThread * 10000));
+
+        Thread[] buyers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            SplittableRandom random = new SplittableRandom(t);
+            buyers[t] = new Thread(() -> {
+                for (int i = 0; i < purchasesPerThread; i++) {
+                    String description = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+                    card.tryAddPurchase(Money.toDouble(1 + random.nextInt(10000)), description);
+                }
+            }, "buyer-" + t);
+            buyers[t].start();
+        }
+        for (Thread buyer : buyers) {
+            buyer.join();
+        }
+
+        Mismatches mismatches = new Mismatches("totals different from the history");
+        mismatches.check("purchases", (long) threads * purchasesPerThread, card.getPurchases().size());
+        mismatches.check("card balance", card.getBalanceCents(), card.getAggregates().getTotalCents());
+        checkAgainstHistory(card, mismatches);
+        mismatches.assertNone();
+    }
+
+    /**
+     * Adds up the purchase history of a card and compares the results with its aggregates.
+     */
+    private static void checkAgainstHistory(CreditCard card, Mismatches mismatches) {
+        PurchaseLedger purchases = card.getPurchases();
+        Map<LocalDate, long[]> daily = new HashMap<>();
+        Map<YearMonth, long[]> monthly = new HashMap<>();
+        Map<String, long[]> categories = new HashMap<>();
+        long total = 0;
+        for (int i = 0; i < purchases.size(); i++) {
+            LocalDate day = dayOf(purchases.timestampAt(i));
+            long amount = purchases.amountCentsAt(i);
+            add(daily.computeIfAbsent(day, key -> new long[2]), amount);
+            add(monthly.computeIfAbsent(YearMonth.from(day), key -> new long[2]), amount);
+            if (purchases.descriptionAt(i) != null) {
+                add(categories.computeIfAbsent(purchases.descriptionAt(i), key -> new long[2]), amount);
+            }
+            total += amount;
+        }
+
+        SpendingAggregates aggregates = card.getAggregates();
+        for (Map.Entry<LocalDate, long[]> entry : daily.entrySet()) {
+            String what = "day " + entry.getKey();
+            mismatches.check(what + " total", entry.getValue()[0], aggregates.getDailyTotalCents(entry.getKey()));
+            mismatches.check(what + " purchases", entry.getValue()[1],
+                    aggregates.getDailyPurchaseCount(entry.getKey()));
+        }
+        for (Map.Entry<YearMonth, long[]> entry : monthly.entrySet()) {
+            String what = "month " + entry.getKey();
+            mismatches.check(what + " total", entry.getValue()[0], aggregates.getMonthlyTotalCents(entry.getKey()));
+            mismatches.check(what + " purchases", entry.getValue()[1],
+                    aggregates.getMonthlyPurchaseCount(entry.getKey()));
+        }
+        for (String description : Fixtures.DESCRIPTIONS) {
+            String what = "description " + description;
+            long[] expected = categories.getOrDefault(description, new long[2]);
+            mismatches.check(what + " total", expected[0], aggregates.getCategoryTotalCents(description));
+            mismatches.check(what + " purchases", expected[1], aggregates.getCategoryPurchaseCount(description));
+        }
+        mismatches.check("total", total, aggregates.getTotalCents());
+        mismatches.check("purchase count", purchases.size(), aggregates.getPurchaseCount());
+    }
+
+    private static void add(long[] totals, long amountCents) {
+        totals[0] += amountCents;
+        totals[1]++;
+    }
+
+    private static LocalDate dayOf(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atZone(ZONE).toLocalDate();
+    }
+
+}
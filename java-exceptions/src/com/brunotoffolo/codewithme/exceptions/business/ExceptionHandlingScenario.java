@@ -1,7 +1,9 @@
 package com.brunotoffolo.codewithme.exceptions.business;
 
 import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.journal.EventJournal;
 import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEvents;
 import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
 import com.brunotoffolo.codewithme.exceptions.model.Customer;
 
@@ -26,6 +28,9 @@ public class ExceptionHandlingScenario {
     /** Customer used in the example scenario. */
     private static Customer customer;
 
+    /** Journal that writes a message about every operation to the console. */
+    private static EventJournal journal;
+
     /** Used internally to generate random numbers. */
     private static final Random random = new Random();
 
@@ -37,77 +42,89 @@ public class ExceptionHandlingScenario {
      */
     public static void main(String[] args) {
 
-        // John Doe started a new job, so let's create a new bank account for him.
-        initializeCustomerAndAccount();
-
-        // He also earned his salary, so let's deposit it into his new account.
-        account.deposit(2500.00);
-
-        // He needed to buy some groceries on his way home, so he decided to check
-        // how many different cards his new account provides. He can pick one of them
-        // to pay the market.
-        List<CreditCard> creditCards = account.getCreditCards();
-        int numberOfCreditCards = creditCards.size();
-
-        // Let's check if there is any card available. If the account does not provide
-        // one by default, let's order it!
-        CreditCard creditCard;
-        if (numberOfCreditCards == 0) {
-            creditCard = createCreditCard("Visa");
-            account.addCreditCard(creditCard);
-        } else {
-            creditCard = creditCards.get(0);
-        }
+        // Messages about every operation are written to the console by the event journal.
+        // A synchronous journal writes each message before the operation returns, so they
+        // show up in the same order as the errors printed below. The journal is closed in a
+        // finally block, even if the scenario ends with an exception.
+        journal = EventJournal.synchronous(System.out);
+        BankingEvents.register(journal);
 
-        // John's new credit card has arrived! Let's set a new PIN so he can start using it.
         try {
-            creditCard.setPin(1000 + random.nextInt(9000));
-        } catch (IllegalArgumentException e) {
-            creditCard.setPin(100000 + random.nextInt(900000));
-        }
+            // John Doe started a new job, so let's create a new bank account for him.
+            initializeCustomerAndAccount();
+
+            // He also earned his salary, so let's deposit it into his new account.
+            account.deposit(2500.00);
+
+            // He needed to buy some groceries on his way home, so he decided to check
+            // how many different cards his new account provides. He can pick one of them
+            // to pay the market.
+            List<CreditCard> creditCards = account.getCreditCards();
+            int numberOfCreditCards = creditCards.size();
+
+            // Let's check if there is any card available. If the account does not provide
+            // one by default, let's order it!
+            CreditCard creditCard;
+            if (numberOfCreditCards == 0) {
+                creditCard = createCreditCard("Visa");
+                account.addCreditCard(creditCard);
+            } else {
+                creditCard = creditCards.get(0);
+            }
 
-        // As he does already have a card, he can go to an ATM and get some money for the
-        // daily expenses. Let's take enough to pay the rent and buy the groceries, and
-        // an additional amount to buy his wife some nice gifts to celebrate the anniversary.
-        try {
-            account.withdraw(3500.00);
-            account.withdraw(1200.00);
-        } catch (InsufficientFundsException e) {
+            // John's new credit card has arrived! Let's set a new PIN so he can start using it.
+            try {
+                creditCard.setPin(1000 + random.nextInt(9000));
+            } catch (IllegalArgumentException e) {
+                creditCard.setPin(100000 + random.nextInt(900000));
+            }
 
-            // If John's credit limit is not enough to perform the withdrawal, he will make
-            // the payments using his credit card. In this case, let's add the purchases to
-            // his invoice.
+            // As he does already have a card, he can go to an ATM and get some money for the
+            // daily expenses. Let's take enough to pay the rent and buy the groceries, and
+            // an additional amount to buy his wife some nice gifts to celebrate the anniversary.
+            try {
+                account.withdraw(3500.00);
+                account.withdraw(1200.00);
+            } catch (InsufficientFundsException e) {
+
+                // If John's credit limit is not enough to perform the withdrawal, he will make
+                // the payments using his credit card. In this case, let's add the purchases to
+                // his invoice.
+
+                // As adding a purchase can also throw an exception due to insufficient funds, we
+                // also need to wrap it inside a try/catch block. It is possible to nest these
+                // blocks as deep as desired.
+                try {
+                    creditCard.addPurchase(699.00, "Gold ring");
+                    creditCard.addPurchase(89.50, "Wine bottle");
+                } catch (InsufficientFundsException ex) {
+                    // If he does not have enough money for the gifts, the anniversary celebration
+                    // is over. Let's just log the error and that's it...
+                    System.err.println("Anniversary gifts can not be purchased: " + ex.getMessage());
+                }
+            }
 
-            // As adding a purchase can also throw an exception due to insufficient funds, we
-            // also need to wrap it inside a try/catch block. It is possible to nest these
-            // blocks as deep as desired.
+            // Now that the groceries and gifts are already bought, John decides to plan a
+            // getaway on the weekend to a resort close to the beach and celebrate the anniversary
             try {
-                creditCard.addPurchase(699.00, "Gold ring");
-                creditCard.addPurchase(89.50, "Wine bottle");
-            } catch (InsufficientFundsException ex) {
-                // If he does not have enough money for the gifts, the anniversary celebration
-                // is over. Let's just log the error and that's it...
-                System.err.println("Anniversary gifts can not be purchased: " + ex.getMessage());
+                creditCard.addPurchase(1497.00, "Air tickets");
+                creditCard.addPurchase(2399.00, "Hotel reservation");
+                creditCard.addPurchase(359.00, "Sightseeing tour pack");
+            } catch (InsufficientFundsException e) {
+                // If we are in the catch block, it means that something went wrong and John could
+                // not make one or more of his reservations for the weekend trip. To check what's
+                // wrong, he decides to print his credit card invoices and see his recent purchases.
+                creditCard.createInvoice("invoice_" + creditCard.getNumber() + ".txt");
             }
-        }
 
-        // Now that the groceries and gifts are already bought, John decides to plan a
-        // getaway on the weekend to a resort close to the beach and celebrate the anniversary
-        try {
-            creditCard.addPurchase(1497.00, "Air tickets");
-            creditCard.addPurchase(2399.00, "Hotel reservation");
-            creditCard.addPurchase(359.00, "Sightseeing tour pack");
-        } catch (InsufficientFundsException e) {
-            // If we are in the catch block, it means that something went wrong and John could
-            // not make one or more of his reservations for the weekend trip. To check what's
-            // wrong, he decides to print his credit card invoices and see his recent purchases.
-            creditCard.createInvoice("invoice_" + creditCard.getNumber() + ".txt");
+            // As John could notice that he didn't have any more limit left to book the trip, he then
+            // decided to change the date of his air tickets and hotel reservation to the next month,
+            // so he could save some extra money and buy the sightseeing tour pack.
+            // His wife loved the ring and they are very excited to make this trip next month!!!
+        } finally {
+            BankingEvents.unregister(journal);
+            journal.close();
         }
-
-        // As John could notice that he didn't have any more limit left to book the trip, he then
-        // decided to change the date of his air tickets and hotel reservation to the next month,
-        // so he could save some extra money and buy the sightseeing tour pack.
-        // His wife loved the ring and they are very excited to make this trip next month!!!
     }
 
     /**
@@ -120,7 +137,7 @@ public class ExceptionHandlingScenario {
 
         // Generate a new random account number
         int accountNumber = 1000000 + random.nextInt(9000000);
-        account = new Account(accountNumber, customer);
+        account = Account.open(accountNumber, customer);
 
         System.out.println(customer);
         System.out.println(account);
@@ -138,9 +155,7 @@ public class ExceptionHandlingScenario {
         long number = 1000000000000000L + (long) (random.nextDouble() * 9000000000000000L);
         GregorianCalendar expirationDate = new GregorianCalendar(2025, 10, 01);
 
-        CreditCard card = new CreditCard(pin, expirationDate, 5000, brand, number);
-        System.out.println("Credit card number " + number + " created with a USD 5000.00 limit");
-
-        return card;
+        // The journal writes a message once the card is added to the account
+        return new CreditCard(pin, expirationDate, 5000, brand, number);
     }
 }
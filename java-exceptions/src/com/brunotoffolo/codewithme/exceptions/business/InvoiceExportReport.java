@@ -0,0 +1,75 @@
+package com.brunotoffolo.codewithme.exceptions.business;
+
+/**
+ * Summary of a bulk invoice export performed by the {@link InvoiceExporter}.
+ *
+ * @author Bruno Toffolo
+ */
+public class InvoiceExportReport {
+
+    private final long cards;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    public InvoiceExportReport(long cards, long bytes, long elapsedNanos) {
+        this.cards = cards;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the number of exported invoices.
+     *
+     * @return Number of cards
+     */
+    public long getCards() {
+        return cards;
+    }
+
+    /**
+     * Gets the number of bytes written.
+     *
+     * @return Number of bytes
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the total duration of the export.
+     *
+     * @return Elapsed time, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the export throughput in cards.
+     *
+     * @return Cards exported per second
+     */
+    public double getCardsPerSecond() {
+        return perSecond(cards);
+    }
+
+    /**
+     * Gets the export throughput in bytes.
+     *
+     * @return Bytes written per second
+     */
+    public double getBytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    private double perSecond(long count) {
+        return elapsedNanos == 0 ? 0 : count * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Exported %d invoices (%d bytes) in %.1f ms | %.0f cards/s | %.1f MB/s",
+                cards, bytes, elapsedNanos / 1_000_000.0, getCardsPerSecond(), getBytesPerSecond() / (1024 * 1024));
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.brunotoffolo.codewithme.exceptions.business;
+
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.InvoiceRenderer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exports the invoices of many credit cards at once, as done in a nightly billing run.
+ *
+ * Compared to calling {@link CreditCard#createInvoice(String)} for each card, the
+ * exporter splits the cards across a fork-join pool and each worker thread reuses its
+ * own renderer, text buffer and byte buffer for every invoice it renders during an
+ * export. These buffers are dropped when the export ends, so the threads of a shared
+ * pool do not keep megabytes of direct memory between exports. Invoices are
+ * written through NIO file channels, either one file per card or all of them into a
+ * single file. In the single file layout, each worker fills a segment of invoices in
+ * memory and then reserves a region of the file for it, so workers never wait for each
+ * other to write.
+ *
+ * @author Bruno Toffolo
+ */
+public class InvoiceExporter {
+
+    /** How the exported invoices are laid out in the file system. */
+    public enum Layout {
+        /** One "invoice_[card number].txt" file per card inside the target directory. */
+        FILE_PER_CARD,
+        /** A single file containing every invoice, one after the other. */
+        SINGLE_FILE
+    }
+
+    /** Number of cards below which a task is not split any further. */
+    private static final int SPLIT_THRESHOLD = 64;
+
+    /** Size of the segments written at once in the single file layout. */
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+
+    private static final byte[] INVOICE_SEPARATOR = "\r\n\f\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path target;
+    private final Layout layout;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates an exporter that runs in the common fork-join pool.
+     *
+     * @param target Directory (for {@link Layout#FILE_PER_CARD}) or file (for
+     *               {@link Layout#SINGLE_FILE}) where invoices are written
+     * @param layout How invoices are laid out
+     */
+    public InvoiceExporter(Path target, Layout layout) {
+        this(target, layout, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an exporter that runs in the given fork-join pool.
+     *
+     * @param target Directory (for {@link Layout#FILE_PER_CARD}) or file (for
+     *               {@link Layout#SINGLE_FILE}) where invoices are written
+     * @param layout How invoices are laid out
+     * @param pool Pool that renders and writes the invoices
+     */
+    public InvoiceExporter(Path target, Layout layout, ForkJoinPool pool) {
+        this.target = target;
+        this.layout = layout;
+        this.pool = pool;
+    }
+
+    /**
+     * Exports the invoices of the given cards.
+     *
+     * @param cards Cards whose invoices should be exported
+     * @return Report with the export throughput
+     * @throws IOException If any invoice could not be written
+     */
+    public InvoiceExportReport export(Collection<CreditCard> cards) throws IOException {
+        List<CreditCard> cardList = new ArrayList<>(cards);
+        String generatedAt = InvoiceRenderer.currentTime();
+        LongAdder bytes = new LongAdder();
+        // Each pool thread gets its own buffers, so rendering never needs synchronization
+        Map<Thread, Worker> workers = new ConcurrentHashMap<>();
+
+        long start = System.nanoTime();
+        try {
+            if (layout == Layout.SINGLE_FILE) {
+                try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    pool.invoke(new ExportTask(cardList, 0, cardList.size(), generatedAt, channel,
+                            new AtomicLong(), bytes, workers));
+                }
+            } else {
+                Files.createDirectories(target);
+                pool.invoke(new ExportTask(cardList, 0, cardList.size(), generatedAt, null, null, bytes,
+                        workers));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return new InvoiceExportReport(cardList.size(), bytes.sum(), elapsed);
+    }
+
+    /**
+     * Recursively splits the list of cards until each task has only a few of them.
+     */
+    private class ExportTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<CreditCard> cards;
+        private final int from;
+        private final int to;
+        private final String generatedAt;
+        private final FileChannel sharedChannel;
+        private final AtomicLong nextPosition;
+        private final LongAdder bytes;
+        private final Map<Thread, Worker> workers;
+
+        ExportTask(List<CreditCard> cards, int from, int to, String generatedAt,
+                   FileChannel sharedChannel, AtomicLong nextPosition, LongAdder bytes,
+                   Map<Thread, Worker> workers) {
+            this.cards = cards;
+            this.from = from;
+            this.to = to;
+            this.generatedAt = generatedAt;
+            this.sharedChannel = sharedChannel;
+            this.nextPosition = nextPosition;
+            this.bytes = bytes;
+            this.workers = workers;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ExportTask(cards, from, middle, generatedAt, sharedChannel, nextPosition, bytes,
+                                workers),
+                        new ExportTask(cards, middle, to, generatedAt, sharedChannel, nextPosition, bytes,
+                                workers));
+                return;
+            }
+
+            Worker worker = workers.computeIfAbsent(Thread.currentThread(), thread -> new Worker());
+            try {
+                for (int i = from; i < to; i++) {
+                    CreditCard card = cards.get(i);
+                    if (sharedChannel != null) {
+                        worker.appendToSegment(card, generatedAt);
+                        if (worker.buffer.position() >= SEGMENT_SIZE) {
+                            bytes.add(worker.flushSegment(sharedChannel, nextPosition));
+                        }
+                    } else {
+                        bytes.add(worker.writeFile(card, generatedAt));
+                    }
+                }
+                if (sharedChannel != null) {
+                    bytes.add(worker.flushSegment(sharedChannel, nextPosition));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Per-thread state used to render and write invoices, reused for every invoice the
+     * thread renders during an export.
+     */
+    private class Worker {
+
+        private final InvoiceRenderer renderer = new InvoiceRenderer();
+        private final StringBuilder text = new StringBuilder(4096);
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(2 * SEGMENT_SIZE);
+
+        long writeFile(CreditCard card, String generatedAt) throws IOException {
+            buffer.clear();
+            encode(card, generatedAt);
+            buffer.flip();
+
+            Path file = target.resolve("invoice_" + card.getNumber() + ".txt");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                long written = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                return written;
+            }
+        }
+
+        void appendToSegment(CreditCard card, String generatedAt) {
+            encode(card, generatedAt);
+            ensureCapacity(INVOICE_SEPARATOR.length);
+            buffer.put(INVOICE_SEPARATOR);
+        }
+
+        long flushSegment(FileChannel channel, AtomicLong nextPosition) throws IOException {
+            buffer.flip();
+            long length = buffer.remaining();
+            long position = nextPosition.getAndAdd(length);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+            return length;
+        }
+
+        private void encode(CreditCard card, String generatedAt) {
+            text.setLength(0);
+            renderer.render(card, generatedAt, text);
+
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            CoderResult result;
+            while ((result = encoder.encode(chars, buffer, true)).isOverflow()) {
+                grow(SEGMENT_SIZE);
+            }
+            while (encoder.flush(buffer).isOverflow()) {
+                grow(SEGMENT_SIZE);
+            }
+            if (result.isError()) {
+                throw new IllegalStateException("Invoice of card " + card.getNumber() + " could not be encoded");
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (buffer.remaining() < extra) {
+                grow(Math.max(extra, SEGMENT_SIZE));
+            }
+        }
+
+        private void grow(int extra) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() + extra);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+}
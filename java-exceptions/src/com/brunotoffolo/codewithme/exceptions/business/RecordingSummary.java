@@ -0,0 +1,136 @@
+package com.brunotoffolo.codewithme.exceptions.business;
+
+import com.brunotoffolo.codewithme.exceptions.model.FlightRecorderEvents;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Small application that summarizes the banking events of a flight recording, second
+ * by second: how many deposits, withdrawals, transfers, purchases, invoices and declines
+ * happened, the resulting throughput and the share of the withdrawals, transfers and
+ * purchases that were declined. A final line gives the totals and the mean duration of each operation.
+ *
+ * The recording can be taken from any application using the model, for instance the
+ * {@link WorkloadDriver}:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=filename=banking.jfr -DdeclineRatio=0.2 \
+ *     com.brunotoffolo.codewithme.exceptions.business.WorkloadDriver
+ * java com.brunotoffolo.codewithme.exceptions.business.RecordingSummary banking.jfr
+ * </pre>
+ *
+ * The file is read one event at a time, so recordings larger than the heap can be
+ * summarized. Events of other kinds are skipped.
+ *
+ * @author Bruno Toffolo
+ */
+public class RecordingSummary {
+
+    private static final String[] NAMES = {
+            FlightRecorderEvents.DEPOSIT, FlightRecorderEvents.WITHDRAWAL, FlightRecorderEvents.TRANSFER,
+            FlightRecorderEvents.PURCHASE, FlightRecorderEvents.INVOICE, FlightRecorderEvents.DECLINE
+    };
+    private static final String[] HEADERS = {
+            "Deposits", "Withdrawals", "Transfers", "Purchases", "Invoices", "Declines"
+    };
+    private static final int WITHDRAWALS = 1;
+    private static final int TRANSFERS = 2;
+    private static final int PURCHASES = 3;
+    private static final int DECLINES = 5;
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /**
+     * Runs the summary.
+     *
+     * @param args Path of the recording.
+     * @throws IOException If the recording could not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: RecordingSummary <recording.jfr>");
+            System.exit(1);
+        }
+
+        Path path = Paths.get(args[0]);
+        Map<Long, long[]> seconds = new TreeMap<>();
+        long[] totals = new long[NAMES.length];
+        long[] totalNanos = new long[NAMES.length];
+
+        try (RecordingFile recording = new RecordingFile(path)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                int type = typeOf(event.getEventType().getName());
+                if (type < 0) {
+                    continue;
+                }
+
+                long second = event.getStartTime().getEpochSecond();
+                seconds.computeIfAbsent(second, s -> new long[NAMES.length])[type]++;
+                totals[type]++;
+                totalNanos[type] += event.getDuration().toNanos();
+            }
+        }
+
+        if (seconds.isEmpty()) {
+            System.out.println("No banking events in " + path);
+            return;
+        }
+
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "%-8s", "Time"));
+        for (String name : HEADERS) {
+            header.append(String.format(Locale.ROOT, " %11s", name));
+        }
+        System.out.println(header.append(String.format(Locale.ROOT, " %11s %9s", "Total/s", "Declined")));
+
+        ZoneId zone = ZoneId.systemDefault();
+        for (Map.Entry<Long, long[]> entry : seconds.entrySet()) {
+            LocalTime time = LocalTime.ofInstant(Instant.ofEpochSecond(entry.getKey()), zone);
+            System.out.println(row(TIME.format(time), entry.getValue()));
+        }
+        System.out.println(row("Total", totals));
+
+        StringBuilder durations = new StringBuilder(String.format(Locale.ROOT, "%-8s", "Mean us"));
+        for (int i = 0; i < NAMES.length; i++) {
+            durations.append(String.format(Locale.ROOT, " %11.2f",
+                    totals[i] == 0 ? 0 : totalNanos[i] / 1e3 / totals[i]));
+        }
+        System.out.println(durations);
+    }
+
+    private static String row(String label, long[] counts) {
+        StringBuilder out = new StringBuilder(String.format(Locale.ROOT, "%-8s", label));
+        long operations = 0;
+        for (long count : counts) {
+            out.append(String.format(Locale.ROOT, " %11d", count));
+            operations += count;
+        }
+
+        // Declined operations are counted once, as declines, and not as withdrawals,
+        // transfers or purchases
+        long attempts = counts[WITHDRAWALS] + counts[TRANSFERS] + counts[PURCHASES] + counts[DECLINES];
+        double declined = attempts == 0 ? 0 : counts[DECLINES] * 100.0 / attempts;
+        return out.append(String.format(Locale.ROOT, " %11d %8.1f%%", operations, declined)).toString();
+    }
+
+    private static int typeOf(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,479 @@
+package com.brunotoffolo.codewithme.exceptions.business;
+
+import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.model.InvoiceRenderer;
+import com.brunotoffolo.codewithme.exceptions.model.Money;
+import com.brunotoffolo.codewithme.exceptions.model.OperationStatus;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Load generator built from the {@link ExceptionHandlingScenario}: instead of John Doe
+ * alone, it creates many customers, each with an account and a credit card, and a number
+ * of threads deposit, withdraw, buy and print invoices on random accounts of them for a
+ * while. At the end of each run it reports the throughput, the latency percentiles of
+ * each kind of operation, the allocation rate of the threads and the GC pauses.
+ *
+ * The workload is configured through system properties:
+ *
+ * <ul>
+ *     <li>customers: number of customers, accounts and cards (default 1000000)</li>
+ *     <li>threads: number of threads (default the number of processors)</li>
+ *     <li>seconds: duration of each run (default 10)</li>
+ *     <li>runs: number of runs; the first one also warms the JIT up (default 3)</li>
+ *     <li>mix: weights of deposits, withdrawals, purchases and invoices (default 30:30:35:5)</li>
+ *     <li>declineRatio: share of the withdrawals and purchases that ask for more than is
+ *     available, and so are declined (default 0.1)</li>
+ *     <li>declines: "exceptions" to use the methods that throw
+ *     {@link InsufficientFundsException}, as the scenario does, or "status" to use the
+ *     ones that return an {@link OperationStatus} (default exceptions)</li>
+ * </ul>
+ *
+ * A million customers take about 1.8 GB of heap, so run it with a large enough -Xmx:
+ *
+ * <pre>
+ * java -Xmx3g -Dthreads=4 -DdeclineRatio=0.5 \
+ *     com.brunotoffolo.codewithme.exceptions.business.WorkloadDriver
+ * </pre>
+ *
+ * Invoices are rendered in memory, with the same {@link InvoiceRenderer} used by
+ * {@link CreditCard#createInvoice(String)}, so the disk does not limit the run. No
+ * listener is registered in the banking events, so neither is the event journal.
+ *
+ * @author Bruno Toffolo
+ */
+public class WorkloadDriver {
+
+    private static final int DEPOSIT = 0;
+    private static final int WITHDRAWAL = 1;
+    private static final int PURCHASE = 2;
+    private static final int INVOICE = 3;
+    private static final String[] OPERATION_NAMES = {"Deposits", "Withdrawals", "Purchases", "Invoices"};
+
+    private static final String[] DESCRIPTIONS = {
+            "Groceries", "Gold ring", "Wine bottle", "Air tickets", "Hotel reservation", "Sightseeing tour pack"
+    };
+
+    /**
+     * Runs the workload.
+     *
+     * @param args Not used; see the class documentation for the system properties.
+     * @throws InterruptedException If interrupted while waiting for the threads
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int customers = Integer.getInteger("customers", 1000000);
+        int threads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+        int seconds = Integer.getInteger("seconds", 10);
+        int runs = Integer.getInteger("runs", 3);
+        int[] mix = parseMix(System.getProperty("mix", "30:30:35:5"));
+        double declineRatio = Double.parseDouble(System.getProperty("declineRatio", "0.1"));
+        boolean exceptions = !"status".equals(System.getProperty("declines", "exceptions"));
+
+        if (declineRatio < 0 || declineRatio > 1) {
+            throw new IllegalArgumentException("The decline ratio should be between 0 and 1");
+        }
+
+        System.out.printf("Customers: %d | Threads: %d | Duration: %d s | Mix: %s | Decline ratio: %.2f | "
+                        + "Declines: %s%n", customers, threads, seconds, System.getProperty("mix", "30:30:35:5"),
+                declineRatio, exceptions ? "exceptions" : "status");
+
+        long start = System.nanoTime();
+        Account[] accounts = createAccounts(customers);
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("Created in %d ms | Heap used: %d MB%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+
+        GcPauses pauses = new GcPauses();
+        try {
+            for (int run = 1; run <= runs; run++) {
+                pauses.reset();
+                Result result = run(accounts, threads, TimeUnit.SECONDS.toNanos(seconds), mix, declineRatio,
+                        exceptions);
+                System.out.println();
+                System.out.println("Run " + run + (run == 1 && runs > 1 ? " (warm-up)" : ""));
+                System.out.print(result);
+                System.out.println(pauses.summary(result.elapsedNanos));
+            }
+        } finally {
+            pauses.close();
+        }
+    }
+
+    private static Account[] createAccounts(int count) {
+        Calendar expiration = Calendar.getInstance();
+        expiration.add(Calendar.YEAR, 3);
+
+        Account[] accounts = new Account[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            Customer customer = new Customer(String.valueOf(10000000000L + i), "Customer", "#" + i);
+            Account account = Account.open(i + 1, customer);
+            account.deposit(1000);
+            account.addCreditCard(new CreditCard(123456, expiration, 5000, "VISA", 4000000000000000L + i));
+            accounts[i] = account;
+        });
+        return accounts;
+    }
+
+    private static Result run(Account[] accounts, int threads, long durationNanos, int[] mix,
+                              double declineRatio, boolean exceptions) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + durationNanos;
+        List<Worker> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Worker worker = new Worker(accounts, deadline, mix, declineRatio, exceptions, start + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        Result result = new Result();
+        for (Worker worker : workers) {
+            worker.join();
+            result.add(worker);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private static int[] parseMix(String mix) {
+        String[] weights = mix.split(":");
+        if (weights.length != OPERATION_NAMES.length) {
+            throw new IllegalArgumentException("The mix should have four weights, such as 30:30:35:5");
+        }
+
+        // Cumulative weights, so an operation is picked with a single random number
+        int[] cumulative = new int[weights.length];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            int weight = Integer.parseInt(weights[i].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weights of the mix should not be negative");
+            }
+            total += weight;
+            cumulative[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("At least one weight of the mix should be positive");
+        }
+        return cumulative;
+    }
+
+    /**
+     * Thread performing random operations until the deadline.
+     */
+    private static final class Worker extends Thread {
+        private final Account[] accounts;
+        private final long deadline;
+        private final int[] mix;
+        private final double declineRatio;
+        private final boolean exceptions;
+        private final SplittableRandom random;
+
+        private final InvoiceRenderer renderer = new InvoiceRenderer();
+        private final StringBuilder invoice = new StringBuilder();
+
+        private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATION_NAMES.length];
+        private final long[] declines = new long[OPERATION_NAMES.length];
+        private long allocatedBytes;
+
+        Worker(Account[] accounts, long deadline, int[] mix, double declineRatio, boolean exceptions, long seed) {
+            this.accounts = accounts;
+            this.deadline = deadline;
+            this.mix = mix;
+            this.declineRatio = declineRatio;
+            this.exceptions = exceptions;
+            this.random = new SplittableRandom(seed);
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            com.sun.management.ThreadMXBean threadBean =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(getId());
+
+            int totalWeight = mix[mix.length - 1];
+            long start;
+            while ((start = System.nanoTime()) < deadline) {
+                Account account = accounts[random.nextInt(accounts.length)];
+                int operation = pick(random.nextInt(totalWeight));
+                boolean approved = perform(operation, account);
+                latencies[operation].record(System.nanoTime() - start);
+                if (!approved) {
+                    declines[operation]++;
+                }
+            }
+
+            allocatedBytes = threadBean.getThreadAllocatedBytes(getId()) - allocatedBefore;
+        }
+
+        private int pick(int value) {
+            int operation = 0;
+            while (value >= mix[operation]) {
+                operation++;
+            }
+            return operation;
+        }
+
+        private boolean perform(int operation, Account account) {
+            CreditCard card = account.getCreditCards().get(0);
+            boolean decline = declineRatio > 0 && random.nextDouble() < declineRatio;
+            switch (operation) {
+                case DEPOSIT:
+                    account.deposit(1 + random.nextInt(200));
+                    return true;
+                case WITHDRAWAL:
+                    // A declined withdrawal asks for more than the balance plus the credit limit
+                    double withdrawal = decline
+                            ? Money.toDouble(account.getBalanceCents() + account.getCreditLimitCents() + 100)
+                            : 1 + random.nextInt(100);
+                    return withdraw(account, withdrawal);
+                case PURCHASE:
+                    // A declined purchase asks for more than the limit left in the card
+                    double purchase = decline
+                            ? Money.toDouble(card.getLimitCents() - card.getBalanceCents() + 100)
+                            : 1 + random.nextInt(100);
+                    return buy(card, purchase, DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)]);
+                case INVOICE:
+                    invoice.setLength(0);
+                    renderer.render(card, InvoiceRenderer.currentTime(), invoice);
+                    return true;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+
+        private boolean withdraw(Account account, double value) {
+            if (!exceptions) {
+                return account.tryWithdraw(value) == OperationStatus.APPROVED;
+            }
+
+            try {
+                account.withdraw(value);
+                return true;
+            } catch (InsufficientFundsException e) {
+                return false;
+            }
+        }
+
+        private boolean buy(CreditCard card, double amount, String description) {
+            if (!exceptions) {
+                return card.tryAddPurchase(amount, description) == OperationStatus.APPROVED;
+            }
+
+            try {
+                card.addPurchase(amount, description);
+                return true;
+            } catch (InsufficientFundsException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Operations, declines, latencies and allocations of all the threads of a run.
+     */
+    private static final class Result {
+        private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATION_NAMES.length];
+        private final long[] declines = new long[OPERATION_NAMES.length];
+        private final LatencyHistogram all = new LatencyHistogram();
+        private long allocatedBytes;
+        private long elapsedNanos;
+
+        Result() {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        void add(Worker worker) {
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i].add(worker.latencies[i]);
+                all.add(worker.latencies[i]);
+                declines[i] += worker.declines[i];
+            }
+            allocatedBytes += worker.allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            long operations = all.getCount();
+            StringBuilder out = new StringBuilder();
+            out.append(String.format(Locale.ROOT, "  Throughput: %.0f operations/s | Operations: %d%n",
+                    operations / seconds, operations));
+            out.append(String.format(Locale.ROOT, "  Allocation: %.1f MB/s | %d bytes/operation%n",
+                    allocatedBytes / seconds / (1 << 20), operations == 0 ? 0 : allocatedBytes / operations));
+            out.append(String.format(Locale.ROOT, "  %-12s %10s %9s %9s %9s %9s %9s %9s%n", "Latency (us)",
+                    "count", "declined", "p50", "p90", "p99", "p99.9", "max"));
+            for (int i = 0; i < latencies.length; i++) {
+                appendLatencies(out, OPERATION_NAMES[i], latencies[i], declines[i]);
+            }
+            long totalDeclines = 0;
+            for (long count : declines) {
+                totalDeclines += count;
+            }
+            appendLatencies(out, "All", all, totalDeclines);
+            return out.toString();
+        }
+
+        private static void appendLatencies(StringBuilder out, String name, LatencyHistogram histogram,
+                                            long declines) {
+            out.append(String.format(Locale.ROOT, "  %-12s %10d %9d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name,
+                    histogram.getCount(), declines, histogram.percentile(50) / 1e3,
+                    histogram.percentile(90) / 1e3, histogram.percentile(99) / 1e3,
+                    histogram.percentile(99.9) / 1e3, histogram.getMax() / 1e3));
+        }
+    }
+
+    /**
+     * Latencies in nanoseconds, counted in buckets that grow with the value: each power of
+     * two is split in 32 buckets, so a percentile is off by at most about 3%, and a
+     * histogram takes the same 15 KB however many operations it counts.
+     */
+    private static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+
+        private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 2) * HALF_SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void record(long nanos) {
+            counts[indexOf(Math.max(0, nanos))]++;
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        private static int indexOf(long value) {
+            // Values below 64 have a bucket each. Above that, the value is shifted right
+            // until it fits in 6 bits, which leaves its highest bit in the top half: the
+            // shift picks the power of two, and the value left picks one of its 32 buckets
+            int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            return shift * HALF_SUB_BUCKETS + (int) (value >>> shift);
+        }
+
+        private static long highestValueOf(int index) {
+            int shift = Math.max(0, index / HALF_SUB_BUCKETS - 1);
+            long subBucket = index - shift * HALF_SUB_BUCKETS;
+            return ((subBucket + 1) << shift) - 1;
+        }
+    }
+
+    /**
+     * Pauses reported by the garbage collectors, through the notifications sent at the end
+     * of each collection. Collections that run concurrently with the application, such as
+     * the concurrent cycles of G1 or ZGC, are not pauses and are left out.
+     */
+    private static final class GcPauses implements NotificationListener {
+        private final List<NotificationEmitter> emitters = new ArrayList<>();
+        private long pauses;
+        private long totalMillis;
+        private long maxMillis;
+
+        GcPauses() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter) {
+                    NotificationEmitter emitter = (NotificationEmitter) collector;
+                    emitter.addNotificationListener(this, null, null);
+                    emitters.add(emitter);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            String action = info.getGcAction().toLowerCase(Locale.ROOT);
+            if (action.contains("concurrent") || info.getGcName().endsWith("Cycles")) {
+                return;
+            }
+
+            long millis = info.getGcInfo().getDuration();
+            pauses++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        synchronized void reset() {
+            pauses = 0;
+            totalMillis = 0;
+            maxMillis = 0;
+        }
+
+        synchronized String summary(long elapsedNanos) {
+            // Notifications are sent from another thread, so the last pauses of the run
+            // may still be on their way when it is printed; they are counted in the next run
+            return String.format(Locale.ROOT, "  GC pauses: %d | Total: %d ms (%.1f%% of the run) | Max: %d ms",
+                    pauses, totalMillis, totalMillis * 100.0 / TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    maxMillis);
+        }
+
+        void close() {
+            for (NotificationEmitter emitter : emitters) {
+                try {
+                    emitter.removeNotificationListener(this);
+                } catch (javax.management.ListenerNotFoundException e) {
+                    // Nothing to remove
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.brunotoffolo.codewithme.exceptions.exception;
+
+/**
+ * Indicates that a purchase was declined because the credit card is blocked or expired.
+ *
+ * A blocked card has no limit available for new purchases, so this exception extends
+ * {@link InsufficientFundsException}: code that already handles declined purchases
+ * keeps working, and code that needs to tell both cases apart can catch this one first.
+ * Like {@link StacklessInsufficientFundsException}, it does not capture a stack trace,
+ * so a single instance can be thrown for every purchase declined for the same reason.
+ *
+ * @author Bruno Toffolo
+ */
+public class CardBlockedException extends InsufficientFundsException {
+
+    /**
+     * Creates a new exception with the given message, without a stack trace, a cause
+     * or suppressed exceptions.
+     *
+     * @param message The error message.
+     */
+    public CardBlockedException(String message) {
+        super(message, null, false, false);
+    }
+
+}
@@ -55,4 +55,19 @@ public class InsufficientFundsException extends Exception {
         super(message, cause);
     }
 
+    /**
+     * Creates a new exception with the given message and cause, allowing subclasses to
+     * disable suppression and the stack trace.
+     *
+     * @param message The error message.
+     * @param cause The exception cause.
+     * @param enableSuppression Whether suppression is enabled or disabled.
+     * @param writableStackTrace Whether the stack trace should be writable.
+     * @see Exception#Exception(String, Throwable, boolean, boolean)
+     */
+    protected InsufficientFundsException(String message, Throwable cause, boolean enableSuppression,
+                                         boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+
 }
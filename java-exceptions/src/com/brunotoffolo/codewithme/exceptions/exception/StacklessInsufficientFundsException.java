@@ -0,0 +1,26 @@
+package com.brunotoffolo.codewithme.exceptions.exception;
+
+/**
+ * Variant of {@link InsufficientFundsException} that does not capture a stack trace.
+ *
+ * Filling in the stack trace is by far the most expensive part of creating an exception.
+ * A declined operation is an expected business outcome rather than a programming error,
+ * so its stack trace carries no useful information. As instances of this class hold no
+ * state besides their message, a single instance can be created in advance and thrown
+ * every time the same kind of decline happens.
+ *
+ * @author Bruno Toffolo
+ */
+public class StacklessInsufficientFundsException extends InsufficientFundsException {
+
+    /**
+     * Creates a new exception with the given message, without a stack trace, a cause
+     * or suppressed exceptions.
+     *
+     * @param message The error message.
+     */
+    public StacklessInsufficientFundsException(String message) {
+        super(message, null, false, false);
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.brunotoffolo.codewithme.exceptions.exception;
+
+/**
+ * Indicates that a purchase was declined because the credit card made too many purchases,
+ * or spent too much, in the last minute or hour.
+ *
+ * Like {@link CardBlockedException}, it extends {@link InsufficientFundsException}, so
+ * code that already handles declined purchases keeps working, and it does not capture a
+ * stack trace, so a single instance can be thrown for every purchase over the limits.
+ *
+ * @author Bruno Toffolo
+ */
+public class VelocityLimitExceededException extends InsufficientFundsException {
+
+    /**
+     * Creates a new exception with the given message, without a stack trace, a cause
+     * or suppressed exceptions.
+     *
+     * @param message The error message.
+     */
+    public VelocityLimitExceededException(String message) {
+        super(message, null, false, false);
+    }
+
+}
@@ -0,0 +1,382 @@
+package com.brunotoffolo.codewithme.exceptions.journal;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEventListener;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records banking events in a bounded in-memory buffer and writes them to an output
+ * stream from a background thread.
+ *
+ * Printing directly to System.out from the threads performing the operations makes all
+ * of them wait on the same console lock, and builds a new String for every message. The
+ * journal instead stores the raw values of each event (numbers and references to
+ * existing Strings) in a preallocated slot of a ring buffer, which only costs a couple
+ * of atomic operations and no allocation. A single writer thread then renders the
+ * events in batches and writes each batch with one call.
+ *
+ * The ring buffer can be used by any number of publishing threads without locks: each
+ * slot carries a sequence number telling whether it is free or holds an event waiting
+ * to be written. When the buffer is full, the {@link OverflowPolicy} decides whether the
+ * event is dropped or the publisher waits.
+ *
+ * A journal created with {@link #synchronous(PrintStream)} has neither a buffer nor a
+ * writer thread: each event is rendered and written by the thread publishing it, before
+ * the operation returns. It is meant for single-threaded programs that mix the journal
+ * with other output, such as the example scenario, where the console must show
+ * everything in the order it happened.
+ *
+ * @author Bruno Toffolo
+ */
+public class EventJournal implements BankingEventListener, AutoCloseable {
+
+    /** Default number of events the buffer can hold. */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /** Maximum number of events rendered and written at once. */
+    private static final int MAX_BATCH = 512;
+
+    /** Time the writer thread sleeps when there is nothing to write. */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final PrintStream out;
+    private final OverflowPolicy policy;
+
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    // Next position to be claimed by a publisher
+    private final AtomicLong tail = new AtomicLong();
+    // Next position to be written; only used by the writer thread
+    private long head;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile long written;
+    private volatile long batches;
+
+    // Null for a synchronous journal, which writes each event as it is published
+    private final Thread writer;
+    private final StringBuilder text;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a journal with the default capacity that drops events when full.
+     *
+     * @param out Stream the events are written to
+     */
+    public EventJournal(PrintStream out) {
+        this(out, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * Creates a journal and starts its writer thread.
+     *
+     * @param out Stream the events are written to
+     * @param capacity Number of events the buffer can hold, rounded up to a power of two
+     * @param policy What to do when an event is published while the buffer is full
+     */
+    public EventJournal(PrintStream out, int capacity, OverflowPolicy policy) {
+        if (capacity < 2 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Journal capacity should be between 2 and 2^30");
+        }
+
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.out = out;
+        this.policy = policy;
+        this.mask = size - 1;
+        this.slots = new Slot[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+
+        this.writer = new Thread(this::writeLoop, "event-journal-writer");
+        this.writer.setDaemon(true);
+        this.text = null;
+        this.writer.start();
+    }
+
+    private EventJournal(PrintStream out, StringBuilder text) {
+        this.out = out;
+        this.policy = OverflowPolicy.BLOCK;
+        this.mask = 0;
+        this.slots = null;
+        this.sequences = null;
+        this.writer = null;
+        this.text = text;
+    }
+
+    /**
+     * Creates a journal that writes every event from the thread publishing it, without
+     * any buffer or writer thread, so its output is never reordered with other output of
+     * that thread.
+     *
+     * @param out Stream the events are written to
+     * @return Synchronous journal
+     */
+    public static EventJournal synchronous(PrintStream out) {
+        return new EventJournal(out, new StringBuilder(80));
+    }
+
+    /**
+     * Publishes an event to the journal.
+     *
+     * @param type Type of the event
+     * @param subject Account or card number the event refers to
+     * @param amount Amount of the operation, in cents
+     * @param balance Balance after the operation, in cents
+     * @param label Fixed label of the event
+     * @param detail Variable detail of the event
+     * @return true if the event was stored; false if it was dropped
+     */
+    public boolean publish(EventType type, long subject, long amount, long balance, String label, String detail) {
+        if (!running) {
+            dropped.increment();
+            return false;
+        }
+        if (writer == null) {
+            writeNow(type, subject, amount, balance, label, detail);
+            return true;
+        }
+
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long sequence = sequences.get(index);
+            long difference = sequence - position;
+
+            if (difference == 0) {
+                // The slot is free: try to claim it
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds an event that was not written: the buffer is full
+                if (policy == OverflowPolicy.DROP || !running) {
+                    dropped.increment();
+                    return false;
+                }
+                LockSupport.parkNanos(1000);
+                position = tail.get();
+            } else {
+                // Another publisher claimed this position first
+                position = tail.get();
+            }
+        }
+
+        Slot slot = slots[index];
+        slot.type = type;
+        slot.subject = subject;
+        slot.amount = amount;
+        slot.balance = balance;
+        slot.label = label;
+        slot.detail = detail;
+        // Publishing the sequence makes the slot contents visible to the writer thread
+        sequences.set(index, position + 1);
+
+        published.increment();
+        return true;
+    }
+
+    /**
+     * Publishes a free text message made of a fixed label and a variable detail, so
+     * callers do not need to concatenate them.
+     *
+     * @param label Fixed part of the message
+     * @param detail Variable part of the message
+     * @return true if the message was stored; false if it was dropped
+     */
+    public boolean message(String label, String detail) {
+        return publish(EventType.MESSAGE, 0, 0, 0, label, detail);
+    }
+
+    @Override
+    public void onDeposit(Account account, long amountCents, long balanceCents) {
+        publish(EventType.DEPOSIT, account.getNumber(), amountCents, balanceCents, null, null);
+    }
+
+    @Override
+    public void onWithdrawal(Account account, long amountCents, long balanceCents) {
+        publish(EventType.WITHDRAWAL, account.getNumber(), amountCents, balanceCents, null, null);
+    }
+
+    @Override
+    public void onWithdrawalDeclined(Account account, long amountCents) {
+        publish(EventType.WITHDRAWAL_DECLINED, account.getNumber(), amountCents, 0, null, null);
+    }
+
+    @Override
+    public void onTransfer(Account source, Account target, long amountCents, long sourceBalanceCents,
+                           long targetBalanceCents) {
+        publish(EventType.TRANSFER, accountPair(source, target), amountCents, sourceBalanceCents, null, null);
+    }
+
+    @Override
+    public void onTransferDeclined(Account source, Account target, long amountCents) {
+        publish(EventType.TRANSFER_DECLINED, accountPair(source, target), amountCents, 0, null, null);
+    }
+
+    /**
+     * Packs the numbers of both accounts of a transfer in the subject of its event, so
+     * the event still fits in a slot.
+     */
+    private static long accountPair(Account source, Account target) {
+        return ((long) source.getNumber() << 32) | (target.getNumber() & 0xffffffffL);
+    }
+
+    @Override
+    public void onCardIssued(Account account, CreditCard card) {
+        publish(EventType.CARD_ISSUED, card.getNumber(), card.getLimitCents(), 0, null, null);
+    }
+
+    @Override
+    public void onPurchase(CreditCard card, long epochMillis, long amountCents, String description,
+                           long balanceCents) {
+        publish(EventType.PURCHASE, card.getNumber(), amountCents, balanceCents, null, description);
+    }
+
+    @Override
+    public void onPurchaseDeclined(CreditCard card, long amountCents) {
+        publish(EventType.PURCHASE_DECLINED, card.getNumber(), amountCents, 0, null, null);
+    }
+
+    @Override
+    public void onInvoiceGenerated(CreditCard card, String filename) {
+        publish(EventType.INVOICE_GENERATED, card.getNumber(), 0, 0, null, filename);
+    }
+
+    /**
+     * Gets the number of events stored in the journal since it was created.
+     *
+     * @return Number of published events
+     */
+    public long getPublishedEvents() {
+        return published.sum();
+    }
+
+    /**
+     * Gets the number of events discarded because the buffer was full.
+     *
+     * @return Number of dropped events
+     */
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+
+    /**
+     * Gets the number of events already written to the output stream.
+     *
+     * @return Number of written events
+     */
+    public long getWrittenEvents() {
+        return written;
+    }
+
+    /**
+     * Gets the number of batches written to the output stream.
+     *
+     * @return Number of batches
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Stops accepting new events, writes every pending event and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (writer == null) {
+            return;
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void writeNow(EventType type, long subject, long amount, long balance, String label,
+                                       String detail) {
+        text.setLength(0);
+        type.format(subject, amount, balance, label, detail, text);
+        text.append(System.lineSeparator());
+        out.print(text);
+        out.flush();
+        published.increment();
+        written++;
+        batches++;
+    }
+
+    private void writeLoop() {
+        StringBuilder text = new StringBuilder(MAX_BATCH * 80);
+        while (running) {
+            if (drainBatch(text) == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+
+        // Publishers that claimed a slot right before the journal was closed may still be
+        // filling it, so keep draining until the buffer has nothing else to offer
+        while (drainBatch(text) > 0 || head != tail.get()) {
+            Thread.onSpinWait();
+        }
+    }
+
+    private int drainBatch(StringBuilder text) {
+        text.setLength(0);
+        int count = 0;
+        while (count < MAX_BATCH) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+
+            Slot slot = slots[index];
+            slot.type.format(slot.subject, slot.amount, slot.balance, slot.label, slot.detail, text);
+            text.append(System.lineSeparator());
+            slot.label = null;
+            slot.detail = null;
+
+            // Hand the slot back to the publishers, one lap ahead
+            sequences.set(index, head + mask + 1);
+            head++;
+            count++;
+        }
+
+        if (count > 0) {
+            out.print(text);
+            out.flush();
+            written += count;
+            batches++;
+        }
+        return count;
+    }
+
+    /**
+     * Preallocated holder for the values of an event.
+     */
+    private static final class Slot {
+        EventType type;
+        long subject;
+        long amount;
+        long balance;
+        String label;
+        String detail;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.brunotoffolo.codewithme.exceptions.journal;
+
+import com.brunotoffolo.codewithme.exceptions.model.Money;
+
+/**
+ * Types of events recorded by the {@link EventJournal}. Each type knows how to render
+ * its events as a line of text, which only happens in the journal's writer thread.
+ *
+ * @author Bruno Toffolo
+ */
+public enum EventType {
+
+    DEPOSIT {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("Account ").append(subject).append(" | Deposited value: USD ");
+            Money.append(amount, out).append(" | New balance: USD ");
+            Money.append(balance, out);
+        }
+    },
+
+    WITHDRAWAL {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("Account ").append(subject).append(" | Withdrawn value: USD ");
+            Money.append(amount, out).append(" | Remaining balance: USD ");
+            Money.append(balance, out);
+        }
+    },
+
+    WITHDRAWAL_DECLINED {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("Account ").append(subject).append(" | Declined withdrawal: USD ");
+            Money.append(amount, out);
+        }
+    },
+
+    /** Transfer, with the source and target account numbers packed in the subject. */
+    TRANSFER {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("Account ").append(subject >>> 32).append(" | Transferred value: USD ");
+            Money.append(amount, out).append(" to account ").append((int) subject);
+            out.append(" | Remaining balance: USD ");
+            Money.append(balance, out);
+        }
+    },
+
+    /** Declined transfer, with the source and target account numbers packed in the subject. */
+    TRANSFER_DECLINED {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("Account ").append(subject >>> 32).append(" | Declined transfer: USD ");
+            Money.append(amount, out).append(" to account ").append((int) subject);
+        }
+    },
+
+    /** Card issued, with its limit as the amount. */
+    CARD_ISSUED {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("CC ").append(subject).append(" | Issued with limit: USD ");
+            Money.append(amount, out);
+        }
+    },
+
+    PURCHASE {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("CC ").append(subject).append(" | New purchase: USD ");
+            Money.append(amount, out).append(" | Current balance: USD ");
+            Money.append(balance, out);
+        }
+    },
+
+    PURCHASE_DECLINED {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("CC ").append(subject).append(" | Declined purchase: USD ");
+            Money.append(amount, out);
+        }
+    },
+
+    INVOICE_GENERATED {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append("CC ").append(subject).append(" | Invoice generated in ").append(detail);
+        }
+    },
+
+    /** Free text message, made of a fixed label followed by a variable detail. */
+    MESSAGE {
+        @Override
+        void format(long subject, long amount, long balance, String label, String detail, StringBuilder out) {
+            out.append(label).append(detail);
+        }
+    };
+
+    /**
+     * Renders an event of this type.
+     *
+     * @param subject Account or card number the event refers to
+     * @param amount Amount of the operation, in cents
+     * @param balance Balance after the operation, in cents
+     * @param label Fixed label of the event
+     * @param detail Variable detail of the event
+     * @param out Builder the event should be appended to
+     */
+    abstract void format(long subject, long amount, long balance, String label, String detail, StringBuilder out);
+
+}
@@ -0,0 +1,16 @@
+package com.brunotoffolo.codewithme.exceptions.journal;
+
+/**
+ * What the {@link EventJournal} does when an event is published while its buffer is full.
+ *
+ * @author Bruno Toffolo
+ */
+public enum OverflowPolicy {
+
+    /** The event is discarded and counted as dropped. The publisher never waits. */
+    DROP,
+
+    /** The publisher waits until the writer thread frees a slot. No event is lost. */
+    BLOCK
+
+}
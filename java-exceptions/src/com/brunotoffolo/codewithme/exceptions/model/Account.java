@@ -1,8 +1,11 @@
 package com.brunotoffolo.codewithme.exceptions.model;
 
 import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.exception.StacklessInsufficientFundsException;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Basic and generic bank account to serve as an example for the banking scenario.
@@ -16,26 +19,89 @@ import java.util.*;
  */
 public class Account {
 
+    // Balance and credit limit are stored as a fixed-point number of cents. The balance
+    // is only changed through a compare-and-set operation, so concurrent deposits and
+    // withdrawals in the same account never lose updates and never need a lock.
+    private static final AtomicLongFieldUpdater<Account> BALANCE =
+            AtomicLongFieldUpdater.newUpdater(Account.class, "balance");
+
+    // Changed around every write of the balance, the credit limit or the card list, so
+    // snapshots can tell whether they changed while being read (see WriteStamps)
+    private static final AtomicLongFieldUpdater<Account> STAMP =
+            AtomicLongFieldUpdater.newUpdater(Account.class, "stamp");
+
+    // Declines are an expected outcome of a withdrawal, so the same stackless exception
+    // instance is thrown every time instead of creating (and filling the stack trace of)
+    // a new one for each declined operation.
+    private static final InsufficientFundsException WITHDRAWAL_DECLINED =
+            new StacklessInsufficientFundsException("Desired amount is higher than available amount");
+    private static final InsufficientFundsException TRANSFER_DECLINED =
+            new StacklessInsufficientFundsException("Transferred amount is higher than available amount");
+
+    /** Value returned by {@link #subtract(long)} when there are not enough funds. */
+    private static final long DECLINED = Long.MIN_VALUE;
+
     private final int number;
-    private double balance;
-    private double creditLimit;
+    private volatile long balance;
+    private volatile long creditLimit;
+    private volatile long stamp;
     private final Calendar creationDate;
     private final Customer customer;
-    private List<CreditCard> creditCards;
+    // Cards are rarely added but read by every snapshot, which gets a stable array of
+    // them from the copy-on-write list without any lock
+    private final List<CreditCard> creditCards;
 
     /**
-     * Basic constructor used to initialize the account and provide an initial
-     * credit limit for the customer.
+     * Opens a new account, with an initial credit limit for the customer.
+     *
+     * The registered listeners are notified once the account is fully built. Notifying
+     * them from the constructor would hand them an object still under construction,
+     * which other threads (such as the one writing a log) could see only partially.
+     *
      * @param number Account number
      * @param customer Customer the account belongs to
+     * @return Opened account
      */
-    public Account(int number, Customer customer) {
+    public static Account open(int number, Customer customer) {
+        Account account = new Account(number, customer, new GregorianCalendar(), 0L, Money.toCents(2000.00));
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+            try {
+                log.recordAccountOpened(account);
+            } finally {
+                log.endChange();
+            }
+        }
+        BankingEvents.accountOpened(account);
+        return account;
+    }
+
+    private Account(int number, Customer customer, Calendar creationDate, long balance, long creditLimit) {
         this.number = number;
-        this.balance = 0.0;
+        this.balance = balance;
         this.customer = customer;
-        this.creationDate = new GregorianCalendar();
-        this.creditLimit = 2000.00;
-        this.creditCards = new ArrayList<>();
+        this.creationDate = creationDate;
+        this.creditLimit = creditLimit;
+        this.creditCards = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Rebuilds an account from previously persisted state, such as a transaction log or
+     * a snapshot. Unlike {@link #open(int, Customer)}, no listener is notified.
+     *
+     * @param number Account number
+     * @param customer Customer the account belongs to
+     * @param creationMillis Account creation time, in milliseconds since the epoch
+     * @param balanceCents Account balance, in cents
+     * @param creditLimitCents Account credit limit, in cents
+     * @return Restored account
+     */
+    public static Account restore(int number, Customer customer, long creationMillis, long balanceCents,
+                                  long creditLimitCents) {
+        Calendar creationDate = new GregorianCalendar();
+        creationDate.setTimeInMillis(creationMillis);
+        return new Account(number, customer, creationDate, balanceCents, creditLimitCents);
     }
 
     /**
@@ -49,9 +115,29 @@ public class Account {
             throw new IllegalArgumentException("Deposited value should be higher than zero");
         }
 
-        balance += value;
-        System.out.println("Account " + number + " | Deposited value: USD " + value + " | New balance: USD " + balance);
-        return balance;
+        FlightRecorderEvents.DepositEvent event = new FlightRecorderEvents.DepositEvent();
+        event.begin();
+
+        long amount = Money.toCents(value);
+        long updatedBalance;
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (log != null) {
+                log.recordDeposit(this, amount);
+            }
+            updatedBalance = add(amount);
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        BankingEvents.deposit(this, amount, updatedBalance);
+
+        event.commit(number, amount, updatedBalance);
+        return Money.toDouble(updatedBalance);
     }
 
     /**
@@ -65,14 +151,245 @@ public class Account {
             throw new IllegalArgumentException("Withdrawal value should be higher than zero");
         }
 
-        if (value > (balance + creditLimit)) {
-            throw new InsufficientFundsException("Desired amount is higher than available amount");
+        long updatedBalance = debit(Money.toCents(value));
+        if (updatedBalance == DECLINED) {
+            throw WITHDRAWAL_DECLINED;
         }
 
-        balance -= value;
-        System.out.println("Account " + number + " | Withdrawn value: USD " + value +
-                " | Remaining balance: USD " + balance);
-        return balance;
+        return Money.toDouble(updatedBalance);
+    }
+
+    /**
+     * Tries to withdraw a given amount from the account. Unlike {@link #withdraw(double)},
+     * a declined withdrawal is reported through the returned status code instead of an
+     * exception, so declines do not allocate anything.
+     *
+     * @param value Value to be withdrawn.
+     * @return {@link OperationStatus#APPROVED} if the amount was withdrawn, or
+     *         {@link OperationStatus#INSUFFICIENT_FUNDS} if it was declined
+     */
+    public int tryWithdraw(double value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Withdrawal value should be higher than zero");
+        }
+
+        long updatedBalance = debit(Money.toCents(value));
+        if (updatedBalance == DECLINED) {
+            return OperationStatus.INSUFFICIENT_FUNDS;
+        }
+
+        return OperationStatus.APPROVED;
+    }
+
+    /**
+     * Atomically debits an amount from the balance, as long as it does not exceed the
+     * balance plus the credit limit, and notifies the registered listeners about it. If
+     * changes are logged, an approved withdrawal is recorded right before it is applied.
+     *
+     * @param amount Amount to be debited, in cents
+     * @return Updated balance in cents, or {@link #DECLINED} if there are not enough funds
+     */
+    private long debit(long amount) {
+        FlightRecorderEvents.WithdrawalEvent event = new FlightRecorderEvents.WithdrawalEvent();
+        event.begin();
+
+        long updatedBalance;
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (log != null && hasFunds(amount)) {
+                log.recordWithdrawal(this, amount);
+            }
+            updatedBalance = subtract(amount);
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        if (updatedBalance == DECLINED) {
+            BankingEvents.withdrawalDeclined(this, amount);
+            FlightRecorderEvents.DeclineEvent.withdrawal(number, amount);
+            return DECLINED;
+        }
+
+        BankingEvents.withdrawal(this, amount, updatedBalance);
+        event.commit(number, amount, updatedBalance);
+        return updatedBalance;
+    }
+
+    /**
+     * Atomically subtracts an amount from the balance, as long as it does not exceed the
+     * balance plus the credit limit. No listener is notified.
+     *
+     * @param amount Amount to be subtracted, in cents
+     * @return Updated balance in cents, or {@link #DECLINED} if there are not enough funds
+     */
+    private long subtract(long amount) {
+        // The check and the update must happen as a single atomic step: otherwise two
+        // concurrent withdrawals could both pass the check and overdraw the account. If
+        // another thread changes the balance between our read and our write, the
+        // compare-and-set fails and we simply check again against the new balance.
+        long currentBalance;
+        long updatedBalance;
+        beginWrite();
+        try {
+            do {
+                currentBalance = balance;
+                if (amount > currentBalance + creditLimit) {
+                    return DECLINED;
+                }
+                updatedBalance = currentBalance - amount;
+            } while (!BALANCE.compareAndSet(this, currentBalance, updatedBalance));
+        } finally {
+            endWrite();
+        }
+        return updatedBalance;
+    }
+
+    /**
+     * Atomically adds an amount to the balance. No listener is notified.
+     *
+     * @param amount Amount to be added, in cents
+     * @return Updated balance in cents
+     */
+    private long add(long amount) {
+        beginWrite();
+        try {
+            return BALANCE.addAndGet(this, amount);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Checks whether an amount can be subtracted from the balance. While a change is in
+     * progress in the change log, no other change can reach the balance or the credit
+     * limit, so an amount found here is then approved by {@link #subtract(long)} as well.
+     *
+     * @param amount Amount to be subtracted, in cents
+     * @return true if there are enough funds; false otherwise
+     */
+    private boolean hasFunds(long amount) {
+        return amount <= balance + creditLimit;
+    }
+
+    private void beginWrite() {
+        STAMP.addAndGet(this, WriteStamps.STARTED);
+    }
+
+    private void endWrite() {
+        STAMP.addAndGet(this, WriteStamps.FINISHED);
+    }
+
+    /**
+     * Transfers a given amount from this account to another one.
+     *
+     * @param target Account receiving the amount
+     * @param value Value to be transferred.
+     * @return Updated balance of this account after the transfer was performed
+     */
+    public double transfer(Account target, double value) throws InsufficientFundsException {
+        long updatedBalance = transferCents(target, toTransferredCents(target, value));
+        if (updatedBalance == DECLINED) {
+            throw TRANSFER_DECLINED;
+        }
+
+        return Money.toDouble(updatedBalance);
+    }
+
+    /**
+     * Tries to transfer a given amount from this account to another one. Unlike
+     * {@link #transfer(Account, double)}, a declined transfer is reported through the
+     * returned status code instead of an exception.
+     *
+     * @param target Account receiving the amount
+     * @param value Value to be transferred.
+     * @return {@link OperationStatus#APPROVED} if the amount was transferred, or
+     *         {@link OperationStatus#INSUFFICIENT_FUNDS} if it was declined
+     */
+    public int tryTransfer(Account target, double value) {
+        long updatedBalance = transferCents(target, toTransferredCents(target, value));
+        if (updatedBalance == DECLINED) {
+            return OperationStatus.INSUFFICIENT_FUNDS;
+        }
+
+        return OperationStatus.APPROVED;
+    }
+
+    private long toTransferredCents(Account target, double value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Transferred value should be higher than zero");
+        }
+        if (target == this) {
+            throw new IllegalArgumentException("An amount should not be transferred to its own account");
+        }
+
+        return Money.toCents(value);
+    }
+
+    /**
+     * Atomically moves an amount from this account to another one, and notifies the
+     * registered listeners about it with a single transfer event.
+     *
+     * No lock is taken, so two transfers in opposite directions can never deadlock. The
+     * amount is first subtracted from this account with the same compare-and-set loop as
+     * a withdrawal, which checks the funds and retries if another operation changed the
+     * balance in the meantime. Once it succeeds, the amount is added to the target, which
+     * can never be declined: money that left this account always reaches the target, so
+     * a transfer either happens as a whole or not at all.
+     *
+     * Both steps run inside a single write of both accounts, so a reader using their
+     * write stamps, such as {@link #snapshot(Account...)}, sees the amount in exactly one
+     * of them. Plain getters read one value at a time, and may still see it in neither.
+     * If changes are logged, an approved transfer is recorded as a single record right
+     * before both steps.
+     *
+     * @param target Account receiving the amount
+     * @param amount Amount to be transferred, in cents
+     * @return Updated balance of this account in cents, or {@link #DECLINED} if there
+     *         are not enough funds
+     */
+    private long transferCents(Account target, long amount) {
+        FlightRecorderEvents.TransferEvent event = new FlightRecorderEvents.TransferEvent();
+        event.begin();
+
+        long updatedBalance;
+        long targetBalance = 0;
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (log != null && hasFunds(amount)) {
+                log.recordTransfer(this, target, amount);
+            }
+            beginWrite();
+            target.beginWrite();
+            try {
+                updatedBalance = subtract(amount);
+                if (updatedBalance != DECLINED) {
+                    targetBalance = target.add(amount);
+                }
+            } finally {
+                target.endWrite();
+                endWrite();
+            }
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        if (updatedBalance == DECLINED) {
+            BankingEvents.transferDeclined(this, target, amount);
+            FlightRecorderEvents.DeclineEvent.transfer(number, amount);
+            return DECLINED;
+        }
+
+        BankingEvents.transfer(this, target, amount, updatedBalance, targetBalance);
+        event.commit(number, target.number, amount, updatedBalance, targetBalance);
+        return updatedBalance;
     }
 
     /**
@@ -82,16 +399,114 @@ public class Account {
      * @return true if addition was successful; false otherwise
      */
     public boolean addCreditCard(CreditCard card) {
-        return creditCards.add(card);
+        boolean added;
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (log != null) {
+                log.recordCardIssued(this, card);
+            }
+            beginWrite();
+            try {
+                added = creditCards.add(card);
+            } finally {
+                endWrite();
+            }
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        if (added) {
+            BankingEvents.cardIssued(this, card);
+        }
+        return added;
     }
 
     /**
-     * Gets the list of account credit cards.
+     * Gets the list of account credit cards. The list cannot be changed (cards are added
+     * with {@link #addCreditCard(CreditCard)}), and can be iterated while cards are added.
      *
-     * @return List of cards
+     * @return Unmodifiable list of cards
      */
     public List<CreditCard> getCreditCards() {
-        return creditCards;
+        return Collections.unmodifiableList(creditCards);
+    }
+
+    /**
+     * Takes a snapshot of the account and of all its credit cards, with their balances
+     * and limits as they were at a single moment. Each getter of the account and of the
+     * cards reads a single value, so reading several of them while other threads operate
+     * on the account may mix values from different moments; the snapshot never does.
+     *
+     * Writers are never blocked by snapshots, nor slowed down by them: the values are
+     * read twice around the write stamps of the account and cards (see
+     * {@link WriteStamps}), and read again if any of them changed in the meantime.
+     *
+     * @return Snapshot of the account and its cards
+     */
+    public AccountSnapshot snapshot() {
+        return snapshot(new Account[] {this}).get(0);
+    }
+
+    /**
+     * Takes snapshots of several accounts and of all their credit cards, all as they were
+     * at a single moment, in the same way as {@link #snapshot()}. A transfer between two
+     * of the accounts is seen either in both of them or in neither, so the sum of their
+     * balances never misses the transferred amount.
+     *
+     * @param accounts Accounts to be read
+     * @return Snapshots of the accounts, in the same order
+     */
+    public static List<AccountSnapshot> snapshot(Account... accounts) {
+        int count = accounts.length;
+        int attempt = 0;
+        retry:
+        for (;; WriteStamps.backOff(attempt++)) {
+            // The stamps of every account and card are read before any value, so all
+            // values read are those of a moment when no object was being written
+            long[] accountStamps = new long[count];
+            CreditCard[][] cards = new CreditCard[count][];
+            long[][] cardStamps = new long[count][];
+            for (int a = 0; a < count; a++) {
+                accountStamps[a] = accounts[a].stamp;
+                if (!WriteStamps.isStable(accountStamps[a])) {
+                    continue retry;
+                }
+                cards[a] = accounts[a].creditCards.toArray(new CreditCard[0]);
+                cardStamps[a] = new long[cards[a].length];
+                for (int i = 0; i < cards[a].length; i++) {
+                    cardStamps[a][i] = cards[a][i].getStamp();
+                    if (!WriteStamps.isStable(cardStamps[a][i])) {
+                        continue retry;
+                    }
+                }
+            }
+
+            AccountSnapshot[] snapshots = new AccountSnapshot[count];
+            for (int a = 0; a < count; a++) {
+                CreditCardSnapshot[] cardSnapshots = new CreditCardSnapshot[cards[a].length];
+                for (int i = 0; i < cards[a].length; i++) {
+                    cardSnapshots[i] = cards[a][i].readSnapshot();
+                }
+                snapshots[a] = new AccountSnapshot(accounts[a], accounts[a].balance, accounts[a].creditLimit,
+                        Collections.unmodifiableList(Arrays.asList(cardSnapshots)));
+            }
+
+            for (int a = 0; a < count; a++) {
+                for (int i = 0; i < cards[a].length; i++) {
+                    if (cards[a][i].getStamp() != cardStamps[a][i]) {
+                        continue retry;
+                    }
+                }
+                if (accounts[a].stamp != accountStamps[a]) {
+                    continue retry;
+                }
+            }
+            return Collections.unmodifiableList(Arrays.asList(snapshots));
+        }
     }
 
     /**
@@ -109,6 +524,15 @@ public class Account {
      * @return Account balance
      */
     public double getBalance() {
+        return Money.toDouble(balance);
+    }
+
+    /**
+     * Gets the account balance in cents.
+     *
+     * @return Account balance, in cents
+     */
+    public long getBalanceCents() {
         return balance;
     }
 
@@ -118,7 +542,7 @@ public class Account {
      * @return Credit limit
      */
     public double getCreditLimit() {
-        return creditLimit;
+        return Money.toDouble(creditLimit);
     }
 
     /**
@@ -131,7 +555,72 @@ public class Account {
             throw new IllegalArgumentException("Account credit limit should be a positive value");
         }
 
-        this.creditLimit = creditLimit;
+        long creditLimitCents = Money.toCents(creditLimit);
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (log != null) {
+                log.recordCreditLimitChanged(this, creditLimitCents);
+            }
+            beginWrite();
+            this.creditLimit = creditLimitCents;
+            endWrite();
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        BankingEvents.creditLimitChanged(this, creditLimitCents);
+    }
+
+    /**
+     * Gets the account credit limit in cents.
+     *
+     * @return Credit limit, in cents
+     */
+    public long getCreditLimitCents() {
+        return creditLimit;
+    }
+
+    /**
+     * Overwrites the balance with a previously persisted value. Used only while the
+     * account is being rebuilt, so no listener is notified.
+     *
+     * @param balanceCents Balance to be set, in cents
+     */
+    public void restoreBalance(long balanceCents) {
+        beginWrite();
+        this.balance = balanceCents;
+        endWrite();
+    }
+
+    /**
+     * Overwrites the credit limit with a previously persisted value. Used only while the
+     * account is being rebuilt, so no listener is notified.
+     *
+     * @param creditLimitCents Credit limit to be set, in cents
+     */
+    public void restoreCreditLimit(long creditLimitCents) {
+        beginWrite();
+        this.creditLimit = creditLimitCents;
+        endWrite();
+    }
+
+    /**
+     * Adds a previously persisted credit card to the account. Used only while the
+     * account is being rebuilt, so no listener is notified.
+     *
+     * @param card Card to be added
+     */
+    public void restoreCreditCard(CreditCard card) {
+        beginWrite();
+        try {
+            creditCards.add(card);
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -154,7 +643,7 @@ public class Account {
 
     @Override
     public String toString() {
-        return "Account number " + number + ", balance of USD " + balance;
+        return "Account number " + number + ", balance of USD " + Money.toDouble(balance);
     }
 
 }
@@ -0,0 +1,89 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.util.List;
+
+/**
+ * Values of an account and of all its credit cards as they were at a single moment,
+ * taken by {@link Account#snapshot()}. Reading the getters of the account and of each
+ * card one after the other may mix values from before and after a concurrent operation
+ * (the balance of the account before a deposit, and the credit limit after it was
+ * changed, for instance); a snapshot never does, and never changes afterwards.
+ *
+ * @author Bruno Toffolo
+ */
+public final class AccountSnapshot {
+
+    private final Account account;
+    private final long balanceCents;
+    private final long creditLimitCents;
+    private final List<CreditCardSnapshot> creditCards;
+
+    AccountSnapshot(Account account, long balanceCents, long creditLimitCents, List<CreditCardSnapshot> creditCards) {
+        this.account = account;
+        this.balanceCents = balanceCents;
+        this.creditLimitCents = creditLimitCents;
+        this.creditCards = creditCards;
+    }
+
+    /**
+     * Gets the account the snapshot was taken from, for the values that are not part of
+     * it (such as the customer).
+     *
+     * @return Account
+     */
+    public Account getAccount() {
+        return account;
+    }
+
+    /**
+     * Gets the account number.
+     *
+     * @return Account number
+     */
+    public int getNumber() {
+        return account.getNumber();
+    }
+
+    /**
+     * Gets the account balance in cents.
+     *
+     * @return Account balance, in cents
+     */
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    /**
+     * Gets the account credit limit in cents.
+     *
+     * @return Credit limit, in cents
+     */
+    public long getCreditLimitCents() {
+        return creditLimitCents;
+    }
+
+    /**
+     * Gets how much could still be withdrawn from the account, using its credit limit.
+     *
+     * @return Available amount, in cents
+     */
+    public long getAvailableCents() {
+        return balanceCents + creditLimitCents;
+    }
+
+    /**
+     * Gets the snapshots of the account credit cards, in the order they were added.
+     *
+     * @return Unmodifiable list of card snapshots
+     */
+    public List<CreditCardSnapshot> getCreditCards() {
+        return creditCards;
+    }
+
+    @Override
+    public String toString() {
+        return "Account number " + account.getNumber() + ", balance of USD " + Money.toDouble(balanceCents)
+                + ", " + creditCards.size() + " credit cards";
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Receives notifications about the operations performed on accounts and credit cards.
+ *
+ * Listeners are registered in {@link BankingEvents} and are called synchronously, by
+ * the thread performing the operation, right after the operation takes effect. For this
+ * reason, implementations should be quick and should never block for long: anything
+ * expensive (such as writing to the console or to a file) should be handed over to
+ * another thread.
+ *
+ * Every method has an empty default implementation, so listeners only need to override
+ * the notifications they are interested in. Amounts and balances are given in cents.
+ *
+ * @author Bruno Toffolo
+ */
+public interface BankingEventListener {
+
+    /**
+     * Called after a new account is created.
+     *
+     * @param account Created account
+     */
+    default void onAccountOpened(Account account) {
+    }
+
+    /**
+     * Called after the credit limit of an account is changed.
+     *
+     * @param account Changed account
+     * @param creditLimitCents New credit limit
+     */
+    default void onCreditLimitChanged(Account account, long creditLimitCents) {
+    }
+
+    /**
+     * Called after an amount is deposited in an account.
+     *
+     * @param account Account that received the deposit
+     * @param amountCents Deposited amount
+     * @param balanceCents Account balance after the deposit
+     */
+    default void onDeposit(Account account, long amountCents, long balanceCents) {
+    }
+
+    /**
+     * Called after an amount is withdrawn from an account.
+     *
+     * @param account Account the amount was withdrawn from
+     * @param amountCents Withdrawn amount
+     * @param balanceCents Account balance after the withdrawal
+     */
+    default void onWithdrawal(Account account, long amountCents, long balanceCents) {
+    }
+
+    /**
+     * Called when a withdrawal is declined due to insufficient funds.
+     *
+     * @param account Account the amount should be withdrawn from
+     * @param amountCents Requested amount
+     */
+    default void onWithdrawalDeclined(Account account, long amountCents) {
+    }
+
+    /**
+     * Called after an amount is transferred from an account to another one. A transfer
+     * is reported only through this method, not as a withdrawal and a deposit.
+     *
+     * @param source Account the amount was taken from
+     * @param target Account that received the amount
+     * @param amountCents Transferred amount
+     * @param sourceBalanceCents Balance of the source account after the transfer
+     * @param targetBalanceCents Balance of the target account after the transfer
+     */
+    default void onTransfer(Account source, Account target, long amountCents, long sourceBalanceCents,
+                            long targetBalanceCents) {
+    }
+
+    /**
+     * Called when a transfer is declined due to insufficient funds in the source account.
+     *
+     * @param source Account the amount should be taken from
+     * @param target Account that should receive the amount
+     * @param amountCents Requested amount
+     */
+    default void onTransferDeclined(Account source, Account target, long amountCents) {
+    }
+
+    /**
+     * Called after a credit card is added to an account.
+     *
+     * @param account Account the card was added to
+     * @param card Added card
+     */
+    default void onCardIssued(Account account, CreditCard card) {
+    }
+
+    /**
+     * Called after the limit of a credit card is changed.
+     *
+     * @param card Changed card
+     * @param limitCents New card limit
+     */
+    default void onCardLimitChanged(CreditCard card, long limitCents) {
+    }
+
+    /**
+     * Called after the PIN code of a credit card is changed.
+     *
+     * @param card Changed card
+     * @param pin New PIN code
+     */
+    default void onCardPinChanged(CreditCard card, int pin) {
+    }
+
+    /**
+     * Called after a credit card is blocked.
+     *
+     * @param card Blocked card
+     */
+    default void onCardBlocked(CreditCard card) {
+    }
+
+    /**
+     * Called after a purchase is added to a credit card.
+     *
+     * @param card Card the purchase was added to
+     * @param epochMillis Time of the purchase, in milliseconds since the epoch
+     * @param amountCents Purchase amount
+     * @param description Purchase description
+     * @param balanceCents Card balance after the purchase
+     */
+    default void onPurchase(CreditCard card, long epochMillis, long amountCents, String description,
+                            long balanceCents) {
+    }
+
+    /**
+     * Called when a purchase is declined due to insufficient limit, or because the card
+     * is blocked or expired.
+     *
+     * @param card Card the purchase should be added to
+     * @param amountCents Purchase amount
+     */
+    default void onPurchaseDeclined(CreditCard card, long amountCents) {
+    }
+
+    /**
+     * Called after the invoice of a credit card is written to a file.
+     *
+     * @param card Card the invoice belongs to
+     * @param filename Name of the invoice file
+     */
+    default void onInvoiceGenerated(CreditCard card, String filename) {
+    }
+
+}
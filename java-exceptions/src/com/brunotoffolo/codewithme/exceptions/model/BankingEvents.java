@@ -0,0 +1,166 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.util.Arrays;
+
+/**
+ * Registry of the {@link BankingEventListener}s notified by accounts and credit cards.
+ *
+ * Listeners are kept in an array that is replaced (never modified) when a listener is
+ * registered or removed. Notifying the listeners is then just a loop over a volatile
+ * array, without any locking, and costs almost nothing when no listener is registered.
+ *
+ * The registry also holds the {@link ChangeLog}, if any, which records every change
+ * before it is applied instead of being notified afterwards.
+ *
+ * @author Bruno Toffolo
+ */
+public final class BankingEvents {
+
+    private static final BankingEventListener[] NO_LISTENERS = new BankingEventListener[0];
+
+    private static volatile BankingEventListener[] listeners = NO_LISTENERS;
+
+    private static volatile ChangeLog changeLog;
+
+    private BankingEvents() {
+    }
+
+    /**
+     * Registers a listener to be notified about banking operations.
+     *
+     * @param listener Listener to be registered
+     */
+    public static synchronized void register(BankingEventListener listener) {
+        BankingEventListener[] current = listeners;
+        BankingEventListener[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = listener;
+        listeners = updated;
+    }
+
+    /**
+     * Removes a previously registered listener.
+     *
+     * @param listener Listener to be removed
+     * @return true if the listener was registered; false otherwise
+     */
+    public static synchronized boolean unregister(BankingEventListener listener) {
+        BankingEventListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == listener) {
+                BankingEventListener[] updated = new BankingEventListener[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                listeners = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the log that records every change before it is applied. Should be set before
+     * any account is opened, as changes made without a log are not recorded, and records
+     * of unknown accounts or cards are ignored when the log is replayed.
+     *
+     * @param log Log to be used, or null to stop recording changes
+     */
+    public static void setChangeLog(ChangeLog log) {
+        changeLog = log;
+    }
+
+    /**
+     * Gets the log that records every change before it is applied.
+     *
+     * @return Change log, or null if changes are not recorded
+     */
+    public static ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    static void accountOpened(Account account) {
+        for (BankingEventListener listener : listeners) {
+            listener.onAccountOpened(account);
+        }
+    }
+
+    static void creditLimitChanged(Account account, long creditLimitCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onCreditLimitChanged(account, creditLimitCents);
+        }
+    }
+
+    static void deposit(Account account, long amountCents, long balanceCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onDeposit(account, amountCents, balanceCents);
+        }
+    }
+
+    static void withdrawal(Account account, long amountCents, long balanceCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onWithdrawal(account, amountCents, balanceCents);
+        }
+    }
+
+    static void withdrawalDeclined(Account account, long amountCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onWithdrawalDeclined(account, amountCents);
+        }
+    }
+
+    static void transfer(Account source, Account target, long amountCents, long sourceBalanceCents,
+                         long targetBalanceCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onTransfer(source, target, amountCents, sourceBalanceCents, targetBalanceCents);
+        }
+    }
+
+    static void transferDeclined(Account source, Account target, long amountCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onTransferDeclined(source, target, amountCents);
+        }
+    }
+
+    static void cardIssued(Account account, CreditCard card) {
+        for (BankingEventListener listener : listeners) {
+            listener.onCardIssued(account, card);
+        }
+    }
+
+    static void cardLimitChanged(CreditCard card, long limitCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onCardLimitChanged(card, limitCents);
+        }
+    }
+
+    static void cardPinChanged(CreditCard card, int pin) {
+        for (BankingEventListener listener : listeners) {
+            listener.onCardPinChanged(card, pin);
+        }
+    }
+
+    static void cardBlocked(CreditCard card) {
+        for (BankingEventListener listener : listeners) {
+            listener.onCardBlocked(card);
+        }
+    }
+
+    static void purchase(CreditCard card, long epochMillis, long amountCents, String description,
+                         long balanceCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onPurchase(card, epochMillis, amountCents, description, balanceCents);
+        }
+    }
+
+    static void purchaseDeclined(CreditCard card, long amountCents) {
+        for (BankingEventListener listener : listeners) {
+            listener.onPurchaseDeclined(card, amountCents);
+        }
+    }
+
+    static void invoiceGenerated(CreditCard card, String filename) {
+        for (BankingEventListener listener : listeners) {
+            listener.onInvoiceGenerated(card, filename);
+        }
+    }
+
+}
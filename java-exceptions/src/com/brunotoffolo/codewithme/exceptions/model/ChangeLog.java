@@ -0,0 +1,128 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Log that records every change made to accounts and credit cards before the change is
+ * applied, such as a write-ahead log.
+ *
+ * Unlike a {@link BankingEventListener}, which is told about an operation after it took
+ * effect, the change log takes part in the operation. Every change is made between
+ * {@link #beginChange()} and {@link #endChange()}, and its record is appended in between,
+ * right before the change is applied. No other change can begin in the meantime, so the
+ * records are appended in the same order as the changes are applied, and replaying them
+ * only ever goes through states that really existed. Declined operations change nothing
+ * and are not recorded.
+ *
+ * Without a change log, accounts and cards are updated without any lock. With one, every
+ * change waits for the changes before it, as their records are appended one at a time
+ * anyway. The log is set with {@link BankingEvents#setChangeLog(ChangeLog)}, before any
+ * account is opened. Amounts and balances are given in cents.
+ *
+ * The record methods may throw an unchecked exception if the record could not be
+ * written, for instance when the log syncs every record before the change is applied.
+ * The change is then not applied, and the exception is thrown to the caller.
+ *
+ * @author Bruno Toffolo
+ */
+public interface ChangeLog {
+
+    /**
+     * Starts a change. Other changes wait until {@link #endChange()} is called.
+     *
+     * @throws java.io.UncheckedIOException If the log can no longer be written, in
+     *                                      which case nothing was changed
+     */
+    void beginChange();
+
+    /**
+     * Ends the change started by {@link #beginChange()}, letting other changes begin, and
+     * waits until its records are as durable as the log promises. Must be called in a
+     * finally block, even if the change failed. Never throws: the change already took
+     * effect, and an error that prevents its record from being synced is reported by the
+     * next change instead.
+     */
+    void endChange();
+
+    /**
+     * Records the opening of an account, right before the account is announced.
+     *
+     * @param account Opened account
+     */
+    void recordAccountOpened(Account account);
+
+    /**
+     * Records a new credit limit for an account, right before it is set.
+     *
+     * @param account Changed account
+     * @param creditLimitCents New credit limit
+     */
+    void recordCreditLimitChanged(Account account, long creditLimitCents);
+
+    /**
+     * Records a deposit, right before it is added to the balance.
+     *
+     * @param account Account receiving the deposit
+     * @param amountCents Deposited amount
+     */
+    void recordDeposit(Account account, long amountCents);
+
+    /**
+     * Records an approved withdrawal, right before it is subtracted from the balance.
+     *
+     * @param account Account the amount is withdrawn from
+     * @param amountCents Withdrawn amount
+     */
+    void recordWithdrawal(Account account, long amountCents);
+
+    /**
+     * Records an approved transfer, right before both balances are changed.
+     *
+     * @param source Account the amount is taken from
+     * @param target Account receiving the amount
+     * @param amountCents Transferred amount
+     */
+    void recordTransfer(Account source, Account target, long amountCents);
+
+    /**
+     * Records a card added to an account, with its current state and purchases, right
+     * before it is added.
+     *
+     * @param account Account receiving the card
+     * @param card Added card
+     */
+    void recordCardIssued(Account account, CreditCard card);
+
+    /**
+     * Records a new limit for a card, right before it is set.
+     *
+     * @param card Changed card
+     * @param limitCents New limit
+     */
+    void recordCardLimitChanged(CreditCard card, long limitCents);
+
+    /**
+     * Records a new PIN code for a card, right before it is set.
+     *
+     * @param card Changed card
+     * @param pin New PIN code
+     */
+    void recordCardPinChanged(CreditCard card, int pin);
+
+    /**
+     * Records that a card is blocked, right before it is.
+     *
+     * @param card Blocked card
+     */
+    void recordCardBlocked(CreditCard card);
+
+    /**
+     * Records an approved purchase, right before it is added to the card balance and
+     * history.
+     *
+     * @param card Card the purchase is charged to
+     * @param epochMillis Time of the purchase, in milliseconds since the epoch
+     * @param amountCents Amount of the purchase
+     * @param description Description of the purchase
+     */
+    void recordPurchase(CreditCard card, long epochMillis, long amountCents, String description);
+
+}
@@ -0,0 +1,74 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Current time with a resolution of a few milliseconds, read from a volatile field.
+ *
+ * Checks made on every operation, such as whether a credit card is expired, do not need
+ * the exact time. Instead of creating a new GregorianCalendar (or even calling
+ * System.currentTimeMillis) each time, they read the time kept by this clock, which is
+ * refreshed by a single daemon thread every {@link #RESOLUTION_MILLIS} milliseconds.
+ *
+ * Applications that can be unloaded without stopping the JVM (such as a webapp being
+ * redeployed) must call {@link #stop()} when they shut down, or the thread would keep
+ * their classes loaded. Once stopped, the clock reads the system time on every call.
+ *
+ * @author Bruno Toffolo
+ */
+public final class CoarseClock {
+
+    /** Maximum difference between the time of this clock and the system time. */
+    public static final long RESOLUTION_MILLIS = 10;
+
+    /** Value of {@link #now} once the clock is stopped. */
+    private static final long STOPPED = Long.MIN_VALUE;
+
+    private static volatile long now = System.currentTimeMillis();
+
+    private static final Thread TICKER = new Thread(() -> {
+        while (now != STOPPED) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RESOLUTION_MILLIS));
+            synchronized (CoarseClock.class) {
+                if (now != STOPPED) {
+                    now = System.currentTimeMillis();
+                }
+            }
+        }
+    }, "coarse-clock");
+
+    static {
+        TICKER.setDaemon(true);
+        TICKER.start();
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * Gets the current time, up to {@link #RESOLUTION_MILLIS} milliseconds behind the
+     * system time.
+     *
+     * @return Current time, in milliseconds since the epoch
+     */
+    public static long currentTimeMillis() {
+        long current = now;
+        return current != STOPPED ? current : System.currentTimeMillis();
+    }
+
+    /**
+     * Stops the thread refreshing the clock and waits for it to finish. The clock keeps
+     * working afterwards, reading the system time on every call.
+     *
+     * @throws InterruptedException If interrupted while waiting for the thread
+     */
+    public static void stop() throws InterruptedException {
+        synchronized (CoarseClock.class) {
+            now = STOPPED;
+        }
+        LockSupport.unpark(TICKER);
+        TICKER.join();
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Helper methods to convert CPF numbers (the Brazilian taxpayer identification, such as
+ * 987.654.321-00) between their formatted text and a packed long key.
+ *
+ * A CPF has nine base digits followed by two check digits, computed from the base ones.
+ * Its key is simply the 11-digit number, so "987.654.321-00" becomes 98765432100: it
+ * fits in a long with room to spare, needs no object of its own, and keys sort in the
+ * same order as the formatted numbers, so a prefix of the digits is a range of keys.
+ *
+ * @author Bruno Toffolo
+ */
+public final class Cpf {
+
+    /** Number of digits of a CPF, including the check digits. */
+    public static final int DIGITS = 11;
+
+    /** Largest key a CPF can have. */
+    public static final long MAX_KEY = 99999999999L;
+
+    private Cpf() {
+    }
+
+    /**
+     * Converts a CPF to its key, checking its check digits. Both the formatted number and
+     * the plain digits are accepted.
+     *
+     * @param cpf CPF such as "987.654.321-00" or "98765432100"
+     * @return Key of the CPF
+     * @throws IllegalArgumentException If the CPF is malformed or its check digits are wrong
+     */
+    public static long parse(String cpf) {
+        long key = parseDigits(cpf);
+        if (key < 0 || digitCount(cpf) != DIGITS) {
+            throw new IllegalArgumentException("CPF should have " + DIGITS + " digits: " + cpf);
+        }
+        if (!isValid(key)) {
+            throw new IllegalArgumentException("Invalid CPF: " + cpf);
+        }
+        return key;
+    }
+
+    /**
+     * Reads the digits of a CPF, or of the beginning of one, ignoring the dots and the
+     * dash of the formatted number. The check digits are not checked.
+     *
+     * @param cpf CPF such as "987.654.321-00", or a part of it such as "987.65"
+     * @return The digits as a number, or -1 if there is any other character or more than
+     *         {@link #DIGITS} digits
+     */
+    public static long parseDigits(String cpf) {
+        long value = 0;
+        int digits = 0;
+        for (int i = 0; i < cpf.length(); i++) {
+            char c = cpf.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > DIGITS) {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            } else if (c != '.' && c != '-') {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Counts the digits read by {@link #parseDigits(String)}: a prefix has fewer than
+     * {@link #DIGITS} digits, and this tells how many.
+     *
+     * @param cpf CPF or part of it
+     * @return Number of digits, ignoring the dots and the dash
+     */
+    public static int digitCount(String cpf) {
+        int digits = 0;
+        for (int i = 0; i < cpf.length(); i++) {
+            char c = cpf.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            }
+        }
+        return digits;
+    }
+
+    /**
+     * Checks whether a key has the right check digits. Numbers made of a single repeated
+     * digit, such as 111.111.111-11, pass the check but are not valid CPFs.
+     *
+     * @param key Key of the CPF
+     * @return true if the key is a valid CPF
+     */
+    public static boolean isValid(long key) {
+        if (key <= 0 || key > MAX_KEY || key % 11111111111L == 0) {
+            return false;
+        }
+        return withCheckDigits(key / 100) == key;
+    }
+
+    /**
+     * Computes the check digits of the nine base digits of a CPF.
+     *
+     * @param base The nine base digits, as a number from 0 to 999999999
+     * @return Key of the CPF, with both check digits
+     */
+    public static long withCheckDigits(long base) {
+        if (base < 0 || base > MAX_KEY / 100) {
+            throw new IllegalArgumentException("A CPF has 9 base digits: " + base);
+        }
+
+        // Each digit is weighted by its distance to the end, counting the check digit
+        int first = checkDigit(base, 0, 2);
+        int second = checkDigit(base, first, 3);
+        return base * 100 + first * 10 + second;
+    }
+
+    private static int checkDigit(long base, int previousDigit, int firstWeight) {
+        int sum = previousDigit * 2;
+        int weight = firstWeight;
+        for (long rest = base; weight <= firstWeight + 8; rest /= 10, weight++) {
+            sum += (int) (rest % 10) * weight;
+        }
+        int remainder = sum % 11;
+        return remainder < 2 ? 0 : 11 - remainder;
+    }
+
+    /**
+     * Formats a key as a CPF, such as "987.654.321-00".
+     *
+     * @param key Key of the CPF
+     * @return Formatted CPF
+     */
+    public static String format(long key) {
+        if (key < 0 || key > MAX_KEY) {
+            throw new IllegalArgumentException("A CPF has " + DIGITS + " digits: " + key);
+        }
+
+        char[] text = new char[14];
+        long rest = key;
+        for (int i = text.length - 1; i >= 0; i--) {
+            if (i == 11) {
+                text[i] = '-';
+            } else if (i == 3 || i == 7) {
+                text[i] = '.';
+            } else {
+                text[i] = (char) ('0' + rest % 10);
+                rest /= 10;
+            }
+        }
+        return new String(text);
+    }
+
+}
@@ -1,16 +1,17 @@
 package com.brunotoffolo.codewithme.exceptions.model;
 
+import com.brunotoffolo.codewithme.exceptions.exception.CardBlockedException;
 import com.brunotoffolo.codewithme.exceptions.exception.InsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.exception.StacklessInsufficientFundsException;
+import com.brunotoffolo.codewithme.exceptions.exception.VelocityLimitExceededException;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Represents a Credit Card. To keep the example short and simple, we only store basic
@@ -21,26 +22,102 @@ import java.util.List;
  */
 public class CreditCard {
 
+    // Just like in the Account class, the balance is kept in cents and is only changed
+    // through compare-and-set, so concurrent purchases can never exceed the card limit.
+    private static final AtomicLongFieldUpdater<CreditCard> BALANCE =
+            AtomicLongFieldUpdater.newUpdater(CreditCard.class, "balance");
+
+    // Changed around every write of the balance, the limit or the blocked flag, so
+    // snapshots can tell whether they changed while being read (see WriteStamps)
+    private static final AtomicLongFieldUpdater<CreditCard> STAMP =
+            AtomicLongFieldUpdater.newUpdater(CreditCard.class, "stamp");
+
+    /** Shared instance thrown whenever a purchase is declined. */
+    private static final InsufficientFundsException PURCHASE_DECLINED =
+            new StacklessInsufficientFundsException("Purchase amount is higher than the available limit");
+
+    /** Shared instances thrown whenever a purchase is made with a blocked or expired card. */
+    private static final InsufficientFundsException CARD_BLOCKED =
+            new CardBlockedException("Credit card is blocked");
+    private static final InsufficientFundsException CARD_EXPIRED =
+            new CardBlockedException("Credit card is expired");
+
+    /** Shared instance thrown whenever a purchase exceeds the velocity limits of the card. */
+    private static final InsufficientFundsException VELOCITY_LIMIT_EXCEEDED =
+            new VelocityLimitExceededException("Too many purchases in a short period of time");
+
+    /** Value returned by {@link #charge(long, long, String)} when the purchase is declined. */
+    private static final long DECLINED = Long.MIN_VALUE;
+
+    /** Value returned by {@link #charge(long, long, String)} when the card is blocked. */
+    private static final long BLOCKED = Long.MIN_VALUE + 1;
+
+    /** Value returned by {@link #charge(long, long, String)} when the card is expired. */
+    private static final long EXPIRED = Long.MIN_VALUE + 2;
+
+    /** Value returned by {@link #charge(long, long, String)} when the velocity limits are exceeded. */
+    private static final long TOO_FAST = Long.MIN_VALUE + 3;
+
     private final long number;
     private final String brand;
-    private double limit;
-    private double balance;
+    private volatile long limit;
+    private volatile long balance;
+    private volatile long stamp;
     private final Calendar expirationDate;
+    // Expiration is checked on every purchase, so the date is also kept as a plain long
+    // and compared with the coarse clock, without creating any Calendar
+    private final long expirationMillis;
+    private volatile boolean blocked;
+    // Null unless velocity limits were set, so cards without limits skip the check
+    private volatile VelocityLimiter velocityLimiter;
     private int pin;
-    private List<Purchase> purchases;
+    private final PurchaseLedger purchases;
 
     public CreditCard(int pin, Calendar expirationDate, double limit, String brand, long number) {
-        if (expirationDate.before(new GregorianCalendar())) {
+        if (expirationDate.getTimeInMillis() < CoarseClock.currentTimeMillis()) {
             throw new IllegalArgumentException("Credit card expiration date should not be in the past");
         }
 
-        this.balance = 0.0;
+        this.balance = 0L;
+        this.brand = brand;
+        this.expirationDate = expirationDate;
+        this.expirationMillis = expirationDate.getTimeInMillis();
+        this.number = number;
+        this.limit = validLimit(limit);
+        this.pin = validPin(pin);
+        this.purchases = new PurchaseLedger();
+    }
+
+    private CreditCard(long number, String brand, int pin, Calendar expirationDate, long limit, long balance) {
+        this.balance = balance;
         this.brand = brand;
         this.expirationDate = expirationDate;
+        this.expirationMillis = expirationDate.getTimeInMillis();
         this.number = number;
-        setLimit(limit);
-        setPin(pin);
-        this.purchases = new ArrayList<>();
+        this.limit = limit;
+        this.pin = pin;
+        this.purchases = new PurchaseLedger();
+    }
+
+    /**
+     * Rebuilds a credit card from previously persisted state, such as a transaction log
+     * or a snapshot. Unlike the public constructor, the expiration date is not checked
+     * and no listener is notified. Purchases can be added with
+     * {@link #restorePurchase(long, long, String)}.
+     *
+     * @param number Card number
+     * @param brand Card brand
+     * @param pin Card PIN code
+     * @param expirationMillis Expiration date, in milliseconds since the epoch
+     * @param limitCents Card limit, in cents
+     * @param balanceCents Card balance, in cents
+     * @return Restored card
+     */
+    public static CreditCard restore(long number, String brand, int pin, long expirationMillis, long limitCents,
+                                     long balanceCents) {
+        Calendar expirationDate = new GregorianCalendar();
+        expirationDate.setTimeInMillis(expirationMillis);
+        return new CreditCard(number, brand, pin, expirationDate, limitCents, balanceCents);
     }
 
     /**
@@ -58,7 +135,7 @@ public class CreditCard {
      * @return Card limit
      */
     public double getLimit() {
-        return limit;
+        return Money.toDouble(limit);
     }
 
     /**
@@ -67,11 +144,32 @@ public class CreditCard {
      * @param limit Limit to be set
      */
     public void setLimit(double limit) {
+        long limitCents = validLimit(limit);
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (log != null) {
+                log.recordCardLimitChanged(this, limitCents);
+            }
+            beginWrite();
+            this.limit = limitCents;
+            endWrite();
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        BankingEvents.cardLimitChanged(this, limitCents);
+    }
+
+    private static long validLimit(double limit) {
         if (limit < 0) {
             throw new IllegalArgumentException("Credit card limit should be a positive value");
         }
 
-        this.limit = limit;
+        return Money.toCents(limit);
     }
 
     /**
@@ -80,6 +178,24 @@ public class CreditCard {
      * @return Card balance
      */
     public double getBalance() {
+        return Money.toDouble(balance);
+    }
+
+    /**
+     * Gets the card limit in cents.
+     *
+     * @return Card limit, in cents
+     */
+    public long getLimitCents() {
+        return limit;
+    }
+
+    /**
+     * Gets the card balance in cents.
+     *
+     * @return Card balance, in cents
+     */
+    public long getBalanceCents() {
         return balance;
     }
 
@@ -98,11 +214,30 @@ public class CreditCard {
      * @param pin Code to be set
      */
     public void setPin(int pin) {
+        validPin(pin);
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (log != null) {
+                log.recordCardPinChanged(this, pin);
+            }
+            this.pin = pin;
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        BankingEvents.cardPinChanged(this, pin);
+    }
+
+    private static int validPin(int pin) {
         if (pin < 100000 || pin > 999999) {
             throw new IllegalArgumentException("PIN code must have exactly six digits");
         }
 
-        this.pin = pin;
+        return pin;
     }
 
     /**
@@ -123,6 +258,113 @@ public class CreditCard {
         return expirationDate;
     }
 
+    /**
+     * Gets the card expiration date in milliseconds since the epoch.
+     *
+     * @return Expiration date, in milliseconds since the epoch
+     */
+    public long getExpirationMillis() {
+        return expirationMillis;
+    }
+
+    /**
+     * Checks whether the card expiration date has passed, according to the
+     * {@link CoarseClock}. Purchases on expired cards are declined.
+     *
+     * @return true if the card is expired; false otherwise
+     */
+    public boolean isExpired() {
+        return CoarseClock.currentTimeMillis() >= expirationMillis;
+    }
+
+    /**
+     * Checks whether the card was blocked. Purchases on blocked cards are declined.
+     *
+     * @return true if the card is blocked; false otherwise
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Blocks the card, so every new purchase is declined. Cards are blocked by the
+     * {@link com.brunotoffolo.codewithme.exceptions.registry.CardExpiryScheduler} once
+     * they expire, but can also be blocked at any time (if lost or stolen, for instance).
+     */
+    public void block() {
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            if (blocked) {
+                return;
+            }
+            if (log != null) {
+                log.recordCardBlocked(this);
+            }
+            beginWrite();
+            blocked = true;
+            endWrite();
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+        BankingEvents.cardBlocked(this);
+    }
+
+    /**
+     * Marks the card as blocked, as previously persisted. Used only while the card is
+     * being rebuilt, so no listener is notified.
+     */
+    public void restoreBlocked() {
+        beginWrite();
+        this.blocked = true;
+        endWrite();
+    }
+
+    /**
+     * Sets the maximum number of purchases and amount the card may spend in a sliding
+     * minute and hour. Purchases over those limits are declined, until older purchases
+     * leave the windows. Setting new limits starts the windows from scratch.
+     *
+     * @param limits Limits to be set, or null to remove them
+     */
+    public void setVelocityLimits(VelocityLimits limits) {
+        this.velocityLimiter = limits == null ? null : new VelocityLimiter(limits);
+    }
+
+    /**
+     * Gets the velocity limits of the card.
+     *
+     * @return Velocity limits, or null if the card has none
+     */
+    public VelocityLimits getVelocityLimits() {
+        VelocityLimiter limiter = velocityLimiter;
+        return limiter == null ? null : limiter.getLimits();
+    }
+
+    /**
+     * Gets the purchase history of the card.
+     *
+     * @return Purchase ledger
+     */
+    public PurchaseLedger getPurchases() {
+        return purchases;
+    }
+
+    /**
+     * Gets the running totals of the card purchases, per day, billing cycle and
+     * description. They are updated as purchases are made, so reading them does not go
+     * through the purchase history.
+     *
+     * @return Spending aggregates
+     */
+    public SpendingAggregates getAggregates() {
+        return purchases.getAggregates();
+    }
+
     /**
      * Adds a new purchase in the credit card invoice.
      *
@@ -131,19 +373,266 @@ public class CreditCard {
      * @returns Partial balance including the added purchase
      */
     public double addPurchase(double amount, String description) throws InsufficientFundsException {
-        if (balance + amount > limit) {
-            throw new InsufficientFundsException("Purchase amount is higher than the available limit");
+        if (amount < 0) {
+            throw new IllegalArgumentException("Purchase amount should be higher than zero");
         }
 
-        balance += amount;
+        FlightRecorderEvents.PurchaseEvent event = new FlightRecorderEvents.PurchaseEvent();
+        event.begin();
 
-        Purchase purchase = new Purchase(amount, description);
-        purchases.add(purchase);
+        long amountCents = Money.toCents(amount);
+        long timestamp = System.currentTimeMillis();
+        long updatedBalance = charge(amountCents, timestamp, description);
+        if (updatedBalance == DECLINED) {
+            decline(amountCents, OperationStatus.INSUFFICIENT_FUNDS);
+            throw PURCHASE_DECLINED;
+        } else if (updatedBalance == BLOCKED) {
+            decline(amountCents, OperationStatus.CARD_BLOCKED);
+            throw CARD_BLOCKED;
+        } else if (updatedBalance == EXPIRED) {
+            decline(amountCents, OperationStatus.CARD_EXPIRED);
+            throw CARD_EXPIRED;
+        } else if (updatedBalance == TOO_FAST) {
+            decline(amountCents, OperationStatus.VELOCITY_LIMIT_EXCEEDED);
+            throw VELOCITY_LIMIT_EXCEEDED;
+        }
 
-        System.out.println("CC " + number + " | New purchase: USD " + amount +
-                " | Current balance: USD " + balance);
+        BankingEvents.purchase(this, timestamp, amountCents, description, updatedBalance);
+        event.commit(number, amountCents, updatedBalance, description);
+        return Money.toDouble(updatedBalance);
+    }
 
-        return balance;
+    /**
+     * Tries to add a new purchase in the credit card invoice. Unlike
+     * {@link #addPurchase(double, String)}, a declined purchase is reported through the
+     * returned status code instead of an exception, so declines do not allocate anything.
+     *
+     * @param amount Amount of the purchase.
+     * @param description Description of the purchase.
+     * @return {@link OperationStatus#APPROVED} if the purchase was added,
+     *         {@link OperationStatus#INSUFFICIENT_FUNDS} if it was declined, or
+     *         {@link OperationStatus#CARD_BLOCKED} or {@link OperationStatus#CARD_EXPIRED}
+     *         if the card cannot be used, or {@link OperationStatus#VELOCITY_LIMIT_EXCEEDED}
+     *         if the card made too many purchases recently
+     */
+    public int tryAddPurchase(double amount, String description) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Purchase amount should be higher than zero");
+        }
+
+        FlightRecorderEvents.PurchaseEvent event = new FlightRecorderEvents.PurchaseEvent();
+        event.begin();
+
+        long amountCents = Money.toCents(amount);
+        long timestamp = System.currentTimeMillis();
+        long updatedBalance = charge(amountCents, timestamp, description);
+        int status;
+        if (updatedBalance == DECLINED) {
+            status = OperationStatus.INSUFFICIENT_FUNDS;
+        } else if (updatedBalance == BLOCKED) {
+            status = OperationStatus.CARD_BLOCKED;
+        } else if (updatedBalance == EXPIRED) {
+            status = OperationStatus.CARD_EXPIRED;
+        } else if (updatedBalance == TOO_FAST) {
+            status = OperationStatus.VELOCITY_LIMIT_EXCEEDED;
+        } else {
+            BankingEvents.purchase(this, timestamp, amountCents, description, updatedBalance);
+            event.commit(number, amountCents, updatedBalance, description);
+            return OperationStatus.APPROVED;
+        }
+
+        decline(amountCents, status);
+        return status;
+    }
+
+    /**
+     * Atomically adds an amount to the card balance and the purchase to the card history,
+     * as long as the card can be used and the new balance does not exceed the card limit.
+     * If changes are logged, an approved purchase is recorded right before it is applied.
+     * No listener is notified.
+     *
+     * @param amount Amount to be charged, in cents
+     * @param timestamp Time of the purchase, in milliseconds since the epoch
+     * @param description Description of the purchase
+     * @return Updated balance in cents, or {@link #DECLINED} if the limit is not enough,
+     *         {@link #BLOCKED} or {@link #EXPIRED} if the card cannot be used, or
+     *         {@link #TOO_FAST} if the velocity limits are exceeded
+     */
+    private long charge(long amount, long timestamp, String description) {
+        ChangeLog log = BankingEvents.getChangeLog();
+        if (log != null) {
+            log.beginChange();
+        }
+        try {
+            long now = CoarseClock.currentTimeMillis();
+            if (blocked) {
+                return BLOCKED;
+            }
+            if (now >= expirationMillis) {
+                return EXPIRED;
+            }
+
+            // The purchase is counted in the velocity windows before the balance is changed,
+            // so concurrent purchases cannot exceed the velocity limits together
+            VelocityLimiter limiter = velocityLimiter;
+            if (limiter != null && !limiter.tryAcquire(now, amount)) {
+                return TOO_FAST;
+            }
+
+            // While a change is in progress in the change log, no other change can reach the
+            // balance or the limit, so a purchase within the limit here is approved below
+            if (log != null && balance + amount <= limit) {
+                try {
+                    log.recordPurchase(this, timestamp, amount, description);
+                } catch (RuntimeException | Error e) {
+                    if (limiter != null) {
+                        limiter.release(now, amount);
+                    }
+                    throw e;
+                }
+            }
+
+            long currentBalance;
+            long updatedBalance;
+            beginWrite();
+            try {
+                do {
+                    currentBalance = balance;
+                    updatedBalance = currentBalance + amount;
+                    if (updatedBalance > limit) {
+                        updatedBalance = DECLINED;
+                        break;
+                    }
+                } while (!BALANCE.compareAndSet(this, currentBalance, updatedBalance));
+            } finally {
+                endWrite();
+            }
+
+            if (updatedBalance == DECLINED) {
+                if (limiter != null) {
+                    limiter.release(now, amount);
+                }
+                return DECLINED;
+            }
+
+            // Only the card's own ledger is locked while the purchase is appended, so purchases
+            // on different cards remain fully independent from each other.
+            purchases.append(timestamp, amount, description);
+            return updatedBalance;
+        } finally {
+            if (log != null) {
+                log.endChange();
+            }
+        }
+    }
+
+    private void beginWrite() {
+        STAMP.addAndGet(this, WriteStamps.STARTED);
+    }
+
+    private void endWrite() {
+        STAMP.addAndGet(this, WriteStamps.FINISHED);
+    }
+
+    /**
+     * Takes a snapshot of the card, with its limit, balance and blocked flag as they were
+     * at a single moment. Writers are never blocked by snapshots: the values are read
+     * again if a write happened while they were being read (see {@link WriteStamps}). To
+     * take a snapshot of all cards of an account at once, use {@link Account#snapshot()}.
+     *
+     * @return Snapshot of the card
+     */
+    public CreditCardSnapshot snapshot() {
+        for (int attempt = 0; ; WriteStamps.backOff(attempt++)) {
+            long current = stamp;
+            if (WriteStamps.isStable(current)) {
+                CreditCardSnapshot snapshot = readSnapshot();
+                if (stamp == current) {
+                    return snapshot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the write stamp of the card, to be read before and after
+     * {@link #readSnapshot()}.
+     *
+     * @return Write stamp
+     */
+    long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Reads the values of the card, which are only consistent with each other if its
+     * write stamp was stable before and did not change after.
+     *
+     * @return Snapshot of the card, possibly inconsistent
+     */
+    CreditCardSnapshot readSnapshot() {
+        return new CreditCardSnapshot(this, limit, balance, blocked);
+    }
+
+    /**
+     * Notifies the registered listeners and the flight recorder about a declined purchase.
+     *
+     * @param amount Amount of the purchase, in cents
+     * @param status {@link OperationStatus} code with the reason of the decline
+     */
+    private void decline(long amount, int status) {
+        BankingEvents.purchaseDeclined(this, amount);
+        FlightRecorderEvents.DeclineEvent.purchase(number, amount, status);
+    }
+
+    /**
+     * Adds a previously persisted purchase to the card history and balance, without
+     * checking the limit. Used only while the card is being rebuilt, so no listener is
+     * notified.
+     *
+     * @param epochMillis Time of the purchase, in milliseconds since the epoch
+     * @param amountCents Amount of the purchase, in cents
+     * @param description Description of the purchase
+     */
+    public void restorePurchase(long epochMillis, long amountCents, String description) {
+        purchases.append(epochMillis, amountCents, description);
+        beginWrite();
+        BALANCE.addAndGet(this, amountCents);
+        endWrite();
+    }
+
+    /**
+     * Overwrites the limit with a previously persisted value. Used only while the card
+     * is being rebuilt, so no listener is notified.
+     *
+     * @param limitCents Limit to be set, in cents
+     */
+    public void restoreLimit(long limitCents) {
+        beginWrite();
+        this.limit = limitCents;
+        endWrite();
+    }
+
+    /**
+     * Overwrites the PIN code with a previously persisted value. Used only while the card
+     * is being rebuilt, so no listener is notified.
+     *
+     * @param pin PIN code to be set
+     */
+    public void restorePin(int pin) {
+        this.pin = pin;
+    }
+
+    /**
+     * Overwrites the balance with a previously persisted value. Used only while the card
+     * is being rebuilt, so no listener is notified.
+     *
+     * @param balanceCents Balance to be set, in cents
+     */
+    public void restoreBalance(long balanceCents) {
+        beginWrite();
+        this.balance = balanceCents;
+        endWrite();
     }
 
     /**
@@ -156,9 +645,10 @@ public class CreditCard {
     public void createInvoice(String filename) {
         File invoiceFile = new File(filename);
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-        SimpleDateFormat dateTimeFormat = new SimpleDateFormat("dd/MM/yyyy, HH:MM");
-        String currentTime = dateTimeFormat.format(Calendar.getInstance().getTime());
+        // The invoice text is rendered by InvoiceRenderer, which reuses the same (thread-safe)
+        // date formatters for every invoice instead of creating new ones on each call.
+        String invoice = new InvoiceRenderer().render(this, InvoiceRenderer.currentTime(),
+                new StringBuilder()).toString();
 
         // Here we replaced the BufferedWriter initialization (that was performed inside
         // the try block) and close (that was performed in the finally block) operations
@@ -178,23 +668,9 @@ public class CreditCard {
         // resources that may be temporarily consumed by the application.
 
         try (BufferedWriter bufferedWriter = new BufferedWriter(new FileWriter(invoiceFile))) {
-            bufferedWriter.write("INVOICE FOR: " + brand + " " + number + "\r\n");
-            bufferedWriter.write("--------------------------------------------\r\n");
-            bufferedWriter.write("PURCHASES\r\n");
-            bufferedWriter.write("Date\t\tAmount\tDescription\r\n");
-            for (Purchase purchase : purchases) {
-                bufferedWriter.write(
-                        dateFormat.format(purchase.getDate().getTime()) + "\t" +
-                        purchase.getAmount() + "\t" +
-                        purchase.getDescription() + "\r\n");
-            }
-            bufferedWriter.write("--------------------------------------------\r\n");
-            bufferedWriter.write("TOTAL AMOUNT: USD " + balance + "\n");
-            bufferedWriter.write("Remaining limit: USD " + (limit - balance) + "\n");
-            bufferedWriter.write("--------------------------------------------\r\n");
-            bufferedWriter.write("Invoice generated at " + currentTime);
+            bufferedWriter.write(invoice);
 
-            System.out.println("CC " + number + " | Invoice generated in " + filename);
+            BankingEvents.invoiceGenerated(this, filename);
         } catch (IOException e) {
             System.err.println("Error while exporting credit card invoice: " + e.getMessage());
         }
@@ -0,0 +1,86 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Values of a credit card as they were at a single moment, taken by
+ * {@link CreditCard#snapshot()} or, with the other cards of its account, by
+ * {@link Account#snapshot()}. Unlike the card, a snapshot never changes, so its limit
+ * and balance always agree with each other.
+ *
+ * @author Bruno Toffolo
+ */
+public final class CreditCardSnapshot {
+
+    private final CreditCard card;
+    private final long limitCents;
+    private final long balanceCents;
+    private final boolean blocked;
+
+    CreditCardSnapshot(CreditCard card, long limitCents, long balanceCents, boolean blocked) {
+        this.card = card;
+        this.limitCents = limitCents;
+        this.balanceCents = balanceCents;
+        this.blocked = blocked;
+    }
+
+    /**
+     * Gets the card the snapshot was taken from, for the values that are not part of it
+     * (such as the purchase history, which keeps growing).
+     *
+     * @return Credit card
+     */
+    public CreditCard getCard() {
+        return card;
+    }
+
+    /**
+     * Gets the card number.
+     *
+     * @return Card number
+     */
+    public long getNumber() {
+        return card.getNumber();
+    }
+
+    /**
+     * Gets the card limit in cents.
+     *
+     * @return Card limit, in cents
+     */
+    public long getLimitCents() {
+        return limitCents;
+    }
+
+    /**
+     * Gets the card balance in cents.
+     *
+     * @return Card balance, in cents
+     */
+    public long getBalanceCents() {
+        return balanceCents;
+    }
+
+    /**
+     * Gets how much could still be spent with the card.
+     *
+     * @return Available limit, in cents
+     */
+    public long getAvailableCents() {
+        return limitCents - balanceCents;
+    }
+
+    /**
+     * Checks whether the card was blocked.
+     *
+     * @return true if the card was blocked; false otherwise
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    @Override
+    public String toString() {
+        return "Credit card " + card.getNumber() + ", balance of USD " + Money.toDouble(balanceCents)
+                + " out of USD " + Money.toDouble(limitCents);
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps purchase descriptions to small int identifiers, so each purchase in a
+ * {@link PurchaseLedger} stores four bytes instead of a reference to its own String.
+ *
+ * Descriptions repeat a lot across purchases and cards ("Groceries", "Air tickets"...),
+ * so a single dictionary is shared by every ledger and each distinct description is
+ * kept in memory only once.
+ *
+ * @author Bruno Toffolo
+ */
+public final class DescriptionDictionary {
+
+    /** Identifier used for purchases without a description. */
+    public static final int NO_DESCRIPTION = -1;
+
+    /** Value returned by {@link #find(String)} for descriptions that were never registered. */
+    public static final int NOT_REGISTERED = -2;
+
+    private static final DescriptionDictionary SHARED = new DescriptionDictionary();
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // Only grown by writers holding the lock. The array reference is volatile so readers
+    // can resolve identifiers without locking.
+    private volatile String[] descriptions = new String[256];
+    private int size;
+
+    /**
+     * Gets the dictionary shared by all purchase ledgers.
+     *
+     * @return Shared dictionary
+     */
+    public static DescriptionDictionary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Gets the identifier of a description, registering it if it was never seen before.
+     *
+     * @param description Purchase description
+     * @return Description identifier
+     */
+    public int idOf(String description) {
+        if (description == null) {
+            return NO_DESCRIPTION;
+        }
+
+        Integer id = ids.get(description);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = ids.get(description);
+            if (id != null) {
+                return id;
+            }
+
+            String[] current = descriptions;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[size] = description;
+            descriptions = current;
+            ids.put(description, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Gets the identifier of a description, without registering it.
+     *
+     * @param description Purchase description
+     * @return Description identifier, or {@link #NOT_REGISTERED} if it was never seen before
+     */
+    public int find(String description) {
+        if (description == null) {
+            return NO_DESCRIPTION;
+        }
+
+        Integer id = ids.get(description);
+        return id == null ? NOT_REGISTERED : id;
+    }
+
+    /**
+     * Gets the description registered with a given identifier.
+     *
+     * @param id Description identifier
+     * @return Description, or null for {@link #NO_DESCRIPTION}
+     */
+    public String descriptionOf(int id) {
+        return id == NO_DESCRIPTION ? null : descriptions[id];
+    }
+
+    /**
+     * Gets the number of distinct descriptions registered.
+     *
+     * @return Number of descriptions
+     */
+    public int size() {
+        return ids.size();
+    }
+
+}
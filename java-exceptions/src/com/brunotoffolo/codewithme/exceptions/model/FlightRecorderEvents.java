@@ -0,0 +1,276 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted by accounts, credit cards and the invoice renderer,
+ * so banking activity can be lined up with GC pauses, lock contention and the other
+ * events of a recording.
+ *
+ * The events are created directly by the model methods, which begin them before the
+ * operation and commit them once it took effect, so their duration covers the whole
+ * operation (including the listeners of {@link BankingEvents}). Declines are instant
+ * events, committed when the operation is refused.
+ *
+ * The events are only recorded while a recording that enables them is running, for
+ * instance one started with -XX:StartFlightRecording or at runtime with
+ * "jcmd &lt;pid&gt; JFR.start", and stopped with "jcmd &lt;pid&gt; JFR.stop". Otherwise
+ * creating and committing an event costs next to nothing: the JIT compiler sees that
+ * the event is disabled and removes it. Stack traces are not recorded, to keep the
+ * events small.
+ *
+ * @author Bruno Toffolo
+ */
+public final class FlightRecorderEvents {
+
+    /** Name of the deposit events. */
+    public static final String DEPOSIT = "codewithme.Deposit";
+
+    /** Name of the withdrawal events. */
+    public static final String WITHDRAWAL = "codewithme.Withdrawal";
+
+    /** Name of the transfer events. */
+    public static final String TRANSFER = "codewithme.Transfer";
+
+    /** Name of the purchase events. */
+    public static final String PURCHASE = "codewithme.Purchase";
+
+    /** Name of the events of declined withdrawals, transfers and purchases. */
+    public static final String DECLINE = "codewithme.Decline";
+
+    /** Name of the invoice events. */
+    public static final String INVOICE = "codewithme.Invoice";
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Gets the reason of a decline, as recorded in the events.
+     *
+     * @param status One of the {@link OperationStatus} codes of a declined operation
+     * @return Description of the reason
+     */
+    static String reasonOf(int status) {
+        switch (status) {
+            case OperationStatus.INSUFFICIENT_FUNDS:
+                return "Insufficient funds";
+            case OperationStatus.CARD_BLOCKED:
+                return "Card blocked";
+            case OperationStatus.CARD_EXPIRED:
+                return "Card expired";
+            case OperationStatus.VELOCITY_LIMIT_EXCEEDED:
+                return "Velocity limit exceeded";
+            default:
+                return "Status " + status;
+        }
+    }
+
+    @Name(DEPOSIT)
+    @Label("Deposit")
+    @Category({"Code with me", "Banking"})
+    @StackTrace(false)
+    static final class DepositEvent extends Event {
+        @Label("Account Number")
+        int accountNumber;
+
+        @Label("Amount")
+        @Description("Deposited amount, in cents")
+        long amountCents;
+
+        @Label("Balance")
+        @Description("Account balance after the deposit, in cents")
+        long balanceCents;
+
+        void commit(int accountNumber, long amountCents, long balanceCents) {
+            if (shouldCommit()) {
+                this.accountNumber = accountNumber;
+                this.amountCents = amountCents;
+                this.balanceCents = balanceCents;
+                commit();
+            }
+        }
+    }
+
+    @Name(WITHDRAWAL)
+    @Label("Withdrawal")
+    @Category({"Code with me", "Banking"})
+    @StackTrace(false)
+    static final class WithdrawalEvent extends Event {
+        @Label("Account Number")
+        int accountNumber;
+
+        @Label("Amount")
+        @Description("Withdrawn amount, in cents")
+        long amountCents;
+
+        @Label("Balance")
+        @Description("Account balance after the withdrawal, in cents")
+        long balanceCents;
+
+        void commit(int accountNumber, long amountCents, long balanceCents) {
+            if (shouldCommit()) {
+                this.accountNumber = accountNumber;
+                this.amountCents = amountCents;
+                this.balanceCents = balanceCents;
+                commit();
+            }
+        }
+    }
+
+    @Name(TRANSFER)
+    @Label("Transfer")
+    @Category({"Code with me", "Banking"})
+    @StackTrace(false)
+    static final class TransferEvent extends Event {
+        @Label("Source Account Number")
+        int sourceAccountNumber;
+
+        @Label("Target Account Number")
+        int targetAccountNumber;
+
+        @Label("Amount")
+        @Description("Transferred amount, in cents")
+        long amountCents;
+
+        @Label("Source Balance")
+        @Description("Source account balance after the transfer, in cents")
+        long sourceBalanceCents;
+
+        @Label("Target Balance")
+        @Description("Target account balance after the transfer, in cents")
+        long targetBalanceCents;
+
+        void commit(int sourceAccountNumber, int targetAccountNumber, long amountCents, long sourceBalanceCents,
+                    long targetBalanceCents) {
+            if (shouldCommit()) {
+                this.sourceAccountNumber = sourceAccountNumber;
+                this.targetAccountNumber = targetAccountNumber;
+                this.amountCents = amountCents;
+                this.sourceBalanceCents = sourceBalanceCents;
+                this.targetBalanceCents = targetBalanceCents;
+                commit();
+            }
+        }
+    }
+
+    @Name(PURCHASE)
+    @Label("Purchase")
+    @Category({"Code with me", "Banking"})
+    @StackTrace(false)
+    static final class PurchaseEvent extends Event {
+        @Label("Card Number")
+        long cardNumber;
+
+        @Label("Amount")
+        @Description("Purchase amount, in cents")
+        long amountCents;
+
+        @Label("Balance")
+        @Description("Card balance after the purchase, in cents")
+        long balanceCents;
+
+        @Label("Description")
+        String description;
+
+        void commit(long cardNumber, long amountCents, long balanceCents, String description) {
+            if (shouldCommit()) {
+                this.cardNumber = cardNumber;
+                this.amountCents = amountCents;
+                this.balanceCents = balanceCents;
+                this.description = description;
+                commit();
+            }
+        }
+    }
+
+    @Name(DECLINE)
+    @Label("Decline")
+    @Description("A withdrawal, a transfer or a purchase that was refused")
+    @Category({"Code with me", "Banking"})
+    @StackTrace(false)
+    static final class DeclineEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Account Number")
+        @Description("Account of a declined withdrawal, or source account of a declined transfer")
+        int accountNumber;
+
+        @Label("Card Number")
+        @Description("Card of a declined purchase")
+        long cardNumber;
+
+        @Label("Amount")
+        @Description("Requested amount, in cents")
+        long amountCents;
+
+        @Label("Reason")
+        String reason;
+
+        static void withdrawal(int accountNumber, long amountCents) {
+            DeclineEvent event = new DeclineEvent();
+            if (event.shouldCommit()) {
+                event.operation = "Withdrawal";
+                event.accountNumber = accountNumber;
+                event.amountCents = amountCents;
+                event.reason = reasonOf(OperationStatus.INSUFFICIENT_FUNDS);
+                event.commit();
+            }
+        }
+
+        static void transfer(int accountNumber, long amountCents) {
+            DeclineEvent event = new DeclineEvent();
+            if (event.shouldCommit()) {
+                event.operation = "Transfer";
+                event.accountNumber = accountNumber;
+                event.amountCents = amountCents;
+                event.reason = reasonOf(OperationStatus.INSUFFICIENT_FUNDS);
+                event.commit();
+            }
+        }
+
+        static void purchase(long cardNumber, long amountCents, int status) {
+            DeclineEvent event = new DeclineEvent();
+            if (event.shouldCommit()) {
+                event.operation = "Purchase";
+                event.cardNumber = cardNumber;
+                event.amountCents = amountCents;
+                event.reason = reasonOf(status);
+                event.commit();
+            }
+        }
+    }
+
+    @Name(INVOICE)
+    @Label("Invoice")
+    @Description("An invoice rendered as text, to be written to a file or exported")
+    @Category({"Code with me", "Banking"})
+    @StackTrace(false)
+    static final class InvoiceEvent extends Event {
+        @Label("Card Number")
+        long cardNumber;
+
+        @Label("Purchases")
+        @Description("Number of purchases in the invoice")
+        int purchaseCount;
+
+        @Label("Length")
+        @Description("Number of characters of the rendered invoice")
+        int length;
+
+        void commit(long cardNumber, int purchaseCount, int length) {
+            if (shouldCommit()) {
+                this.cardNumber = cardNumber;
+                this.purchaseCount = purchaseCount;
+                this.length = length;
+                commit();
+            }
+        }
+    }
+
+}
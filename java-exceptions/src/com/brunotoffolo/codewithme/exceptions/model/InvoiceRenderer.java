@@ -0,0 +1,94 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Renders the text of a credit card invoice.
+ *
+ * The formatters are immutable and shared by every renderer, so they are created only
+ * once instead of on every invoice. A renderer itself keeps some reusable state (the
+ * last formatted purchase date), so each thread should use its own instance.
+ *
+ * @author Bruno Toffolo
+ */
+public class InvoiceRenderer {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy").withZone(ZONE);
+    private static final DateTimeFormatter DATE_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy, HH:mm").withZone(ZONE);
+
+    private static final String SEPARATOR = "--------------------------------------------\r\n";
+
+    // Purchases of the same card are usually grouped in a few days, so the last formatted
+    // date is reused while the purchases fall in the same day.
+    private long cachedDayStart = Long.MAX_VALUE;
+    private long cachedDayEnd = Long.MIN_VALUE;
+    private String cachedDate;
+
+    /**
+     * Formats the current time as shown in the invoice footer.
+     *
+     * @return Formatted current time
+     */
+    public static String currentTime() {
+        return DATE_TIME_FORMAT.format(Instant.now());
+    }
+
+    /**
+     * Appends the invoice of a credit card to a StringBuilder.
+     *
+     * @param card Card whose invoice should be rendered
+     * @param generatedAt Formatted generation time, as returned by {@link #currentTime()}
+     * @param out Builder the invoice should be appended to
+     * @return The given builder
+     */
+    public StringBuilder render(CreditCard card, String generatedAt, StringBuilder out) {
+        FlightRecorderEvents.InvoiceEvent event = new FlightRecorderEvents.InvoiceEvent();
+        event.begin();
+        int start = out.length();
+
+        PurchaseLedger purchases = card.getPurchases();
+        // Read the balance only once, so the total and the remaining limit always match
+        long balance = card.getBalanceCents();
+
+        out.append("INVOICE FOR: ").append(card.getBrand()).append(' ').append(card.getNumber()).append("\r\n");
+        out.append(SEPARATOR);
+        out.append("PURCHASES\r\n");
+        out.append("Date\t\tAmount\tDescription\r\n");
+
+        int purchaseCount = purchases.size();
+        for (int i = 0; i < purchaseCount; i++) {
+            out.append(formatDate(purchases.timestampAt(i))).append('\t');
+            out.append(Money.toDouble(purchases.amountCentsAt(i))).append('\t');
+            out.append(purchases.descriptionAt(i)).append("\r\n");
+        }
+
+        // The totals keep the format of the original invoice: amounts as printed by
+        // Double.toString, and lines ending in "\n" instead of "\r\n"
+        out.append(SEPARATOR);
+        out.append("TOTAL AMOUNT: USD ").append(Money.toDouble(balance)).append('\n');
+        out.append("Remaining limit: USD ").append(Money.toDouble(card.getLimitCents() - balance)).append('\n');
+        out.append(SEPARATOR);
+        out.append("Invoice generated at ").append(generatedAt);
+
+        event.commit(card.getNumber(), purchaseCount, out.length() - start);
+        return out;
+    }
+
+    private String formatDate(long epochMillis) {
+        if (epochMillis < cachedDayStart || epochMillis >= cachedDayEnd) {
+            Instant dayStart = Instant.ofEpochMilli(epochMillis).atZone(ZONE)
+                    .truncatedTo(ChronoUnit.DAYS).toInstant();
+            cachedDayStart = dayStart.toEpochMilli();
+            cachedDayEnd = dayStart.atZone(ZONE).plusDays(1).toInstant().toEpochMilli();
+            cachedDate = DATE_FORMAT.format(dayStart);
+        }
+        return cachedDate;
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Helper methods to convert monetary values between their public representation
+ * (a double value in dollars) and the fixed-point representation used internally
+ * by the model classes (a long value in cents).
+ *
+ * Keeping money as a whole number of cents allows balances to be stored in a single
+ * long field, which can be atomically updated with a compare-and-set operation and
+ * does not accumulate rounding errors over many operations.
+ *
+ * @author Bruno Toffolo
+ */
+public final class Money {
+
+    /** Number of cents in a single dollar. */
+    public static final long CENTS_PER_UNIT = 100L;
+
+    private Money() {
+    }
+
+    /**
+     * Converts a value in dollars to cents, rounding it to the nearest cent.
+     *
+     * @param value Value in dollars
+     * @return Value in cents
+     */
+    public static long toCents(double value) {
+        return Math.round(value * CENTS_PER_UNIT);
+    }
+
+    /**
+     * Converts a value in cents to dollars.
+     *
+     * @param cents Value in cents
+     * @return Value in dollars
+     */
+    public static double toDouble(long cents) {
+        return (double) cents / CENTS_PER_UNIT;
+    }
+
+    /**
+     * Sums a range of values in cents, for instance to total a purchase history.
+     *
+     * Unlike a sum of doubles, which must be added one after the other to keep the same
+     * rounding, a sum of longs can be reordered freely. This simple loop is compiled by
+     * the JIT into vector instructions that add several values at once, and the result
+     * is exact with no rounding to redo.
+     *
+     * @param cents Values in cents
+     * @param from Index of the first value
+     * @param to Index after the last value
+     * @return Sum of the values, in cents
+     */
+    public static long sum(long[] cents, int from, int to) {
+        long total = 0;
+        for (int i = from; i < to; i++) {
+            total += cents[i];
+        }
+        return total;
+    }
+
+    /**
+     * Appends a value in cents to a StringBuilder, formatted with two decimal places
+     * (for instance, 250050 is appended as "2500.50"). Unlike concatenating a double,
+     * this does not create any intermediate String.
+     *
+     * @param cents Value in cents
+     * @param builder Builder the value should be appended to
+     * @return The given builder
+     */
+    public static StringBuilder append(long cents, StringBuilder builder) {
+        if (cents < 0) {
+            builder.append('-');
+            // Long.MIN_VALUE has no positive counterpart, so split it before negating
+            builder.append(-(cents / CENTS_PER_UNIT));
+            cents = -(cents % CENTS_PER_UNIT);
+        } else {
+            builder.append(cents / CENTS_PER_UNIT);
+            cents = cents % CENTS_PER_UNIT;
+        }
+
+        builder.append('.');
+        if (cents < 10) {
+            builder.append('0');
+        }
+        return builder.append(cents);
+    }
+
+}
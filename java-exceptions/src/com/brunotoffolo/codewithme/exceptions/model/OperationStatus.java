@@ -0,0 +1,48 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Result codes returned by the non-throwing operations of the model, such as
+ * {@link Account#tryWithdraw(double)} and {@link CreditCard#tryAddPurchase(double, String)}.
+ *
+ * The codes are plain int constants instead of an enum or a result object, so checking
+ * the outcome of an operation does not require any allocation.
+ *
+ * @author Bruno Toffolo
+ */
+public final class OperationStatus {
+
+    /** The operation was performed successfully. */
+    public static final int APPROVED = 0;
+
+    /** The operation was declined because there were not enough funds or limit available. */
+    public static final int INSUFFICIENT_FUNDS = 1;
+
+    /** The operation was not performed because its account does not exist. */
+    public static final int ACCOUNT_NOT_FOUND = 2;
+
+    /** The operation was not performed because its credit card does not exist. */
+    public static final int CARD_NOT_FOUND = 3;
+
+    /** The purchase was declined because the credit card is blocked. */
+    public static final int CARD_BLOCKED = 4;
+
+    /** The purchase was declined because the credit card is expired. */
+    public static final int CARD_EXPIRED = 5;
+
+    /** The purchase was declined because the credit card exceeded its velocity limits. */
+    public static final int VELOCITY_LIMIT_EXCEEDED = 6;
+
+    private OperationStatus() {
+    }
+
+    /**
+     * Checks whether a status code means the operation was performed.
+     *
+     * @param status Status code returned by an operation
+     * @return true if the operation was approved; false otherwise
+     */
+    public static boolean isApproved(int status) {
+        return status == APPROVED;
+    }
+
+}
@@ -14,20 +14,38 @@ import java.util.GregorianCalendar;
 public class Purchase {
 
     private final Calendar date;
-    private final double amount;
+    // Kept in cents, like every other amount in the model
+    private final long amountCents;
     private String description;
 
     public Purchase(double amount, String description) {
+        this(Money.toCents(amount), description);
+    }
+
+    private Purchase(long amountCents, String description) {
         // Check if purchase amount is valid
-        if (amount < 0) {
+        if (amountCents < 0) {
             throw new IllegalArgumentException("Purchase amount should be higher than zero");
         }
 
-        this.amount = amount;
+        this.amountCents = amountCents;
         this.date = new GregorianCalendar();
         this.setDescription(description);
     }
 
+    /**
+     * Creates a purchase that happened at a given time. Used to rebuild purchase objects
+     * from the records stored in a {@link PurchaseLedger}.
+     *
+     * @param epochMillis Time of the purchase, in milliseconds since the epoch
+     * @param amountCents Amount of the purchase, in cents
+     * @param description Description of the purchase
+     */
+    public Purchase(long epochMillis, long amountCents, String description) {
+        this(amountCents, description);
+        this.date.setTimeInMillis(epochMillis);
+    }
+
     /**
      * Gets the purchase date.
      * @return purchase date
@@ -41,7 +59,15 @@ public class Purchase {
      * @return purchase amount
      */
     public double getAmount() {
-        return amount;
+        return Money.toDouble(amountCents);
+    }
+
+    /**
+     * Gets the purchase amount in cents.
+     * @return purchase amount, in cents
+     */
+    public long getAmountCents() {
+        return amountCents;
     }
 
     /**
@@ -0,0 +1,296 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Purchase history of a credit card, stored in a columnar layout.
+ *
+ * Instead of keeping one {@link Purchase} object per purchase (each with its own object
+ * header, GregorianCalendar and String), the ledger stores every attribute in its own
+ * primitive array: the purchase time as epoch milliseconds, the amount in cents and the
+ * description as an identifier from the {@link DescriptionDictionary}. That is 20 bytes
+ * per purchase, with no extra objects for the garbage collector to trace.
+ *
+ * The arrays grow in fixed-size chunks, so adding purchases to a long history never
+ * copies it. Only the first chunk starts small and doubles until it reaches the chunk
+ * size, so cards with a handful of purchases do not pay for a full chunk. Purchases are
+ * appended by one thread at a time, but can be read by any number of threads without
+ * locking: readers only look at entries below the published size.
+ *
+ * Every appended purchase is also added to the {@link SpendingAggregates} of the ledger,
+ * so totals per day, month and description never need a scan of the history.
+ *
+ * @author Bruno Toffolo
+ */
+public class PurchaseLedger implements Iterable<Purchase> {
+
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final DescriptionDictionary dictionary;
+    private final SpendingAggregates aggregates;
+
+    // Chunk directories. A published chunk is never replaced inside a directory: when
+    // the first chunk grows, or the directory itself, the appending thread builds a new
+    // directory and publishes it through these volatile fields, so readers never see a
+    // copied chunk without its contents. New chunks are stored in the current directory
+    // before the size is published, so any reader that reads the size first sees every
+    // chunk below that size.
+    private volatile long[][] timestamps = new long[1][];
+    private volatile long[][] amounts = new long[1][];
+    private volatile int[][] descriptions = new int[1][];
+
+    private volatile int size;
+
+    /**
+     * Creates an empty ledger that uses the shared description dictionary.
+     */
+    public PurchaseLedger() {
+        this(DescriptionDictionary.shared());
+    }
+
+    /**
+     * Creates an empty ledger that uses the given description dictionary.
+     *
+     * @param dictionary Dictionary used to store descriptions
+     */
+    public PurchaseLedger(DescriptionDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.aggregates = new SpendingAggregates(dictionary);
+    }
+
+    /**
+     * Appends a purchase to the ledger.
+     *
+     * @param epochMillis Time of the purchase, in milliseconds since the epoch
+     * @param amountCents Amount of the purchase, in cents
+     * @param description Description of the purchase
+     * @return Index of the purchase in the ledger
+     */
+    public synchronized int append(long epochMillis, long amountCents, String description) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        int offset = index & CHUNK_MASK;
+
+        if (offset == 0) {
+            addChunk(chunk);
+        } else if (chunk == 0 && offset == timestamps[0].length) {
+            growFirstChunk();
+        }
+
+        int descriptionId = dictionary.idOf(description);
+        timestamps[chunk][offset] = epochMillis;
+        amounts[chunk][offset] = amountCents;
+        descriptions[chunk][offset] = descriptionId;
+
+        aggregates.add(epochMillis, amountCents, descriptionId);
+        size = index + 1;
+        return index;
+    }
+
+    private void addChunk(int chunk) {
+        int length = chunk == 0 ? INITIAL_CAPACITY : CHUNK_SIZE;
+        if (chunk == timestamps.length) {
+            // The new directories are filled before being published
+            int capacity = chunk * 2;
+            long[][] newTimestamps = Arrays.copyOf(timestamps, capacity);
+            long[][] newAmounts = Arrays.copyOf(amounts, capacity);
+            int[][] newDescriptions = Arrays.copyOf(descriptions, capacity);
+            newTimestamps[chunk] = new long[length];
+            newAmounts[chunk] = new long[length];
+            newDescriptions[chunk] = new int[length];
+            timestamps = newTimestamps;
+            amounts = newAmounts;
+            descriptions = newDescriptions;
+        } else {
+            timestamps[chunk] = new long[length];
+            amounts[chunk] = new long[length];
+            descriptions[chunk] = new int[length];
+        }
+    }
+
+    private void growFirstChunk() {
+        // Readers may still be using the old directories and arrays, but the copies
+        // contain the same values for every published index, so either one gives the
+        // right answer. The copies are only reachable through new directories, published
+        // once they are complete.
+        long[][] newTimestamps = timestamps.clone();
+        long[][] newAmounts = amounts.clone();
+        int[][] newDescriptions = descriptions.clone();
+        int length = Math.min(newTimestamps[0].length * 2, CHUNK_SIZE);
+        newTimestamps[0] = Arrays.copyOf(newTimestamps[0], length);
+        newAmounts[0] = Arrays.copyOf(newAmounts[0], length);
+        newDescriptions[0] = Arrays.copyOf(newDescriptions[0], length);
+        timestamps = newTimestamps;
+        amounts = newAmounts;
+        descriptions = newDescriptions;
+    }
+
+    /**
+     * Gets the number of purchases in the ledger.
+     *
+     * @return Number of purchases
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the time of a purchase.
+     *
+     * @param index Index of the purchase
+     * @return Purchase time, in milliseconds since the epoch
+     */
+    public long timestampAt(int index) {
+        checkIndex(index);
+        return timestamps[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the amount of a purchase.
+     *
+     * @param index Index of the purchase
+     * @return Purchase amount, in cents
+     */
+    public long amountCentsAt(int index) {
+        checkIndex(index);
+        return amounts[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Sums the amounts of a range of purchases, reading the amount arrays directly, one
+     * chunk at a time.
+     *
+     * @param from Index of the first purchase
+     * @param to Index after the last purchase
+     * @return Sum of the amounts, in cents
+     */
+    public long sumAmountCents(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of bounds for ledger size "
+                    + size);
+        }
+
+        long[][] chunks = amounts;
+        long total = 0;
+        while (from < to) {
+            int chunk = from >>> CHUNK_SHIFT;
+            int offset = from & CHUNK_MASK;
+            int length = Math.min(to - from, CHUNK_SIZE - offset);
+            total += Money.sum(chunks[chunk], offset, offset + length);
+            from += length;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the description identifier of a purchase.
+     *
+     * @param index Index of the purchase
+     * @return Description identifier in the ledger's dictionary
+     */
+    public int descriptionIdAt(int index) {
+        checkIndex(index);
+        return descriptions[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the description of a purchase.
+     *
+     * @param index Index of the purchase
+     * @return Purchase description
+     */
+    public String descriptionAt(int index) {
+        return dictionary.descriptionOf(descriptionIdAt(index));
+    }
+
+    /**
+     * Gets a purchase as a {@link Purchase} object. A new object is created on every
+     * call, so prefer the primitive accessors when reading many purchases.
+     *
+     * @param index Index of the purchase
+     * @return Purchase
+     */
+    public Purchase get(int index) {
+        return new Purchase(timestampAt(index), amountCentsAt(index), descriptionAt(index));
+    }
+
+    /**
+     * Iterates over the purchases that were in the ledger when the iteration started.
+     *
+     * @return Purchase iterator
+     */
+    @Override
+    public Iterator<Purchase> iterator() {
+        final int end = size;
+        return new Iterator<Purchase>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Purchase next() {
+                if (next >= end) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    /**
+     * Gets the dictionary used to store descriptions.
+     *
+     * @return Description dictionary
+     */
+    public DescriptionDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Gets the running totals of the purchases in the ledger.
+     *
+     * @return Spending aggregates
+     */
+    public SpendingAggregates getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Estimates the number of heap bytes used by this ledger, not counting the shared
+     * description dictionary. Assumes a 64-bit JVM with compressed references.
+     *
+     * @return Estimated size in bytes
+     */
+    public long footprintBytes() {
+        int chunks = (size + CHUNK_MASK) >>> CHUNK_SHIFT;
+        long[][] directory = timestamps;
+        long directories = 3L * arrayBytes(directory.length, 4);
+        long chunkBytes = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int length = directory[chunk].length;
+            chunkBytes += 2L * arrayBytes(length, 8) + arrayBytes(length, 4);
+        }
+        // Object header plus the fields of the ledger itself
+        return 32 + directories + chunkBytes + aggregates.footprintBytes();
+    }
+
+    private static long arrayBytes(int length, int elementSize) {
+        // 16 bytes of array header, rounded up to the 8-byte object alignment
+        return (16L + (long) length * elementSize + 7) & ~7L;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for ledger size " + size);
+        }
+    }
+
+}
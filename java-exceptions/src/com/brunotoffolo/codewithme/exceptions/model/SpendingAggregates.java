@@ -0,0 +1,265 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * Running totals of the purchases of a credit card, per day, per billing cycle (a
+ * calendar month) and per description, kept up to date as purchases are appended to the
+ * {@link PurchaseLedger}.
+ *
+ * Questions such as "how much did this card spend this month" are answered with a
+ * binary search over a few primitive arrays, instead of reading the whole purchase
+ * history again. Each kind of total is kept in sorted parallel arrays (key, total in
+ * cents, number of purchases), one entry per day, month or description that has at
+ * least one purchase. Purchases usually arrive in time order, so new days and months
+ * are simply added at the end of the arrays.
+ *
+ * Days and months are taken in the default time zone, the same used to print the dates
+ * of the invoice. Totals are updated and read under the lock of this object, so a query
+ * never sees a purchase counted in one total and missing from another.
+ *
+ * @author Bruno Toffolo
+ */
+public class SpendingAggregates {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final DescriptionDictionary dictionary;
+
+    private final Buckets days = new Buckets();
+    private final Buckets months = new Buckets();
+    private final Buckets categories = new Buckets();
+    private long totalCents;
+    private int purchaseCount;
+
+    // Purchases of the same card are usually grouped in a few days, so the day and month
+    // of the last purchase are reused while the next ones fall in the same day.
+    private long cachedDayStart = Long.MAX_VALUE;
+    private long cachedDayEnd = Long.MIN_VALUE;
+    private int cachedDay;
+    private int cachedMonth;
+
+    SpendingAggregates(DescriptionDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Adds a purchase to the totals. Called by the ledger whenever a purchase is appended.
+     *
+     * @param epochMillis Time of the purchase, in milliseconds since the epoch
+     * @param amountCents Amount of the purchase, in cents
+     * @param descriptionId Identifier of the purchase description
+     */
+    synchronized void add(long epochMillis, long amountCents, int descriptionId) {
+        if (epochMillis < cachedDayStart || epochMillis >= cachedDayEnd) {
+            LocalDate day = Instant.ofEpochMilli(epochMillis).atZone(ZONE).toLocalDate();
+            cachedDayStart = day.atStartOfDay(ZONE).toInstant().toEpochMilli();
+            cachedDayEnd = day.plusDays(1).atStartOfDay(ZONE).toInstant().toEpochMilli();
+            cachedDay = dayKey(day);
+            cachedMonth = monthKey(YearMonth.from(day));
+        }
+
+        days.add(cachedDay, amountCents);
+        months.add(cachedMonth, amountCents);
+        categories.add(descriptionId, amountCents);
+        totalCents += amountCents;
+        purchaseCount++;
+    }
+
+    /**
+     * Gets the sum of all purchases.
+     *
+     * @return Total amount, in cents
+     */
+    public synchronized long getTotalCents() {
+        return totalCents;
+    }
+
+    /**
+     * Gets the number of purchases.
+     *
+     * @return Number of purchases
+     */
+    public synchronized int getPurchaseCount() {
+        return purchaseCount;
+    }
+
+    /**
+     * Gets the sum of the purchases made in a day.
+     *
+     * @param day Day of the purchases
+     * @return Total amount, in cents
+     */
+    public synchronized long getDailyTotalCents(LocalDate day) {
+        return days.totalOf(dayKey(day));
+    }
+
+    /**
+     * Gets the number of purchases made in a day.
+     *
+     * @param day Day of the purchases
+     * @return Number of purchases
+     */
+    public synchronized int getDailyPurchaseCount(LocalDate day) {
+        return days.countOf(dayKey(day));
+    }
+
+    /**
+     * Gets the sum of the purchases made in a range of days, such as the last 30 days.
+     *
+     * @param from First day of the range
+     * @param to Last day of the range (inclusive)
+     * @return Total amount, in cents
+     */
+    public synchronized long getTotalCentsBetween(LocalDate from, LocalDate to) {
+        return days.totalBetween(dayKey(from), dayKey(to));
+    }
+
+    /**
+     * Gets the sum of the purchases made in a billing cycle.
+     *
+     * @param month Month of the billing cycle
+     * @return Total amount, in cents
+     */
+    public synchronized long getMonthlyTotalCents(YearMonth month) {
+        return months.totalOf(monthKey(month));
+    }
+
+    /**
+     * Gets the number of purchases made in a billing cycle.
+     *
+     * @param month Month of the billing cycle
+     * @return Number of purchases
+     */
+    public synchronized int getMonthlyPurchaseCount(YearMonth month) {
+        return months.countOf(monthKey(month));
+    }
+
+    /**
+     * Gets the sum of the purchases with a given description.
+     *
+     * @param description Purchase description
+     * @return Total amount, in cents
+     */
+    public synchronized long getCategoryTotalCents(String description) {
+        int id = dictionary.find(description);
+        return id == DescriptionDictionary.NOT_REGISTERED ? 0 : categories.totalOf(id);
+    }
+
+    /**
+     * Gets the number of purchases with a given description.
+     *
+     * @param description Purchase description
+     * @return Number of purchases
+     */
+    public synchronized int getCategoryPurchaseCount(String description) {
+        int id = dictionary.find(description);
+        return id == DescriptionDictionary.NOT_REGISTERED ? 0 : categories.countOf(id);
+    }
+
+    /**
+     * Estimates the number of heap bytes used by these totals. Assumes a 64-bit JVM with
+     * compressed references.
+     *
+     * @return Estimated size in bytes
+     */
+    public synchronized long footprintBytes() {
+        // Object header plus the fields of the aggregates themselves
+        return 56 + days.footprintBytes() + months.footprintBytes() + categories.footprintBytes();
+    }
+
+    private static int dayKey(LocalDate day) {
+        return (int) day.toEpochDay();
+    }
+
+    private static int monthKey(YearMonth month) {
+        return month.getYear() * 12 + month.getMonthValue() - 1;
+    }
+
+    /**
+     * Totals and purchase counts sorted by an int key (a day, a month or a description).
+     */
+    private static final class Buckets {
+        private int[] keys = new int[4];
+        private long[] totals = new long[4];
+        private int[] counts = new int[4];
+        private int size;
+
+        void add(int key, long amountCents) {
+            int index;
+            if (size > 0 && keys[size - 1] == key) {
+                index = size - 1;
+            } else if (size == 0 || keys[size - 1] < key) {
+                index = insert(size, key);
+            } else {
+                index = Arrays.binarySearch(keys, 0, size, key);
+                if (index < 0) {
+                    index = insert(-index - 1, key);
+                }
+            }
+
+            totals[index] += amountCents;
+            counts[index]++;
+        }
+
+        private int insert(int index, int key) {
+            if (size == keys.length) {
+                int capacity = size * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                totals = Arrays.copyOf(totals, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+
+            int moved = size - index;
+            if (moved > 0) {
+                System.arraycopy(keys, index, keys, index + 1, moved);
+                System.arraycopy(totals, index, totals, index + 1, moved);
+                System.arraycopy(counts, index, counts, index + 1, moved);
+            }
+            keys[index] = key;
+            totals[index] = 0;
+            counts[index] = 0;
+            size++;
+            return index;
+        }
+
+        long totalOf(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            return index < 0 ? 0 : totals[index];
+        }
+
+        int countOf(int key) {
+            int index = Arrays.binarySearch(keys, 0, size, key);
+            return index < 0 ? 0 : counts[index];
+        }
+
+        long totalBetween(int fromKey, int toKey) {
+            int index = Arrays.binarySearch(keys, 0, size, fromKey);
+            if (index < 0) {
+                index = -index - 1;
+            }
+
+            long total = 0;
+            for (; index < size && keys[index] <= toKey; index++) {
+                total += totals[index];
+            }
+            return total;
+        }
+
+        long footprintBytes() {
+            // Object header and fields, plus the three arrays
+            int length = keys.length;
+            return 32 + 2 * arrayBytes(length, 4) + arrayBytes(length, 8);
+        }
+
+        private static long arrayBytes(int length, int elementSize) {
+            // 16 bytes of array header, rounded up to the 8-byte object alignment
+            return (16L + (long) length * elementSize + 7) & ~7L;
+        }
+    }
+
+}
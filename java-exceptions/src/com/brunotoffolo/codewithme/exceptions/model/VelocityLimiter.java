@@ -0,0 +1,141 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+import java.util.Arrays;
+
+/**
+ * Sliding-window counters of the purchases of a credit card, checked against its
+ * {@link VelocityLimits} before each purchase is charged.
+ *
+ * Each window is split in buckets (10 seconds for the minute, 1 minute for the hour)
+ * stored in primitive arrays used as rings, and the window keeps the running totals of
+ * its buckets. When time moves to a new bucket, only the buckets that left the window are
+ * subtracted, so a check costs a few array accesses and never allocates. A window keeps
+ * one bucket more than its length (7 buckets for the minute, 61 for the hour), so it
+ * always covers at least the whole minute or hour: the window slides one bucket at a
+ * time, and purchases leave it up to one bucket later than they would with an exact
+ * sliding window, which errs on the side of declining.
+ *
+ * Checks and updates of a card are made under the lock of its limiter, so concurrent
+ * purchases on the same card can never exceed the limits together. Purchases on
+ * different cards use different limiters and do not contend.
+ *
+ * @author Bruno Toffolo
+ */
+final class VelocityLimiter {
+
+    private final VelocityLimits limits;
+    private final Window minute = new Window(6 + 1, 10_000L);
+    private final Window hour = new Window(60 + 1, 60_000L);
+
+    VelocityLimiter(VelocityLimits limits) {
+        this.limits = limits;
+    }
+
+    VelocityLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Counts a purchase in both windows, unless it would exceed any of the limits.
+     *
+     * @param nowMillis Current time, in milliseconds since the epoch
+     * @param amountCents Amount of the purchase, in cents
+     * @return true if the purchase is within the limits and was counted; false otherwise
+     */
+    synchronized boolean tryAcquire(long nowMillis, long amountCents) {
+        minute.advance(nowMillis);
+        hour.advance(nowMillis);
+
+        if (exceeds(minute.count + 1, limits.getMaxPurchasesPerMinute())
+                || exceeds(minute.amountCents + amountCents, limits.getMaxAmountPerMinuteCents())
+                || exceeds(hour.count + 1, limits.getMaxPurchasesPerHour())
+                || exceeds(hour.amountCents + amountCents, limits.getMaxAmountPerHourCents())) {
+            return false;
+        }
+
+        minute.add(1, amountCents);
+        hour.add(1, amountCents);
+        return true;
+    }
+
+    /**
+     * Removes a purchase counted by {@link #tryAcquire(long, long)}, when it was declined
+     * afterwards for another reason (such as an insufficient card limit).
+     *
+     * @param acquiredMillis Time given to {@link #tryAcquire(long, long)}
+     * @param amountCents Amount of the purchase, in cents
+     */
+    synchronized void release(long acquiredMillis, long amountCents) {
+        minute.remove(acquiredMillis, amountCents);
+        hour.remove(acquiredMillis, amountCents);
+    }
+
+    private static boolean exceeds(long value, long limit) {
+        return limit > 0 && value > limit;
+    }
+
+    /**
+     * Ring of buckets covering a sliding window, with the totals of all its buckets.
+     */
+    private static final class Window {
+        private final long bucketMillis;
+        private final int[] counts;
+        private final long[] amounts;
+        private long currentBucket = Long.MIN_VALUE;
+        int count;
+        long amountCents;
+
+        Window(int buckets, long bucketMillis) {
+            this.bucketMillis = bucketMillis;
+            this.counts = new int[buckets];
+            this.amounts = new long[buckets];
+        }
+
+        void advance(long nowMillis) {
+            long bucket = Math.floorDiv(nowMillis, bucketMillis);
+            if (bucket <= currentBucket) {
+                return;
+            }
+
+            int buckets = counts.length;
+            if (currentBucket == Long.MIN_VALUE || bucket - currentBucket >= buckets) {
+                // The whole window expired
+                Arrays.fill(counts, 0);
+                Arrays.fill(amounts, 0L);
+                count = 0;
+                amountCents = 0;
+            } else {
+                for (long expired = currentBucket + 1; expired <= bucket; expired++) {
+                    int index = (int) Math.floorMod(expired, (long) buckets);
+                    count -= counts[index];
+                    amountCents -= amounts[index];
+                    counts[index] = 0;
+                    amounts[index] = 0;
+                }
+            }
+            currentBucket = bucket;
+        }
+
+        void add(int purchases, long amount) {
+            int index = (int) Math.floorMod(currentBucket, (long) counts.length);
+            counts[index] += purchases;
+            amounts[index] += amount;
+            count += purchases;
+            amountCents += amount;
+        }
+
+        void remove(long acquiredMillis, long amount) {
+            long bucket = Math.floorDiv(acquiredMillis, bucketMillis);
+            if (bucket > currentBucket || currentBucket - bucket >= counts.length) {
+                // Already out of the window
+                return;
+            }
+            int index = (int) Math.floorMod(bucket, (long) counts.length);
+            counts[index]--;
+            amounts[index] -= amount;
+            count--;
+            amountCents -= amount;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Maximum number of purchases and maximum amount a credit card may spend in a sliding
+ * minute and in a sliding hour, used to stop a stolen card before it is maxed out.
+ *
+ * A limit of zero (or less) disables that check.
+ *
+ * @author Bruno Toffolo
+ */
+public final class VelocityLimits {
+
+    private final int maxPurchasesPerMinute;
+    private final long maxAmountPerMinuteCents;
+    private final int maxPurchasesPerHour;
+    private final long maxAmountPerHourCents;
+
+    /**
+     * Creates a set of limits.
+     *
+     * @param maxPurchasesPerMinute Maximum number of purchases in any minute
+     * @param maxAmountPerMinuteCents Maximum amount spent in any minute, in cents
+     * @param maxPurchasesPerHour Maximum number of purchases in any hour
+     * @param maxAmountPerHourCents Maximum amount spent in any hour, in cents
+     */
+    public VelocityLimits(int maxPurchasesPerMinute, long maxAmountPerMinuteCents, int maxPurchasesPerHour,
+                          long maxAmountPerHourCents) {
+        this.maxPurchasesPerMinute = maxPurchasesPerMinute;
+        this.maxAmountPerMinuteCents = maxAmountPerMinuteCents;
+        this.maxPurchasesPerHour = maxPurchasesPerHour;
+        this.maxAmountPerHourCents = maxAmountPerHourCents;
+    }
+
+    /**
+     * Gets the maximum number of purchases in any minute.
+     *
+     * @return Maximum number of purchases, or zero for no limit
+     */
+    public int getMaxPurchasesPerMinute() {
+        return maxPurchasesPerMinute;
+    }
+
+    /**
+     * Gets the maximum amount spent in any minute.
+     *
+     * @return Maximum amount in cents, or zero for no limit
+     */
+    public long getMaxAmountPerMinuteCents() {
+        return maxAmountPerMinuteCents;
+    }
+
+    /**
+     * Gets the maximum number of purchases in any hour.
+     *
+     * @return Maximum number of purchases, or zero for no limit
+     */
+    public int getMaxPurchasesPerHour() {
+        return maxPurchasesPerHour;
+    }
+
+    /**
+     * Gets the maximum amount spent in any hour.
+     *
+     * @return Maximum amount in cents, or zero for no limit
+     */
+    public long getMaxAmountPerHourCents() {
+        return maxAmountPerHourCents;
+    }
+
+}
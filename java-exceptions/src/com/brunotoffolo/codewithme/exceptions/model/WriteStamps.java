@@ -0,0 +1,60 @@
+package com.brunotoffolo.codewithme.exceptions.model;
+
+/**
+ * Write stamps let readers see several values of an account and its cards as they were
+ * at a single moment, without ever blocking the writers.
+ *
+ * Every object has a stamp, which its writers change twice: they add {@link #STARTED}
+ * before changing a value and {@link #FINISHED} once done. The lower bits count the
+ * writes in progress and the upper bits the finished ones, so the stamp is stable when
+ * no write is in progress, and is different after any write started or finished. A
+ * reader reads the stamps of every object it is interested in, then their values, then
+ * the stamps again: if every stamp was stable and is still the same, no value changed
+ * while it was reading, and the values read are those of a single moment. Otherwise, it
+ * simply reads them all again. Unlike a lock, a slow or stopped reader never holds a
+ * writer back; writers only pay for two atomic additions on a stamp of their own.
+ *
+ * @author Bruno Toffolo
+ */
+final class WriteStamps {
+
+    /** Added to the stamp before a write. */
+    static final long STARTED = 1L;
+
+    /** Added to the stamp after a write, which also takes back its {@link #STARTED}. */
+    static final long FINISHED = (1L << 16) - 1;
+
+    private static final long IN_PROGRESS_MASK = (1L << 16) - 1;
+
+    /** Number of failed reads before a reader starts yielding its processor to writers. */
+    private static final int SPINS = 100;
+
+    private WriteStamps() {
+    }
+
+    /**
+     * Checks whether no write was in progress when the stamp was read.
+     *
+     * @param stamp Stamp read
+     * @return true if the values can be read; false otherwise
+     */
+    static boolean isStable(long stamp) {
+        return (stamp & IN_PROGRESS_MASK) == 0;
+    }
+
+    /**
+     * Waits a little before a reader tries again. A writer in the middle of a write may
+     * have been interrupted by the scheduler, so after a few attempts the reader gives it
+     * the processor to finish.
+     *
+     * @param attempt Number of failed reads so far
+     */
+    static void backOff(int attempt) {
+        if (attempt < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+}
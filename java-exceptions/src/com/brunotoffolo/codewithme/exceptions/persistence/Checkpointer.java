@@ -0,0 +1,163 @@
+package com.brunotoffolo.codewithme.exceptions.persistence;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Takes periodic snapshots of the accounts and credit cards recorded in a
+ * {@link WriteAheadLog}, and deletes the log segments they make obsolete.
+ *
+ * Copying the live accounts while other threads keep changing them would produce a
+ * snapshot where some operations are only partially visible. Instead, the checkpointer
+ * keeps its own copy of the state, which no other thread touches, and brings it up to
+ * date by replaying the log records synced since the previous checkpoint. That copy is
+ * always exactly the state at a given log position, so it can be written to a
+ * {@link Snapshot} without stopping the application.
+ *
+ * The price is a second copy of the model in memory, built by the checkpointer thread
+ * instead of the threads performing the operations.
+ *
+ * @author Bruno Toffolo
+ */
+public class Checkpointer implements AutoCloseable {
+
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final ModelState state;
+
+    private final Thread thread;
+    private final long intervalMillis;
+    private volatile boolean running = true;
+    private volatile long snapshotLsn;
+
+    /**
+     * Creates a checkpointer that is only run on demand, through {@link #checkpoint()}.
+     *
+     * @param directory Log directory
+     * @param log Log being written to the directory
+     * @throws IOException If the newest snapshot could not be loaded
+     */
+    public Checkpointer(Path directory, WriteAheadLog log) throws IOException {
+        this(directory, log, 0);
+    }
+
+    /**
+     * Creates a checkpointer. If an interval is given, a background thread takes a
+     * snapshot and deletes the obsolete files at that interval.
+     *
+     * @param directory Log directory
+     * @param log Log being written to the directory
+     * @param intervalMillis Time between snapshots, or 0 to only take them on demand
+     * @throws IOException If the newest snapshot could not be loaded
+     */
+    public Checkpointer(Path directory, WriteAheadLog log, long intervalMillis) throws IOException {
+        this.directory = directory;
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+        this.state = Snapshot.loadLatest(directory);
+        this.snapshotLsn = state.getLsn();
+
+        if (intervalMillis > 0) {
+            thread = new Thread(this::checkpointLoop, "checkpointer");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            thread = null;
+        }
+    }
+
+    /**
+     * Brings the checkpointer's copy of the state up to date with the synced part of the
+     * log and writes it to a new snapshot. Nothing is written if no record was synced
+     * since the previous snapshot.
+     *
+     * @return Log position of the newest snapshot
+     * @throws IOException If the log could not be read or the snapshot could not be written
+     */
+    public synchronized long checkpoint() throws IOException {
+        LogReader.replay(directory, state, log.getDurableLsn());
+        if (state.getLsn() > snapshotLsn) {
+            Snapshot.write(directory, state);
+            snapshotLsn = state.getLsn();
+        }
+        return snapshotLsn;
+    }
+
+    /**
+     * Deletes the snapshots older than the newest one, and the log segments holding only
+     * records that the newest snapshot already includes.
+     *
+     * @return Number of deleted files
+     * @throws IOException If a file could not be deleted
+     */
+    public synchronized int deleteObsoleteFiles() throws IOException {
+        int deleted = 0;
+        for (long lsn : Snapshot.listSnapshots(directory)) {
+            if (lsn < snapshotLsn && Files.deleteIfExists(Snapshot.snapshotPath(directory, lsn))) {
+                deleted++;
+            }
+        }
+
+        // A segment is obsolete when the next one starts before the snapshot position
+        List<Long> segments = LogReader.listSegments(directory);
+        for (int i = 0; i + 1 < segments.size() && segments.get(i + 1) <= snapshotLsn; i++) {
+            if (Files.deleteIfExists(LogReader.segmentPath(directory, segments.get(i)))) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Gets the log position of the newest snapshot.
+     *
+     * @return Snapshot log sequence number
+     */
+    public long getSnapshotLsn() {
+        return snapshotLsn;
+    }
+
+    /**
+     * Stops the background thread, if there is one. A snapshot being written is finished
+     * first.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (thread != null) {
+            // Interrupting the thread would close the snapshot file being written
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkpointLoop() {
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        while (running) {
+            long deadline = System.nanoTime() + intervalNanos;
+            long remaining;
+            while (running && (remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            if (!running) {
+                break;
+            }
+
+            try {
+                checkpoint();
+                deleteObsoleteFiles();
+            } catch (IOException e) {
+                System.err.println("Error while taking a snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.brunotoffolo.codewithme.exceptions.persistence;
+
+/**
+ * How long an operation waits for its record to be safely stored by the
+ * {@link WriteAheadLog} before returning to the caller.
+ *
+ * @author Bruno Toffolo
+ */
+public enum Durability {
+
+    /**
+     * The operation returns as soon as its record is buffered in memory. A background
+     * thread writes and syncs the buffered records to disk periodically, so a crash may
+     * lose the operations performed in the last sync interval.
+     */
+    ASYNC,
+
+    /**
+     * The operation waits until its record is synced to disk, but records of operations
+     * performed concurrently are written and synced together (group commit), so many
+     * operations share the cost of a single sync.
+     */
+    GROUP,
+
+    /**
+     * Every operation writes and syncs its own record before its change is applied. This
+     * is the slowest level, as operations are serialized and each one pays for a full
+     * sync.
+     */
+    SYNC
+
+}
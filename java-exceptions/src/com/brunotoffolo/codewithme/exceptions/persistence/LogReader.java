@@ -0,0 +1,182 @@
+package com.brunotoffolo.codewithme.exceptions.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads the segments of a {@link WriteAheadLog} and applies their records to a
+ * {@link ModelState}.
+ *
+ * Segments are memory-mapped and read sequentially. Reading stops at the first record
+ * that is incomplete or fails its checksum, which is where the log was being written
+ * when the application stopped.
+ *
+ * Recovery starts from the newest {@link Snapshot} in the log directory, if any, so
+ * only the records written after the snapshot need to be replayed.
+ *
+ * @author Bruno Toffolo
+ */
+public final class LogReader {
+
+    static final String SEGMENT_SUFFIX = ".wal";
+
+    private LogReader() {
+    }
+
+    /**
+     * Rebuilds the state stored in a log directory by loading its newest snapshot and
+     * replaying every record written after it.
+     *
+     * @param directory Log directory
+     * @return Rebuilt state
+     * @throws IOException If the log or the snapshot could not be read
+     */
+    public static ModelState recover(Path directory) throws IOException {
+        ModelState state = Snapshot.loadLatest(directory);
+        replay(directory, state);
+        return state;
+    }
+
+    /**
+     * Applies to a state every record stored after the state's log position, and moves
+     * the state's position to the end of the log.
+     *
+     * @param directory Log directory
+     * @param state State the records are applied to
+     * @throws IOException If the log could not be read
+     */
+    public static void replay(Path directory, ModelState state) throws IOException {
+        replay(directory, state, Long.MAX_VALUE);
+    }
+
+    /**
+     * Applies to a state the records stored between the state's log position and a given
+     * end position. Used to read a log that is still being written, stopping at a
+     * position known to be complete.
+     *
+     * @param directory Log directory
+     * @param state State the records are applied to
+     * @param endLsn Position after which records are not applied
+     * @throws IOException If the log could not be read
+     */
+    public static void replay(Path directory, ModelState state, long endLsn) throws IOException {
+        List<Long> segments = listSegments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            long base = segments.get(i);
+            long next = i + 1 < segments.size() ? segments.get(i + 1) : Long.MAX_VALUE;
+            if (next <= state.getLsn()) {
+                // The whole segment is older than the state
+                continue;
+            }
+            if (base >= endLsn) {
+                break;
+            }
+
+            try (FileChannel channel = FileChannel.open(segmentPath(directory, base), StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        Math.min(channel.size(), endLsn - base));
+                buffer.position((int) Math.max(0, state.getLsn() - base));
+
+                int end;
+                while ((end = nextRecordEnd(buffer)) > 0) {
+                    int bodyStart = buffer.position() + LogRecords.HEADER_SIZE;
+                    ByteBuffer body = buffer.duplicate();
+                    body.position(bodyStart + 1).limit(end);
+                    state.apply(buffer.get(bodyStart), body);
+
+                    buffer.position(end);
+                    state.setLsn(base + end);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds where the valid records of a segment end.
+     *
+     * @param channel Segment channel
+     * @return Number of bytes taken by complete and valid records
+     * @throws IOException If the segment could not be read
+     */
+    static long validLength(FileChannel channel) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        int end;
+        while ((end = nextRecordEnd(buffer)) > 0) {
+            buffer.position(end);
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Checks the record at the current position of a buffer.
+     *
+     * @param buffer Segment contents, positioned at the start of a record
+     * @return Position right after the record, or -1 if there is no valid record there
+     */
+    private static int nextRecordEnd(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.limit() - start < LogRecords.HEADER_SIZE) {
+            return -1;
+        }
+
+        int length = buffer.getInt(start);
+        int checksum = buffer.getInt(start + 4);
+        int bodyStart = start + LogRecords.HEADER_SIZE;
+        if (length <= 0 || length > buffer.limit() - bodyStart) {
+            return -1;
+        }
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(bodyStart).limit(bodyStart + length);
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            return -1;
+        }
+        return bodyStart + length;
+    }
+
+    /**
+     * Lists the base positions of the segments in a log directory, in ascending order.
+     *
+     * @param directory Log directory
+     * @return Segment base positions
+     * @throws IOException If the directory could not be read
+     */
+    static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return segments;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Gets the path of the segment that starts at a given log position.
+     *
+     * @param directory Log directory
+     * @param base Segment base position
+     * @return Segment path
+     */
+    static Path segmentPath(Path directory, long base) {
+        return directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.brunotoffolo.codewithme.exceptions.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Record types and helpers to encode the values stored in the {@link WriteAheadLog}.
+ *
+ * Every record is framed as its body length (int), a CRC32C checksum of the body (int)
+ * and the body itself, which starts with one of the type bytes below followed by the
+ * record values. The checksum allows a record that was only partially written before a
+ * crash to be detected and discarded during recovery.
+ *
+ * @author Bruno Toffolo
+ */
+final class LogRecords {
+
+    /** Number of bytes before the body of each record. */
+    static final int HEADER_SIZE = 8;
+
+    /** int number, long creation millis, long credit limit, String cpf, first name, last name */
+    static final byte ACCOUNT_OPENED = 1;
+    /** int number, long credit limit */
+    static final byte CREDIT_LIMIT_CHANGED = 2;
+    /** int number, long amount */
+    static final byte DEPOSIT = 3;
+    /** int number, long amount */
+    static final byte WITHDRAWAL = 4;
+    /**
+     * int account number, long card number, String brand, int pin, long expiration millis, long limit,
+     * long balance, byte blocked, int purchase count, purchases (long epoch millis, long amount,
+     * String description)
+     */
+    static final byte CARD_ISSUED = 5;
+    /** long card number, long limit */
+    static final byte CARD_LIMIT_CHANGED = 6;
+    /** long card number, int pin */
+    static final byte CARD_PIN_CHANGED = 7;
+    /** long card number, long epoch millis, long amount, String description */
+    static final byte PURCHASE = 8;
+    /** long card number */
+    static final byte CARD_BLOCKED = 9;
+    /** int source account number, int target account number, long amount */
+    static final byte TRANSFER = 10;
+
+    private LogRecords() {
+    }
+
+    /**
+     * Gets the number of bytes needed to store a String.
+     *
+     * @param bytes UTF-8 bytes of the String, or null
+     * @return Encoded size
+     */
+    static int sizeOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    /**
+     * Gets the UTF-8 bytes of a String.
+     *
+     * @param value String to be encoded, or null
+     * @return UTF-8 bytes, or null
+     */
+    static byte[] bytesOf(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the bytes of a String, preceded by their length (-1 for null).
+     *
+     * @param buffer Buffer the String is written to
+     * @param bytes UTF-8 bytes of the String, or null
+     */
+    static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    /**
+     * Reads a String written by {@link #putString(ByteBuffer, byte[])}.
+     *
+     * @param buffer Buffer the String is read from
+     * @return Decoded String, or null
+     */
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.brunotoffolo.codewithme.exceptions.persistence;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accounts and credit cards rebuilt from persisted data, along with the position of the
+ * transaction log they are up to date with.
+ *
+ * The state is rebuilt by a single thread and only handed over to the application after
+ * recovery finishes, so it does not need to be thread-safe.
+ *
+ * @author Bruno Toffolo
+ */
+public class ModelState {
+
+    private final Map<Integer, Account> accounts = new HashMap<>();
+    private final Map<Long, CreditCard> cards = new HashMap<>();
+    private long lsn;
+
+    /**
+     * Gets all rebuilt accounts.
+     *
+     * @return Accounts
+     */
+    public Collection<Account> getAccounts() {
+        return accounts.values();
+    }
+
+    /**
+     * Gets a rebuilt account.
+     *
+     * @param number Account number
+     * @return Account, or null if there is no account with this number
+     */
+    public Account getAccount(int number) {
+        return accounts.get(number);
+    }
+
+    /**
+     * Gets a rebuilt credit card.
+     *
+     * @param number Card number
+     * @return Card, or null if there is no card with this number
+     */
+    public CreditCard getCard(long number) {
+        return cards.get(number);
+    }
+
+    /**
+     * Gets the position of the transaction log right after the last record applied to
+     * this state. Replaying the log from this position brings the state up to date.
+     *
+     * @return Log sequence number
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * Adds an account (and all its cards) to the state.
+     *
+     * @param account Account to be added
+     */
+    void addAccount(Account account) {
+        accounts.put(account.getNumber(), account);
+        for (CreditCard card : account.getCreditCards()) {
+            cards.put(card.getNumber(), card);
+        }
+    }
+
+    /**
+     * Applies a log record to the state. Records referring to unknown accounts or cards
+     * are ignored, as they can only be produced by objects that were never registered.
+     *
+     * @param type Record type
+     * @param body Record values, positioned right after the type
+     */
+    void apply(byte type, ByteBuffer body) {
+        switch (type) {
+            case LogRecords.ACCOUNT_OPENED: {
+                int number = body.getInt();
+                long creationMillis = body.getLong();
+                long creditLimit = body.getLong();
+                Customer customer = new Customer(LogRecords.getString(body), LogRecords.getString(body),
+                        LogRecords.getString(body));
+                accounts.put(number, Account.restore(number, customer, creationMillis, 0L, creditLimit));
+                break;
+            }
+            case LogRecords.CREDIT_LIMIT_CHANGED: {
+                Account account = accounts.get(body.getInt());
+                long creditLimit = body.getLong();
+                if (account != null) {
+                    account.restoreCreditLimit(creditLimit);
+                }
+                break;
+            }
+            case LogRecords.DEPOSIT: {
+                Account account = accounts.get(body.getInt());
+                long amount = body.getLong();
+                if (account != null) {
+                    account.restoreBalance(account.getBalanceCents() + amount);
+                }
+                break;
+            }
+            case LogRecords.WITHDRAWAL: {
+                Account account = accounts.get(body.getInt());
+                long amount = body.getLong();
+                if (account != null) {
+                    account.restoreBalance(account.getBalanceCents() - amount);
+                }
+                break;
+            }
+            case LogRecords.TRANSFER: {
+                Account source = accounts.get(body.getInt());
+                Account target = accounts.get(body.getInt());
+                long amount = body.getLong();
+                if (source != null) {
+                    source.restoreBalance(source.getBalanceCents() - amount);
+                }
+                if (target != null) {
+                    target.restoreBalance(target.getBalanceCents() + amount);
+                }
+                break;
+            }
+            case LogRecords.CARD_ISSUED: {
+                Account account = accounts.get(body.getInt());
+                long number = body.getLong();
+                String brand = LogRecords.getString(body);
+                int pin = body.getInt();
+                long expirationMillis = body.getLong();
+                long limit = body.getLong();
+                CreditCard card = CreditCard.restore(number, brand, pin, expirationMillis, limit, 0L);
+                long balance = body.getLong();
+                boolean blocked = body.get() != 0;
+                int purchaseCount = body.getInt();
+                for (int i = 0; i < purchaseCount; i++) {
+                    long epochMillis = body.getLong();
+                    long amount = body.getLong();
+                    card.restorePurchase(epochMillis, amount, LogRecords.getString(body));
+                }
+                // The balance may differ from the sum of the purchases, as it is kept as logged
+                card.restoreBalance(balance);
+                if (blocked) {
+                    card.restoreBlocked();
+                }
+                if (account != null) {
+                    account.restoreCreditCard(card);
+                }
+                cards.put(number, card);
+                break;
+            }
+            case LogRecords.CARD_LIMIT_CHANGED: {
+                CreditCard card = cards.get(body.getLong());
+                long limit = body.getLong();
+                if (card != null) {
+                    card.restoreLimit(limit);
+                }
+                break;
+            }
+            case LogRecords.CARD_PIN_CHANGED: {
+                CreditCard card = cards.get(body.getLong());
+                int pin = body.getInt();
+                if (card != null) {
+                    card.restorePin(pin);
+                }
+                break;
+            }
+            case LogRecords.CARD_BLOCKED: {
+                CreditCard card = cards.get(body.getLong());
+                if (card != null) {
+                    card.restoreBlocked();
+                }
+                break;
+            }
+            case LogRecords.PURCHASE: {
+                CreditCard card = cards.get(body.getLong());
+                long epochMillis = body.getLong();
+                long amount = body.getLong();
+                String description = LogRecords.getString(body);
+                if (card != null) {
+                    card.restorePurchase(epochMillis, amount, description);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown log record type " + type);
+        }
+    }
+
+}
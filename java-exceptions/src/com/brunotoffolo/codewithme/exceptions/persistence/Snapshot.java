@@ -0,0 +1,367 @@
+package com.brunotoffolo.codewithme.exceptions.persistence;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.model.PurchaseLedger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Point-in-time copy of every account and credit card, stored in a compact binary file.
+ *
+ * A snapshot holds the state produced by every log record before a given log position,
+ * and is named after that position. Restarting from the newest snapshot only requires
+ * replaying the records written after it, instead of the whole log.
+ *
+ * The file starts with a header and a table of blocks, followed by the blocks
+ * themselves. Each block holds up to {@link #ACCOUNTS_PER_BLOCK} accounts with their
+ * customers, cards and purchases, plus its own table of purchase descriptions, so every
+ * block can be checked and decoded independently. Blocks are encoded and decoded in
+ * parallel, and the file is memory-mapped while it is loaded.
+ *
+ * <pre>
+ * header:  int magic, int version, long lsn, int block count
+ * table:   for each block, long offset, int length, int CRC32C
+ * block:   int description count, String descriptions..., int account count, accounts...
+ * account: int number, long creation millis, long balance, long credit limit,
+ *          String cpf, first name, last name, int card count, cards...
+ * card:    long number, String brand, int pin, long expiration millis, long limit,
+ *          long balance, byte blocked, int purchase count, purchases...
+ * purchase: long epoch millis, long amount, int description index (-1 for none)
+ * </pre>
+ *
+ * @author Bruno Toffolo
+ */
+public final class Snapshot {
+
+    static final String SNAPSHOT_SUFFIX = ".snap";
+
+    /** Maximum number of accounts stored in each block. */
+    static final int ACCOUNTS_PER_BLOCK = 1024;
+
+    private static final int MAGIC = 0x534E4150;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int TABLE_ENTRY_SIZE = 16;
+
+    private Snapshot() {
+    }
+
+    /**
+     * Writes a snapshot of a state, named after the state's log position. The file is
+     * first written under a temporary name and only renamed once it is complete and
+     * synced, so a crash never leaves a partial snapshot behind.
+     *
+     * The state must not be changed while the snapshot is written.
+     *
+     * @param directory Log directory
+     * @param state State to be stored
+     * @return Path of the new snapshot
+     * @throws IOException If the snapshot could not be written
+     */
+    public static Path write(Path directory, ModelState state) throws IOException {
+        List<Account> accounts = new ArrayList<>(state.getAccounts());
+        int blockCount = (accounts.size() + ACCOUNTS_PER_BLOCK - 1) / ACCOUNTS_PER_BLOCK;
+
+        List<byte[]> blocks;
+        try {
+            blocks = IntStream.range(0, blockCount).parallel()
+                    .mapToObj(block -> encodeBlock(accounts, block * ACCOUNTS_PER_BLOCK,
+                            Math.min(accounts.size(), (block + 1) * ACCOUNTS_PER_BLOCK)))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + blockCount * TABLE_ENTRY_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(state.getLsn()).putInt(blockCount);
+        long offset = header.capacity();
+        CRC32C crc = new CRC32C();
+        for (byte[] block : blocks) {
+            crc.reset();
+            crc.update(block);
+            header.putLong(offset).putInt(block.length).putInt((int) crc.getValue());
+            offset += block.length;
+        }
+        header.flip();
+
+        Path target = snapshotPath(directory, state.getLsn());
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            for (byte[] block : blocks) {
+                writeFully(channel, ByteBuffer.wrap(block));
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    /**
+     * Loads the newest snapshot in a log directory.
+     *
+     * @param directory Log directory
+     * @return State stored in the newest snapshot, or an empty state if there is none
+     * @throws IOException If the snapshot could not be read or is corrupted
+     */
+    public static ModelState loadLatest(Path directory) throws IOException {
+        List<Long> snapshots = listSnapshots(directory);
+        if (snapshots.isEmpty()) {
+            return new ModelState();
+        }
+        return load(snapshotPath(directory, snapshots.get(snapshots.size() - 1)));
+    }
+
+    /**
+     * Loads a snapshot file.
+     *
+     * @param file Snapshot file
+     * @return State stored in the snapshot
+     * @throws IOException If the snapshot could not be read or is corrupted
+     */
+    public static ModelState load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_SIZE));
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            if (header.getInt() != VERSION) {
+                throw new IOException(file + " has an unsupported snapshot version");
+            }
+
+            long lsn = header.getLong();
+            int blockCount = header.getInt();
+            if (blockCount < 0 || HEADER_SIZE + (long) blockCount * TABLE_ENTRY_SIZE > channel.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    (long) blockCount * TABLE_ENTRY_SIZE);
+
+            // Each block is mapped on its own, so the file is not limited to 2 GB
+            List<List<Account>> blocks;
+            try {
+                blocks = IntStream.range(0, blockCount).parallel()
+                        .mapToObj(block -> decodeBlock(file, channel, table, block * TABLE_ENTRY_SIZE))
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            ModelState state = new ModelState();
+            for (List<Account> block : blocks) {
+                for (Account account : block) {
+                    state.addAccount(account);
+                }
+            }
+            state.setLsn(lsn);
+            return state;
+        }
+    }
+
+    private static byte[] encodeBlock(List<Account> accounts, int from, int to) {
+        Map<String, Integer> descriptions = new HashMap<>();
+        List<String> descriptionTable = new ArrayList<>();
+        ByteArrayOutputStream accountBytes = new ByteArrayOutputStream(64 * 1024);
+
+        try {
+            DataOutputStream out = new DataOutputStream(accountBytes);
+            out.writeInt(to - from);
+            for (int i = from; i < to; i++) {
+                Account account = accounts.get(i);
+                Customer customer = account.getCustomer();
+                out.writeInt(account.getNumber());
+                out.writeLong(account.getCreationDate().getTimeInMillis());
+                out.writeLong(account.getBalanceCents());
+                out.writeLong(account.getCreditLimitCents());
+                writeString(out, customer.getCpf());
+                writeString(out, customer.getFirstName());
+                writeString(out, customer.getLastName());
+
+                List<CreditCard> cards = account.getCreditCards();
+                out.writeInt(cards.size());
+                for (CreditCard card : cards) {
+                    out.writeLong(card.getNumber());
+                    writeString(out, card.getBrand());
+                    out.writeInt(card.getPin());
+                    out.writeLong(card.getExpirationDate().getTimeInMillis());
+                    out.writeLong(card.getLimitCents());
+                    out.writeLong(card.getBalanceCents());
+                    out.writeBoolean(card.isBlocked());
+
+                    PurchaseLedger purchases = card.getPurchases();
+                    int count = purchases.size();
+                    out.writeInt(count);
+                    for (int p = 0; p < count; p++) {
+                        out.writeLong(purchases.timestampAt(p));
+                        out.writeLong(purchases.amountCentsAt(p));
+
+                        String description = purchases.descriptionAt(p);
+                        int index = -1;
+                        if (description != null) {
+                            Integer known = descriptions.get(description);
+                            if (known == null) {
+                                known = descriptionTable.size();
+                                descriptions.put(description, known);
+                                descriptionTable.add(description);
+                            }
+                            index = known;
+                        }
+                        out.writeInt(index);
+                    }
+                }
+            }
+            out.flush();
+
+            ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(accountBytes.size() + 1024);
+            DataOutputStream block = new DataOutputStream(blockBytes);
+            block.writeInt(descriptionTable.size());
+            for (String description : descriptionTable) {
+                writeString(block, description);
+            }
+            accountBytes.writeTo(block);
+            block.flush();
+            return blockBytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<Account> decodeBlock(Path file, FileChannel channel, ByteBuffer table, int tableEntry) {
+        long offset = table.getLong(tableEntry);
+        int length = table.getInt(tableEntry + 8);
+        int checksum = table.getInt(tableEntry + 12);
+
+        ByteBuffer block;
+        try {
+            if (offset < 0 || length < 0 || offset + length > channel.size()) {
+                throw new IOException(file + " is truncated");
+            }
+            block = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(block.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new UncheckedIOException(new IOException(file + " is corrupted"));
+        }
+
+        String[] descriptions = new String[block.getInt()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = LogRecords.getString(block);
+        }
+
+        int accountCount = block.getInt();
+        List<Account> accounts = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            int number = block.getInt();
+            long creationMillis = block.getLong();
+            long balance = block.getLong();
+            long creditLimit = block.getLong();
+            Customer customer = new Customer(LogRecords.getString(block), LogRecords.getString(block),
+                    LogRecords.getString(block));
+            Account account = Account.restore(number, customer, creationMillis, balance, creditLimit);
+
+            int cardCount = block.getInt();
+            for (int c = 0; c < cardCount; c++) {
+                long cardNumber = block.getLong();
+                String brand = LogRecords.getString(block);
+                int pin = block.getInt();
+                long expirationMillis = block.getLong();
+                long limit = block.getLong();
+                long cardBalance = block.getLong();
+                boolean blocked = block.get() != 0;
+                CreditCard card = CreditCard.restore(cardNumber, brand, pin, expirationMillis, limit, 0L);
+
+                int purchaseCount = block.getInt();
+                for (int p = 0; p < purchaseCount; p++) {
+                    long epochMillis = block.getLong();
+                    long amount = block.getLong();
+                    int index = block.getInt();
+                    card.restorePurchase(epochMillis, amount, index < 0 ? null : descriptions[index]);
+                }
+                // The balance may differ from the sum of the purchases, as it is kept as stored
+                card.restoreBalance(cardBalance);
+                if (blocked) {
+                    card.restoreBlocked();
+                }
+                account.restoreCreditCard(card);
+            }
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = LogRecords.bytesOf(value);
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Lists the log positions of the snapshots in a log directory, in ascending order.
+     *
+     * @param directory Log directory
+     * @return Snapshot positions
+     * @throws IOException If the directory could not be read
+     */
+    static List<Long> listSnapshots(Path directory) throws IOException {
+        List<Long> snapshots = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                snapshots.add(Long.parseLong(name.substring(0, name.length() - SNAPSHOT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(snapshots);
+        return snapshots;
+    }
+
+    /**
+     * Gets the path of the snapshot taken at a given log position.
+     *
+     * @param directory Log directory
+     * @param lsn Log position of the snapshot
+     * @return Snapshot path
+     */
+    static Path snapshotPath(Path directory, long lsn) {
+        return directory.resolve(String.format("%020d%s", lsn, SNAPSHOT_SUFFIX));
+    }
+
+}
@@ -0,0 +1,563 @@
+package com.brunotoffolo.codewithme.exceptions.persistence;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.ChangeLog;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCardSnapshot;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.model.PurchaseLedger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable log of every change made to accounts and credit cards.
+ *
+ * Once set as the change log of the model, with
+ * {@link com.brunotoffolo.codewithme.exceptions.model.BankingEvents#setChangeLog(ChangeLog)},
+ * the log appends a record for every account opened, card issued, deposit, withdrawal,
+ * transfer, purchase and limit or PIN change. After a restart,
+ * {@link LogReader#recover(Path)} replays these records to rebuild the accounts and cards
+ * exactly as they were. A transfer is a single record, so it is recovered either as a
+ * whole or not at all.
+ *
+ * Each record is appended right before its change is applied, while the append lock is
+ * held for the whole change (see {@link ChangeLog}). No other change can be applied in
+ * the meantime, so the records are in the same order as the changes, and replaying them
+ * goes through the same states as the accounts and cards did in memory.
+ *
+ * Records are first encoded into an in-memory buffer and then written to the current
+ * segment file through a FileChannel. How long an operation waits for its record to
+ * reach the disk depends on the configured {@link Durability}. With
+ * {@link Durability#SYNC}, the record is written and synced before the change is
+ * applied. With {@link Durability#GROUP}, the change is applied once its record is
+ * buffered, and the operation then waits for the record to be synced: the first waiting
+ * thread becomes the leader, which writes and syncs every record buffered so far, while
+ * the threads that arrived in the meantime wait for it and find their own records
+ * already synced when it finishes.
+ *
+ * If records cannot be written, the log is marked as failed, and every later operation
+ * throws an UncheckedIOException before changing anything. An operation whose record
+ * could not be synced in SYNC mode throws as well, and its change is not applied (its
+ * record may still have reached the disk). In GROUP and ASYNC modes, changes whose
+ * records were already buffered keep taking effect, and their operations return
+ * normally, but they may be lost after a crash.
+ *
+ * Segment files are named after the log position (sequence number) of their first byte,
+ * and a new segment is started when the current one exceeds the configured size.
+ *
+ * @author Bruno Toffolo
+ */
+public class WriteAheadLog implements ChangeLog, AutoCloseable {
+
+    /** Default size after which a new segment is started. */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /** Interval between syncs in {@link Durability#ASYNC} mode. */
+    private static final long ASYNC_SYNC_INTERVAL_MILLIS = 10;
+
+    private final Path directory;
+    private final Durability durability;
+    private final long segmentSize;
+
+    // Guards the pending buffer and the next log position. Held during each change, from
+    // beginChange to endChange, so no other change is applied between a record and its
+    // change.
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer pending = ByteBuffer.allocateDirect(256 * 1024);
+    private int recordStart;
+    // Whether a record is being encoded, so its partial bytes can be dropped on failure
+    private boolean encoding;
+    private long nextLsn;
+    // Log position right after the records of the current change, or 0 if it has none
+    private long changeLsn;
+
+    // Guards the segment channel. Held while records are written and synced.
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private ByteBuffer spare = ByteBuffer.allocateDirect(256 * 1024);
+    private FileChannel segment;
+    private long segmentBase;
+    private volatile long durableLsn;
+
+    private final Thread syncThread;
+    private volatile boolean open = true;
+    // Set when records could not be written, after which the log rejects every change
+    private volatile IOException failure;
+    // Records of changes made after close(). Guarded by the append lock.
+    private long skippedRecords;
+
+    /**
+     * Opens a log with the default segment size.
+     *
+     * @param directory Log directory, created if it does not exist
+     * @param durability Durability level of the appended records
+     * @throws IOException If the log could not be opened
+     */
+    public WriteAheadLog(Path directory, Durability durability) throws IOException {
+        this(directory, durability, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a log, continuing after the last valid record of an existing log. Any
+     * incomplete record left by a crash is discarded.
+     *
+     * @param directory Log directory, created if it does not exist
+     * @param durability Durability level of the appended records
+     * @param segmentSize Size after which a new segment is started
+     * @throws IOException If the log could not be opened
+     */
+    public WriteAheadLog(Path directory, Durability durability, long segmentSize) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        List<Long> segments = LogReader.listSegments(directory);
+        segmentBase = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+        segment = FileChannel.open(LogReader.segmentPath(directory, segmentBase),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        long validLength = LogReader.validLength(segment);
+        segment.truncate(validLength);
+        segment.position(validLength);
+        nextLsn = segmentBase + validLength;
+        durableLsn = nextLsn;
+
+        if (durability == Durability.ASYNC) {
+            syncThread = new Thread(this::syncLoop, "write-ahead-log-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+    }
+
+    @Override
+    public void beginChange() {
+        // In SYNC mode each change holds the channel until it ends, so its record is written
+        // and synced alone, before the change is applied
+        if (durability == Durability.SYNC) {
+            flushLock.lock();
+        }
+        appendLock.lock();
+
+        // Checked under the append lock, so nothing is changed once the log has failed
+        IOException error = failure;
+        if (error != null) {
+            appendLock.unlock();
+            if (durability == Durability.SYNC) {
+                flushLock.unlock();
+            }
+            throw new UncheckedIOException("The write-ahead log can no longer be written", error);
+        }
+        changeLsn = 0;
+    }
+
+    @Override
+    public void endChange() {
+        if (encoding) {
+            // The record could not be encoded, and its change was not applied
+            pending.position(recordStart);
+            encoding = false;
+        }
+        long lsn = changeLsn;
+        appendLock.unlock();
+
+        if (durability == Durability.SYNC) {
+            // The record is already synced
+            flushLock.unlock();
+        } else if (durability == Durability.GROUP && lsn > durableLsn) {
+            flushLock.lock();
+            try {
+                // Another thread may have synced our record while we waited
+                if (durableLsn < lsn && failure == null) {
+                    flushPending();
+                }
+            } catch (IOException e) {
+                // The change already took effect, so it is not reported as failed. The log
+                // is marked as failed, and the next change reports the error instead.
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void recordAccountOpened(Account account) {
+        Customer customer = account.getCustomer();
+        byte[] cpf = LogRecords.bytesOf(customer.getCpf());
+        byte[] firstName = LogRecords.bytesOf(customer.getFirstName());
+        byte[] lastName = LogRecords.bytesOf(customer.getLastName());
+
+        ByteBuffer buffer = beginRecord(LogRecords.ACCOUNT_OPENED,
+                20 + LogRecords.sizeOf(cpf) + LogRecords.sizeOf(firstName) + LogRecords.sizeOf(lastName));
+        if (buffer == null) {
+            return;
+        }
+        buffer.putInt(account.getNumber())
+                .putLong(account.getCreationDate().getTimeInMillis())
+                .putLong(account.getCreditLimitCents());
+        LogRecords.putString(buffer, cpf);
+        LogRecords.putString(buffer, firstName);
+        LogRecords.putString(buffer, lastName);
+        endRecord();
+    }
+
+    @Override
+    public void recordCreditLimitChanged(Account account, long creditLimitCents) {
+        appendAccountRecord(LogRecords.CREDIT_LIMIT_CHANGED, account.getNumber(), creditLimitCents);
+    }
+
+    @Override
+    public void recordDeposit(Account account, long amountCents) {
+        appendAccountRecord(LogRecords.DEPOSIT, account.getNumber(), amountCents);
+    }
+
+    @Override
+    public void recordWithdrawal(Account account, long amountCents) {
+        appendAccountRecord(LogRecords.WITHDRAWAL, account.getNumber(), amountCents);
+    }
+
+    @Override
+    public void recordTransfer(Account source, Account target, long amountCents) {
+        ByteBuffer buffer = beginRecord(LogRecords.TRANSFER, 16);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putInt(source.getNumber()).putInt(target.getNumber()).putLong(amountCents);
+        endRecord();
+    }
+
+    @Override
+    public void recordCardIssued(Account account, CreditCard card) {
+        byte[] brand = LogRecords.bytesOf(card.getBrand());
+
+        // A card may be charged, restored or blocked before it is added to an account, and
+        // the records of those changes are ignored on replay as the card is not known yet.
+        // Its state and purchases are then recorded along with it. No other change can
+        // reach the card until this one ends, so they are those of the moment it is added.
+        CreditCardSnapshot state = card.snapshot();
+        PurchaseLedger purchases = card.getPurchases();
+        int purchaseCount = purchases.size();
+        byte[][] descriptions = new byte[purchaseCount][];
+        int purchasesSize = 0;
+        for (int i = 0; i < purchaseCount; i++) {
+            descriptions[i] = LogRecords.bytesOf(purchases.descriptionAt(i));
+            purchasesSize += 16 + LogRecords.sizeOf(descriptions[i]);
+        }
+
+        ByteBuffer buffer = beginRecord(LogRecords.CARD_ISSUED,
+                45 + LogRecords.sizeOf(brand) + purchasesSize);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putInt(account.getNumber()).putLong(card.getNumber());
+        LogRecords.putString(buffer, brand);
+        buffer.putInt(card.getPin())
+                .putLong(card.getExpirationDate().getTimeInMillis())
+                .putLong(state.getLimitCents())
+                .putLong(state.getBalanceCents())
+                .put(state.isBlocked() ? (byte) 1 : (byte) 0)
+                .putInt(purchaseCount);
+        for (int i = 0; i < purchaseCount; i++) {
+            buffer.putLong(purchases.timestampAt(i)).putLong(purchases.amountCentsAt(i));
+            LogRecords.putString(buffer, descriptions[i]);
+        }
+        endRecord();
+    }
+
+    @Override
+    public void recordCardLimitChanged(CreditCard card, long limitCents) {
+        ByteBuffer buffer = beginRecord(LogRecords.CARD_LIMIT_CHANGED, 16);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putLong(card.getNumber()).putLong(limitCents);
+        endRecord();
+    }
+
+    @Override
+    public void recordCardPinChanged(CreditCard card, int pin) {
+        ByteBuffer buffer = beginRecord(LogRecords.CARD_PIN_CHANGED, 12);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putLong(card.getNumber()).putInt(pin);
+        endRecord();
+    }
+
+    @Override
+    public void recordCardBlocked(CreditCard card) {
+        ByteBuffer buffer = beginRecord(LogRecords.CARD_BLOCKED, 8);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putLong(card.getNumber());
+        endRecord();
+    }
+
+    @Override
+    public void recordPurchase(CreditCard card, long epochMillis, long amountCents, String description) {
+        byte[] descriptionBytes = LogRecords.bytesOf(description);
+
+        ByteBuffer buffer = beginRecord(LogRecords.PURCHASE, 24 + LogRecords.sizeOf(descriptionBytes));
+        if (buffer == null) {
+            return;
+        }
+        buffer.putLong(card.getNumber()).putLong(epochMillis).putLong(amountCents);
+        LogRecords.putString(buffer, descriptionBytes);
+        endRecord();
+    }
+
+    private void appendAccountRecord(byte type, int accountNumber, long value) {
+        ByteBuffer buffer = beginRecord(type, 12);
+        if (buffer == null) {
+            return;
+        }
+        buffer.putInt(accountNumber).putLong(value);
+        endRecord();
+    }
+
+    /**
+     * Gets the log position right after the last appended record.
+     *
+     * @return Next log sequence number
+     */
+    public long getNextLsn() {
+        appendLock.lock();
+        try {
+            return nextLsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the log position up to which every record is synced to disk.
+     *
+     * @return Durable log sequence number
+     */
+    public long getDurableLsn() {
+        return durableLsn;
+    }
+
+    /**
+     * Gets the durability level of the log.
+     *
+     * @return Durability level
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Gets the number of records that were not appended because the log was already
+     * closed when their changes were made.
+     *
+     * @return Number of skipped records
+     */
+    public long getSkippedRecordCount() {
+        appendLock.lock();
+        try {
+            return skippedRecords;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes and syncs every record appended so far, regardless of the durability level.
+     *
+     * @throws IOException If the records could not be written, now or by an earlier sync
+     */
+    public void sync() throws IOException {
+        flushLock.lock();
+        try {
+            flushPending();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Syncs every pending record and closes the current segment. Operations performed
+     * after the log is closed are no longer recorded, and are only counted by
+     * {@link #getSkippedRecordCount()}.
+     *
+     * @throws IOException If the pending records could not be written, now or by an
+     *                     earlier sync
+     */
+    @Override
+    public void close() throws IOException {
+        open = false;
+        if (syncThread != null) {
+            // Interrupting the thread while it writes would close the segment channel
+            LockSupport.unpark(syncThread);
+            try {
+                syncThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        flushLock.lock();
+        try {
+            if (segment.isOpen()) {
+                try {
+                    flushPending();
+                } finally {
+                    segment.close();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Starts encoding a record into the pending buffer. Must be called between
+     * {@link #beginChange()} and {@link #endChange()}, which hold the append lock.
+     *
+     * @param type Record type
+     * @param bodySize Size of the record values, after the type
+     * @return Buffer the values should be written to, followed by a call to
+     *         {@link #endRecord()}; or null if the log is closed, in which case the record
+     *         is only counted as skipped
+     */
+    private ByteBuffer beginRecord(byte type, int bodySize) {
+        // Checked under the append lock, so every record appended before close() sets the
+        // flag is in the buffer its final flush writes
+        if (!open) {
+            skippedRecords++;
+            return null;
+        }
+
+        int recordSize = LogRecords.HEADER_SIZE + 1 + bodySize;
+        if (pending.remaining() < recordSize) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(pending.capacity() * 2, pending.position() + recordSize));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+
+        // The header is filled in by endRecord, once the body is known
+        recordStart = pending.position();
+        pending.position(recordStart + LogRecords.HEADER_SIZE);
+        encoding = true;
+        return pending.put(type);
+    }
+
+    /**
+     * Fills in the header of the record being encoded. In SYNC mode, the record is then
+     * written and synced, before its change is applied.
+     *
+     * @throws UncheckedIOException If the record could not be written, in which case its
+     *                              change must not be applied
+     */
+    private void endRecord() {
+        int end = pending.position();
+        int bodyStart = recordStart + LogRecords.HEADER_SIZE;
+
+        ByteBuffer body = pending.duplicate();
+        body.position(bodyStart).limit(end);
+        crc.reset();
+        crc.update(body);
+
+        pending.putInt(recordStart, end - bodyStart);
+        pending.putInt(recordStart + 4, (int) crc.getValue());
+        encoding = false;
+
+        nextLsn += end - recordStart;
+        changeLsn = nextLsn;
+
+        if (durability == Durability.SYNC) {
+            try {
+                // The flush lock is held since beginChange
+                flushPending();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write to the write-ahead log", e);
+            }
+        }
+    }
+
+    /**
+     * Writes and syncs every pending record. Must be called while holding the flush lock.
+     *
+     * If the records cannot be written, part of them may already be in the segment, and
+     * the log positions no longer match its contents. The log is then marked as failed:
+     * this and every later flush and change throw the same error, instead of going on
+     * with a corrupted log.
+     */
+    private void flushPending() throws IOException {
+        IOException error = failure;
+        if (error != null) {
+            throw new IOException("The write-ahead log can no longer be written", error);
+        }
+
+        long end;
+        appendLock.lock();
+        try {
+            ByteBuffer full = pending;
+            pending = spare;
+            spare = full;
+            end = nextLsn;
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            spare.flip();
+            while (spare.hasRemaining()) {
+                segment.write(spare);
+            }
+            segment.force(false);
+            durableLsn = end;
+
+            if (segment.position() >= segmentSize) {
+                segment.close();
+                segmentBase = end;
+                segment = FileChannel.open(LogReader.segmentPath(directory, segmentBase),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            // Always handed back empty, as it becomes the pending buffer of the next flush
+            spare.clear();
+        }
+    }
+
+    private void syncLoop() {
+        while (open) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(ASYNC_SYNC_INTERVAL_MILLIS));
+            if (!open) {
+                break;
+            }
+
+            flushLock.lock();
+            try {
+                if (durableLsn < getNextLsn()) {
+                    flushPending();
+                }
+            } catch (IOException e) {
+                // The log is marked as failed, so the next change reports the error
+                break;
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+}
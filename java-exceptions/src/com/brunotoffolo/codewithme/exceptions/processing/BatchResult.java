@@ -0,0 +1,86 @@
+package com.brunotoffolo.codewithme.exceptions.processing;
+
+import com.brunotoffolo.codewithme.exceptions.model.OperationStatus;
+
+/**
+ * Outcome of every operation of a batch, as {@link OperationStatus} codes in the same
+ * order as the operations were given.
+ *
+ * @author Bruno Toffolo
+ */
+public class BatchResult {
+
+    private final int[] statuses;
+    private final long elapsedNanos;
+
+    BatchResult(int[] statuses, long elapsedNanos) {
+        this.statuses = statuses;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the number of operations in the batch.
+     *
+     * @return Number of operations
+     */
+    public int size() {
+        return statuses.length;
+    }
+
+    /**
+     * Gets the outcome of an operation.
+     *
+     * @param index Position of the operation in the batch
+     * @return {@link OperationStatus} code of the operation
+     */
+    public int getStatus(int index) {
+        return statuses[index];
+    }
+
+    /**
+     * Gets the number of operations with a given outcome.
+     *
+     * @param status {@link OperationStatus} code
+     * @return Number of operations with that outcome
+     */
+    public int count(int status) {
+        int count = 0;
+        for (int s : statuses) {
+            if (s == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of operations that were performed.
+     *
+     * @return Number of approved operations
+     */
+    public int getApprovedCount() {
+        return count(OperationStatus.APPROVED);
+    }
+
+    /**
+     * Gets the number of operations declined for insufficient funds only. Purchases
+     * declined because the card is blocked or expired, or exceeds its velocity limits,
+     * have their own {@link OperationStatus} codes and are not counted here; use
+     * {@link #count(int)} for them.
+     *
+     * @return Number of operations declined for insufficient funds
+     */
+    public int getDeclinedCount() {
+        return count(OperationStatus.INSUFFICIENT_FUNDS);
+    }
+
+    /**
+     * Gets the time taken to process the batch.
+     *
+     * @return Elapsed time, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.brunotoffolo.codewithme.exceptions.processing;
+
+/**
+ * Single operation of a batch, such as a line of a settlement file.
+ *
+ * Account operations refer to an account number and purchases refer to a card number,
+ * both stored in {@link #getTarget()}. Transfers take the amount from the account in
+ * {@link #getTarget()} and give it to the account in {@link #getDestination()}. Amounts
+ * are kept in cents, and must be higher than zero.
+ *
+ * @author Bruno Toffolo
+ */
+public final class Operation {
+
+    private final OperationType type;
+    private final long target;
+    private final long destination;
+    private final long amountCents;
+    private final String description;
+
+    private Operation(OperationType type, long target, long destination, long amountCents, String description) {
+        // Checked here rather than when the batch is applied, where an invalid operation
+        // would fail the whole batch after other shards already applied part of it
+        if (amountCents <= 0) {
+            throw new IllegalArgumentException("Operation amount should be higher than zero");
+        }
+
+        this.type = type;
+        this.target = target;
+        this.destination = destination;
+        this.amountCents = amountCents;
+        this.description = description;
+    }
+
+    /**
+     * Creates a deposit into an account.
+     *
+     * @param accountNumber Account number
+     * @param amountCents Amount to be deposited, in cents
+     * @return Deposit operation
+     */
+    public static Operation deposit(int accountNumber, long amountCents) {
+        return new Operation(OperationType.DEPOSIT, accountNumber, 0, amountCents, null);
+    }
+
+    /**
+     * Creates a withdrawal from an account.
+     *
+     * @param accountNumber Account number
+     * @param amountCents Amount to be withdrawn, in cents
+     * @return Withdrawal operation
+     */
+    public static Operation withdrawal(int accountNumber, long amountCents) {
+        return new Operation(OperationType.WITHDRAWAL, accountNumber, 0, amountCents, null);
+    }
+
+    /**
+     * Creates a transfer from an account to another one.
+     *
+     * @param sourceAccountNumber Number of the account the amount is taken from
+     * @param targetAccountNumber Number of the account receiving the amount
+     * @param amountCents Amount to be transferred, in cents
+     * @return Transfer operation
+     */
+    public static Operation transfer(int sourceAccountNumber, int targetAccountNumber, long amountCents) {
+        if (sourceAccountNumber == targetAccountNumber) {
+            throw new IllegalArgumentException("An amount should not be transferred to its own account");
+        }
+
+        return new Operation(OperationType.TRANSFER, sourceAccountNumber, targetAccountNumber, amountCents, null);
+    }
+
+    /**
+     * Creates a purchase with a credit card.
+     *
+     * @param cardNumber Card number
+     * @param amountCents Amount of the purchase, in cents
+     * @param description Description of the purchase
+     * @return Purchase operation
+     */
+    public static Operation purchase(long cardNumber, long amountCents, String description) {
+        return new Operation(OperationType.PURCHASE, cardNumber, 0, amountCents, description);
+    }
+
+    /**
+     * Gets the type of the operation.
+     *
+     * @return Operation type
+     */
+    public OperationType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the account number (for deposits, withdrawals and the source of transfers) or
+     * card number (for purchases) the operation applies to.
+     *
+     * @return Account or card number
+     */
+    public long getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the number of the account receiving the amount of a transfer.
+     *
+     * @return Account number, or 0 for other operations
+     */
+    public long getDestination() {
+        return destination;
+    }
+
+    /**
+     * Gets the amount of the operation.
+     *
+     * @return Amount, in cents
+     */
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    /**
+     * Gets the description of a purchase.
+     *
+     * @return Description, or null for account operations
+     */
+    public String getDescription() {
+        return description;
+    }
+
+}
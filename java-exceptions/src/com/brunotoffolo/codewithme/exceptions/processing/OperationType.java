@@ -0,0 +1,22 @@
+package com.brunotoffolo.codewithme.exceptions.processing;
+
+/**
+ * Types of the operations applied by the {@link ShardedBatchProcessor}.
+ *
+ * @author Bruno Toffolo
+ */
+public enum OperationType {
+
+    /** Deposit into an account. */
+    DEPOSIT,
+
+    /** Withdrawal from an account. */
+    WITHDRAWAL,
+
+    /** Transfer from an account to another one. */
+    TRANSFER,
+
+    /** Purchase with a credit card. */
+    PURCHASE
+
+}
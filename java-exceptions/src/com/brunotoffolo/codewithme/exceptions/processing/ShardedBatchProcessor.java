@@ -0,0 +1,353 @@
+package com.brunotoffolo.codewithme.exceptions.processing;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Money;
+import com.brunotoffolo.codewithme.exceptions.model.OperationStatus;
+import com.brunotoffolo.codewithme.exceptions.registry.AccountRegistry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Applies large batches of deposits, withdrawals, transfers and purchases using every
+ * core.
+ *
+ * Operations are partitioned into shards by account number (deposits, withdrawals and
+ * the source account of transfers) or card number (purchases), and each shard is
+ * processed by its own thread. As every account and card always belongs to the same
+ * shard, it is only ever changed by a single thread at a time: balance updates never
+ * compete with each other, and the operations of an account or card are applied in the
+ * order they appear in the batch. Batches are applied in the order they were submitted,
+ * even when {@link #process(List)} is called by several threads at once: the parts of a
+ * batch are queued on all the shards under a single lock, so every shard sees the
+ * batches in the same order and runs its part of a batch only after its part of the
+ * previous ones.
+ *
+ * A transfer between accounts of different shards belongs to both of them. Each shard
+ * stops when it reaches the transfer and waits for the other one to reach it as well,
+ * so every operation that comes before it in the batch is already applied to both
+ * accounts; the shard of the source account then applies the whole transfer, while the
+ * shard of the target account waits for it to finish before moving on. A shard only
+ * ever waits for operations that come earlier in the batch, or for the transfer it is
+ * at, so the shard that is furthest behind can always move on, and the shards can never
+ * deadlock.
+ *
+ * Declines are reported through status codes instead of exceptions, so a batch with
+ * many declined operations is processed as fast as one without them.
+ *
+ * @author Bruno Toffolo
+ */
+public class ShardedBatchProcessor implements AutoCloseable {
+
+    private final AccountRegistry registry;
+    private final ExecutorService[] shards;
+
+    // Held while the parts of a batch are queued, so no shard sees the batches of two
+    // concurrent callers in a different order than the others (the rendezvous of a
+    // transfer could otherwise wait for a batch queued behind it)
+    private final ReentrantLock submitLock = new ReentrantLock();
+
+    /**
+     * Creates a processor with one shard per available core.
+     *
+     * @param registry Registry used to find the accounts and cards of the operations
+     */
+    public ShardedBatchProcessor(AccountRegistry registry) {
+        this(registry, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a processor with a given number of shards.
+     *
+     * @param registry Registry used to find the accounts and cards of the operations
+     * @param shardCount Number of shards (and threads)
+     */
+    public ShardedBatchProcessor(AccountRegistry registry, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There should be at least one shard");
+        }
+
+        this.registry = registry;
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String name = "batch-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Applies a batch of operations and waits until all of them are processed.
+     *
+     * @param operations Operations to be applied
+     * @return Outcome of every operation, in the same order
+     */
+    public BatchResult process(List<Operation> operations) {
+        long start = System.nanoTime();
+        int size = operations.size();
+        int shardCount = shards.length;
+
+        // Group the positions of the operations by shard, keeping their order. Transfers
+        // between accounts of different shards are added to both shards
+        int[] shardOf = new int[size];
+        int[] targetShardOf = null;
+        int crossShardTransfers = 0;
+        int[] offsets = new int[shardCount + 1];
+        for (int i = 0; i < size; i++) {
+            Operation operation = operations.get(i);
+            shardOf[i] = shardOf(operation.getTarget(), shardCount);
+            offsets[shardOf[i] + 1]++;
+
+            if (operation.getType() == OperationType.TRANSFER) {
+                int targetShard = shardOf(operation.getDestination(), shardCount);
+                if (targetShard != shardOf[i]) {
+                    if (targetShardOf == null) {
+                        targetShardOf = new int[size];
+                        Arrays.fill(targetShardOf, -1);
+                    }
+                    targetShardOf[i] = targetShard;
+                    offsets[targetShard + 1]++;
+                    crossShardTransfers++;
+                }
+            }
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            offsets[shard + 1] += offsets[shard];
+        }
+        int[] positions = new int[size + crossShardTransfers];
+        int[] next = new int[shardCount];
+        System.arraycopy(offsets, 0, next, 0, shardCount);
+        for (int i = 0; i < size; i++) {
+            positions[next[shardOf[i]]++] = i;
+            if (targetShardOf != null && targetShardOf[i] >= 0) {
+                positions[next[targetShardOf[i]]++] = i;
+            }
+        }
+        Rendezvous rendezvous = crossShardTransfers > 0 ? new Rendezvous(size, targetShardOf) : null;
+
+        // Each shard writes only the statuses of its own operations
+        int[] statuses = new int[size];
+        Future<?>[] futures = new Future<?>[shardCount];
+        submitLock.lock();
+        try {
+            for (int shard = 0; shard < shardCount; shard++) {
+                int from = offsets[shard];
+                int to = offsets[shard + 1];
+                int current = shard;
+                if (from < to) {
+                    futures[shard] = shards[shard].submit(
+                            () -> apply(operations, positions, from, to, statuses, current, rendezvous));
+                }
+            }
+        } catch (RuntimeException e) {
+            // Shards already given their part may wait for a transfer that was never queued
+            if (rendezvous != null) {
+                rendezvous.failed = true;
+            }
+            throw e;
+        } finally {
+            submitLock.unlock();
+        }
+
+        Throwable failure = null;
+        for (Future<?> future : futures) {
+            if (future == null) {
+                continue;
+            }
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                if (rendezvous != null) {
+                    rendezvous.failed = true;
+                }
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the batch to be processed", e);
+            } catch (ExecutionException e) {
+                // Report the error itself rather than a shard that stopped waiting because of it
+                if (failure == null || failure instanceof ShardStoppedException) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Error while processing the batch", failure);
+        }
+
+        // Future.get makes the statuses written by every shard visible here
+        return new BatchResult(statuses, System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return Number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Stops the shard threads after the batches already submitted are processed.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    private void apply(List<Operation> operations, int[] positions, int from, int to, int[] statuses, int shard,
+                       Rendezvous rendezvous) {
+        try {
+            for (int i = from; i < to; i++) {
+                int position = positions[i];
+                if (rendezvous == null || rendezvous.targetShardOf[position] < 0) {
+                    statuses[position] = apply(operations.get(position));
+                } else if (rendezvous.targetShardOf[position] == shard) {
+                    // Target account: let the shard of the source account apply the transfer
+                    rendezvous.arrive(position);
+                    rendezvous.await(position, Rendezvous.APPLIED);
+                } else {
+                    rendezvous.arrive(position);
+                    rendezvous.await(position, Rendezvous.BOTH_ARRIVED);
+                    try {
+                        statuses[position] = apply(operations.get(position));
+                    } finally {
+                        rendezvous.applied(position);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // Other shards may be waiting for a transfer this shard will never reach
+            if (rendezvous != null) {
+                rendezvous.failed = true;
+            }
+            throw e;
+        }
+    }
+
+    private int apply(Operation operation) {
+        double amount = Money.toDouble(operation.getAmountCents());
+        switch (operation.getType()) {
+            case DEPOSIT: {
+                Account account = registry.getAccount((int) operation.getTarget());
+                if (account == null) {
+                    return OperationStatus.ACCOUNT_NOT_FOUND;
+                }
+                account.deposit(amount);
+                return OperationStatus.APPROVED;
+            }
+            case WITHDRAWAL: {
+                Account account = registry.getAccount((int) operation.getTarget());
+                if (account == null) {
+                    return OperationStatus.ACCOUNT_NOT_FOUND;
+                }
+                return account.tryWithdraw(amount);
+            }
+            case TRANSFER: {
+                Account source = registry.getAccount((int) operation.getTarget());
+                Account target = registry.getAccount((int) operation.getDestination());
+                if (source == null || target == null) {
+                    return OperationStatus.ACCOUNT_NOT_FOUND;
+                }
+                return source.tryTransfer(target, amount);
+            }
+            case PURCHASE: {
+                CreditCard card = registry.getCard(operation.getTarget());
+                if (card == null) {
+                    return OperationStatus.CARD_NOT_FOUND;
+                }
+                return card.tryAddPurchase(amount, operation.getDescription());
+            }
+            default:
+                throw new IllegalArgumentException("Unknown operation type " + operation.getType());
+        }
+    }
+
+    private static int shardOf(long target, int shardCount) {
+        // Account and card numbers are often sequential, so the bits are spread first
+        long h = target * 0x9E3779B97F4A7C15L;
+        int hash = (int) (h ^ (h >>> 32)) & 0x7fffffff;
+        return hash % shardCount;
+    }
+
+    /**
+     * Meeting point of the two shards of each transfer between accounts of different
+     * shards, for a single batch.
+     */
+    private static final class Rendezvous {
+
+        /** Both shards reached the transfer, which can be applied. */
+        static final int BOTH_ARRIVED = 2;
+
+        /** The transfer was applied, so the shard of the target account can move on. */
+        static final int APPLIED = 3;
+
+        /** Number of spins before a waiting shard starts yielding its processor. */
+        private static final int SPINS = 100;
+
+        /** Number of checks before a waiting shard starts sleeping between them. */
+        private static final int YIELDS = 1000;
+
+        // Shard of the target account of each transfer, or -1 if it is the shard of the
+        // source account (or the operation is not a transfer)
+        final int[] targetShardOf;
+        private final AtomicIntegerArray states;
+        volatile boolean failed;
+
+        Rendezvous(int size, int[] targetShardOf) {
+            this.targetShardOf = targetShardOf;
+            this.states = new AtomicIntegerArray(size);
+        }
+
+        void arrive(int position) {
+            states.incrementAndGet(position);
+        }
+
+        void applied(int position) {
+            states.set(position, APPLIED);
+        }
+
+        void await(int position, int state) {
+            int spins = 0;
+            while (states.get(position) < state) {
+                if (failed) {
+                    throw new ShardStoppedException();
+                }
+                if (spins < SPINS) {
+                    spins++;
+                    Thread.onSpinWait();
+                } else if (spins < YIELDS) {
+                    // The other shard may be waiting for this processor to get there
+                    spins++;
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(1000);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown by a shard waiting for a transfer when another shard failed.
+     */
+    private static final class ShardStoppedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ShardStoppedException() {
+            super("Stopped because another shard failed", null, false, false);
+        }
+    }
+
+}
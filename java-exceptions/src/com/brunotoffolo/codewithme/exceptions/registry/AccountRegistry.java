@@ -0,0 +1,171 @@
+package com.brunotoffolo.codewithme.exceptions.registry;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEventListener;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+
+import java.util.function.Consumer;
+
+/**
+ * Index of accounts by account number and of credit cards by card number.
+ *
+ * Both indexes are primitive-keyed hash maps ({@link IntObjectMap} and
+ * {@link LongObjectMap}), so looking up an account or a card takes constant time and
+ * does not box the number. Lookups can be made by any number of threads while accounts
+ * and cards are being registered.
+ *
+ * Besides being filled directly, the registry can be registered in
+ * {@link com.brunotoffolo.codewithme.exceptions.model.BankingEvents} to index every
+ * account and card as soon as it is created.
+ *
+ * @author Bruno Toffolo
+ */
+public class AccountRegistry implements BankingEventListener {
+
+    private final IntObjectMap<Account> accounts;
+    private final LongObjectMap<CreditCard> cards;
+
+    /**
+     * Creates an empty registry.
+     */
+    public AccountRegistry() {
+        this(16, 16);
+    }
+
+    /**
+     * Creates an empty registry that can hold a given number of accounts and cards
+     * without growing.
+     *
+     * @param expectedAccounts Number of accounts the registry should hold without growing
+     * @param expectedCards Number of cards the registry should hold without growing
+     */
+    public AccountRegistry(int expectedAccounts, int expectedCards) {
+        accounts = new IntObjectMap<>(expectedAccounts);
+        cards = new LongObjectMap<>(expectedCards);
+    }
+
+    /**
+     * Adds an account and all its credit cards to the registry.
+     *
+     * @param account Account to be added
+     * @return Account previously registered with the same number, or null if there was none
+     */
+    public Account register(Account account) {
+        Account previous = accounts.put(account.getNumber(), account);
+        for (CreditCard card : account.getCreditCards()) {
+            cards.put(card.getNumber(), card);
+        }
+        return previous;
+    }
+
+    /**
+     * Adds a credit card to the registry.
+     *
+     * @param card Card to be added
+     * @return Card previously registered with the same number, or null if there was none
+     */
+    public CreditCard register(CreditCard card) {
+        return cards.put(card.getNumber(), card);
+    }
+
+    /**
+     * Gets a registered account.
+     *
+     * @param number Account number
+     * @return Account, or null if there is no account with this number
+     */
+    public Account getAccount(int number) {
+        return accounts.get(number);
+    }
+
+    /**
+     * Gets a registered credit card.
+     *
+     * @param number Card number
+     * @return Card, or null if there is no card with this number
+     */
+    public CreditCard getCard(long number) {
+        return cards.get(number);
+    }
+
+    /**
+     * Gets the number of registered accounts.
+     *
+     * @return Number of accounts
+     */
+    public int getAccountCount() {
+        return accounts.size();
+    }
+
+    /**
+     * Gets the number of registered credit cards.
+     *
+     * @return Number of cards
+     */
+    public int getCardCount() {
+        return cards.size();
+    }
+
+    /**
+     * Calls an action for each registered account, in no particular order.
+     *
+     * @param action Action to be called
+     */
+    public void forEachAccount(Consumer<? super Account> action) {
+        accounts.forEachValue(action);
+    }
+
+    /**
+     * Calls an action for each registered credit card, in no particular order.
+     *
+     * @param action Action to be called
+     */
+    public void forEachCard(Consumer<? super CreditCard> action) {
+        cards.forEachValue(action);
+    }
+
+    /**
+     * Sums the balances of every registered account. The balances are read one at a
+     * time, so the amount of a transfer running concurrently may be missing from the
+     * total; {@link Account#snapshot(Account...)} reads a few accounts consistently.
+     *
+     * @return Total balance, in cents
+     */
+    public long getTotalBalanceCents() {
+        long[] total = new long[1];
+        accounts.forEachValue(account -> total[0] += account.getBalanceCents());
+        return total[0];
+    }
+
+    /**
+     * Sums the balances of every registered credit card.
+     *
+     * @return Total card balance, in cents
+     */
+    public long getTotalCardBalanceCents() {
+        long[] total = new long[1];
+        cards.forEachValue(card -> total[0] += card.getBalanceCents());
+        return total[0];
+    }
+
+    /**
+     * Estimates the number of heap bytes used by both indexes, not counting the accounts
+     * and cards themselves.
+     *
+     * @return Estimated size in bytes
+     */
+    public long footprintBytes() {
+        return accounts.footprintBytes() + cards.footprintBytes();
+    }
+
+    @Override
+    public void onAccountOpened(Account account) {
+        register(account);
+    }
+
+    @Override
+    public void onCardIssued(Account account, CreditCard card) {
+        register(card);
+    }
+
+}
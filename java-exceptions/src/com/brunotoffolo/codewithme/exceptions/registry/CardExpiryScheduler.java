@@ -0,0 +1,178 @@
+package com.brunotoffolo.codewithme.exceptions.registry;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.BankingEventListener;
+import com.brunotoffolo.codewithme.exceptions.model.CoarseClock;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocks credit cards once they expire, visiting only the cards that are due.
+ *
+ * Cards are indexed by expiration day in a timing wheel: a ring of {@link #SLOTS} slots
+ * (about 11 years), one per day, each holding the cards that expire on that day. Every
+ * call to {@link #blockExpiredCards(long)} moves through the days since the previous
+ * call and blocks the cards of their slots, so it costs the number of days elapsed plus
+ * the number of cards expiring, no matter how many cards are scheduled. A card expiring
+ * more than 11 years ahead shares its slot with an earlier day, and simply stays in the
+ * slot until its own turn comes around.
+ *
+ * Days are counted in UTC from the expiration time of each card. The scheduler can be
+ * registered in {@link com.brunotoffolo.codewithme.exceptions.model.BankingEvents} to
+ * schedule every card as soon as it is issued.
+ *
+ * @author Bruno Toffolo
+ */
+public class CardExpiryScheduler implements BankingEventListener {
+
+    /** Number of days in the wheel. */
+    public static final int SLOTS = 4096;
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final CreditCard[] EMPTY = new CreditCard[0];
+
+    private final CreditCard[][] slots = new CreditCard[SLOTS][];
+    private final int[] slotSizes = new int[SLOTS];
+    private int size;
+
+    // First day that was not completely processed yet
+    private long nextDay;
+
+    /**
+     * Creates an empty scheduler, starting from the current day.
+     */
+    public CardExpiryScheduler() {
+        this(CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * Creates an empty scheduler, starting from a given time.
+     *
+     * @param startMillis Time of the first check, in milliseconds since the epoch
+     */
+    public CardExpiryScheduler(long startMillis) {
+        Arrays.fill(slots, EMPTY);
+        nextDay = Math.floorDiv(startMillis, DAY_MILLIS);
+    }
+
+    /**
+     * Adds a card to the scheduler. Cards that already expired are blocked on the next
+     * check.
+     *
+     * @param card Card to be scheduled
+     */
+    public synchronized void schedule(CreditCard card) {
+        long day = Math.max(Math.floorDiv(card.getExpirationMillis(), DAY_MILLIS), nextDay);
+        int slot = slotOf(day);
+
+        CreditCard[] cards = slots[slot];
+        int count = slotSizes[slot];
+        if (count == cards.length) {
+            cards = Arrays.copyOf(cards, Math.max(4, count * 2));
+            slots[slot] = cards;
+        }
+        cards[count] = card;
+        slotSizes[slot] = count + 1;
+        size++;
+    }
+
+    /**
+     * Blocks the scheduled cards that expired until the current time of the
+     * {@link CoarseClock}, and removes them from the scheduler.
+     *
+     * @return Number of cards blocked
+     */
+    public int blockExpiredCards() {
+        return blockExpiredCards(CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * Blocks the scheduled cards that expired until a given time, and removes them from
+     * the scheduler.
+     *
+     * The due cards are taken out of the wheel under the scheduler lock, but blocked
+     * after it is released: blocking a card may wait for the disk to record it (with a
+     * write-ahead log) and notifies the banking listeners, and
+     * {@link #schedule(CreditCard)} should not wait for them.
+     *
+     * @param nowMillis Current time, in milliseconds since the epoch
+     * @return Number of cards blocked
+     */
+    public int blockExpiredCards(long nowMillis) {
+        CreditCard[] due = takeExpiredCards(nowMillis);
+        int count = 0;
+        try {
+            while (count < due.length && due[count] != null) {
+                due[count].block();
+                count++;
+            }
+        } finally {
+            // If a listener failed, the cards not handled yet are checked again next time
+            for (int i = count; i < due.length && due[i] != null; i++) {
+                schedule(due[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes from the scheduler the cards that expired until a given time.
+     *
+     * @param nowMillis Current time, in milliseconds since the epoch
+     * @return Expired cards, followed by nulls if the array is larger than needed
+     */
+    private synchronized CreditCard[] takeExpiredCards(long nowMillis) {
+        long today = Math.floorDiv(nowMillis, DAY_MILLIS);
+        CreditCard[] due = EMPTY;
+        int count = 0;
+
+        // Past days are completed, while today is only checked up to the current time. A
+        // gap longer than the wheel visits every slot only once.
+        long first = Math.max(nextDay, today - SLOTS + 1);
+        for (long day = first; day <= today; day++) {
+            int slot = slotOf(day);
+            CreditCard[] cards = slots[slot];
+            int slotSize = slotSizes[slot];
+            int kept = 0;
+            for (int i = 0; i < slotSize; i++) {
+                CreditCard card = cards[i];
+                if (card.getExpirationMillis() <= nowMillis) {
+                    if (count == due.length) {
+                        due = Arrays.copyOf(due, Math.max(16, count * 2));
+                    }
+                    due[count++] = card;
+                } else {
+                    cards[kept++] = card;
+                }
+            }
+
+            Arrays.fill(cards, kept, slotSize, null);
+            slotSizes[slot] = kept;
+            size -= slotSize - kept;
+        }
+
+        nextDay = Math.max(nextDay, today);
+        return due;
+    }
+
+    /**
+     * Gets the number of cards waiting to expire.
+     *
+     * @return Number of scheduled cards
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public void onCardIssued(Account account, CreditCard card) {
+        schedule(card);
+    }
+
+    private static int slotOf(long day) {
+        return (int) Math.floorMod(day, (long) SLOTS);
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.brunotoffolo.codewithme.exceptions.registry;
+
+import com.brunotoffolo.codewithme.exceptions.model.Cpf;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of customers by CPF.
+ *
+ * Every CPF is normalized to its {@link Cpf} key when the customer is registered, and
+ * the customers are stored in a {@link LongObjectMap}, so an entry costs a few array
+ * slots instead of the node, boxed or String key and table slot of a
+ * java.util.HashMap. A CPF can be looked up formatted or not, and CPFs with wrong
+ * check digits are rejected.
+ *
+ * Back-office searches by the beginning of a CPF or by a range of CPFs are answered in
+ * one of two ways. A CPF is determined by its nine base digits, so a narrow range is
+ * searched by computing each CPF it can hold and looking it up, in order. A wide range
+ * is searched by reading every entry of the map and sorting the ones that match.
+ * Whichever visits fewer slots is used.
+ *
+ * @author Bruno Toffolo
+ */
+public class CustomerIndex {
+
+    // Looking a CPF up costs about as much as reading this many slots in sequence
+    private static final int LOOKUP_COST_IN_SLOTS = 16;
+
+    private final LongObjectMap<Customer> customers;
+
+    /**
+     * Creates an empty index.
+     */
+    public CustomerIndex() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty index that can hold a given number of customers without growing.
+     *
+     * @param expectedCustomers Number of customers the index should hold without growing
+     */
+    public CustomerIndex(int expectedCustomers) {
+        customers = new LongObjectMap<>(expectedCustomers);
+    }
+
+    /**
+     * Adds a customer to the index.
+     *
+     * @param customer Customer to be added
+     * @return Customer previously registered with the same CPF, or null if there was none
+     * @throws IllegalArgumentException If the CPF of the customer is not valid
+     */
+    public Customer register(Customer customer) {
+        return customers.put(Cpf.parse(customer.getCpf()), customer);
+    }
+
+    /**
+     * Gets a registered customer.
+     *
+     * @param cpf CPF such as "987.654.321-00" or "98765432100"
+     * @return Customer, or null if there is no customer with this CPF
+     * @throws IllegalArgumentException If the CPF is not valid
+     */
+    public Customer get(String cpf) {
+        return customers.get(Cpf.parse(cpf));
+    }
+
+    /**
+     * Gets a registered customer.
+     *
+     * @param key Key of the CPF, as given by {@link Cpf#parse(String)}
+     * @return Customer, or null if there is no customer with this CPF
+     */
+    public Customer get(long key) {
+        return customers.get(key);
+    }
+
+    /**
+     * Finds the customers whose CPF starts with some digits, sorted by CPF.
+     *
+     * @param prefix First digits of the CPF, formatted or not, such as "987.654" or "987654"
+     * @param limit Maximum number of customers to be returned
+     * @return Customers found, up to the limit
+     * @throws IllegalArgumentException If the prefix is not the beginning of a CPF
+     */
+    public List<Customer> findByPrefix(String prefix, int limit) {
+        long digits = Cpf.parseDigits(prefix);
+        if (digits < 0) {
+            throw new IllegalArgumentException("Not the beginning of a CPF: " + prefix);
+        }
+
+        long width = 1;
+        for (int i = Cpf.digitCount(prefix); i < Cpf.DIGITS; i++) {
+            width *= 10;
+        }
+        return findRange(digits * width, digits * width + width - 1, limit);
+    }
+
+    /**
+     * Finds the customers whose CPF is within a range, sorted by CPF.
+     *
+     * @param fromKey Key of the first CPF of the range
+     * @param toKey Key of the last CPF of the range (inclusive)
+     * @param limit Maximum number of customers to be returned
+     * @return Customers found, up to the limit
+     */
+    public List<Customer> findRange(long fromKey, long toKey, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit should be at least 1");
+        }
+
+        long from = Math.max(fromKey, 0);
+        long to = Math.min(toKey, Cpf.MAX_KEY);
+        List<Customer> found = new ArrayList<>(Math.min(limit, 1024));
+        if (from > to) {
+            return found;
+        }
+
+        long lookups = to / 100 - from / 100 + 1;
+        if (lookups <= customers.capacity() / LOOKUP_COST_IN_SLOTS) {
+            lookUpRange(from, to, limit, found);
+        } else {
+            scanRange(from, to, limit, found);
+        }
+        return found;
+    }
+
+    private void lookUpRange(long from, long to, int limit, List<Customer> found) {
+        for (long base = from / 100; base <= to / 100 && found.size() < limit; base++) {
+            long key = Cpf.withCheckDigits(base);
+            if (key >= from && key <= to) {
+                Customer customer = customers.get(key);
+                if (customer != null) {
+                    found.add(customer);
+                }
+            }
+        }
+    }
+
+    private void scanRange(long from, long to, int limit, List<Customer> found) {
+        long[][] keys = {new long[64]};
+        int[] count = new int[1];
+        customers.forEachEntry((key, customer) -> {
+            if (key >= from && key <= to) {
+                if (count[0] == keys[0].length) {
+                    keys[0] = Arrays.copyOf(keys[0], count[0] * 2);
+                }
+                keys[0][count[0]++] = key;
+            }
+        });
+
+        long[] matches = keys[0];
+        Arrays.sort(matches, 0, count[0]);
+        for (int i = 0; i < count[0] && found.size() < limit; i++) {
+            found.add(customers.get(matches[i]));
+        }
+    }
+
+    /**
+     * Gets the number of registered customers.
+     *
+     * @return Number of customers
+     */
+    public int size() {
+        return customers.size();
+    }
+
+    /**
+     * Estimates the number of heap bytes used by the index, not counting the customers
+     * themselves.
+     *
+     * @return Estimated size in bytes
+     */
+    public long footprintBytes() {
+        return customers.footprintBytes();
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.brunotoffolo.codewithme.exceptions.registry;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
+
+/**
+ * Hash map from primitive int keys to objects, using open addressing.
+ *
+ * A java.util.HashMap with Integer keys stores a boxed key and a node object for every
+ * entry. This map stores keys and values directly in two parallel arrays instead, and
+ * resolves collisions by probing the next slots (linear probing), so an entry costs only
+ * the array slots it takes: 8 bytes per slot with compressed references.
+ *
+ * Writes are serialized by a lock, while reads never lock. A slot is published by
+ * writing its key first and then its value with release semantics, and readers consider
+ * a slot used only once they see its value, so they never see a key without its value.
+ * When the arrays grow, the new ones are filled completely before being published.
+ *
+ * Entries can not be removed, and null values are not allowed.
+ *
+ * @param <V> Type of the values
+ * @author Bruno Toffolo
+ */
+public class IntObjectMap<V> {
+
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private volatile Table table;
+    private int size;
+
+    /**
+     * Creates an empty map.
+     */
+    public IntObjectMap() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty map that can hold a given number of entries without growing.
+     *
+     * @param expectedSize Number of entries the map should hold without growing
+     */
+    public IntObjectMap(int expectedSize) {
+        table = new Table(capacityFor(expectedSize));
+    }
+
+    /**
+     * Gets the value mapped to a key.
+     *
+     * @param key Key to be looked up
+     * @return Mapped value, or null if the key is not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Table current = table;
+        int mask = current.keys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            Object value = VALUES.getAcquire(current.values, slot);
+            if (value == null) {
+                return null;
+            }
+            if (current.keys[slot] == key) {
+                return (V) value;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a key is in the map.
+     *
+     * @param key Key to be looked up
+     * @return true if the key is mapped to a value
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps a key to a value, replacing the previous value of the key, if any.
+     *
+     * @param key Key to be mapped
+     * @param value Value to be mapped
+     * @return Previous value of the key, or null if the key was not in the map
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not allowed");
+        }
+
+        Table current = table;
+        int mask = current.keys.length - 1;
+        int slot = hash(key) & mask;
+        Object previous;
+        while ((previous = current.values[slot]) != null) {
+            if (current.keys[slot] == key) {
+                VALUES.setRelease(current.values, slot, value);
+                return (V) previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size + 1 > current.threshold) {
+            current = grow(current);
+            mask = current.keys.length - 1;
+            slot = hash(key) & mask;
+            while (current.values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        current.keys[slot] = key;
+        VALUES.setRelease(current.values, slot, value);
+        size++;
+        return null;
+    }
+
+    /**
+     * Maps a key to a value, unless the key is already in the map.
+     *
+     * @param key Key to be mapped
+     * @param value Value to be mapped
+     * @return Current value of the key, or null if the given value was mapped
+     */
+    public synchronized V putIfAbsent(int key, V value) {
+        V current = get(key);
+        if (current != null) {
+            return current;
+        }
+        put(key, value);
+        return null;
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return Number of entries
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of slots of the map, used or not.
+     *
+     * @return Number of slots
+     */
+    public int capacity() {
+        return table.keys.length;
+    }
+
+    /**
+     * Calls an action for each value in the map, in no particular order. Values added
+     * while the iteration is running may or may not be seen.
+     *
+     * @param action Action to be called
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        Object[] values = table.values;
+        for (int slot = 0; slot < values.length; slot++) {
+            Object value = VALUES.getAcquire(values, slot);
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    /**
+     * Estimates the number of heap bytes used by the map itself, not counting the values.
+     * Assumes a 64-bit JVM with compressed references.
+     *
+     * @return Estimated size in bytes
+     */
+    public long footprintBytes() {
+        long slots = table.keys.length;
+        // Map and table objects, plus both arrays with their 16-byte headers
+        return 24 + 24 + (16 + slots * 4) + (16 + slots * 4);
+    }
+
+    private Table grow(Table current) {
+        if (current.keys.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Map can not hold more than " + current.threshold + " entries");
+        }
+
+        Table larger = new Table(current.keys.length * 2);
+        int mask = larger.keys.length - 1;
+        for (int i = 0; i < current.keys.length; i++) {
+            Object value = current.values[i];
+            if (value != null) {
+                int key = current.keys[i];
+                int slot = hash(key) & mask;
+                while (larger.values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                larger.keys[slot] = key;
+                larger.values[slot] = value;
+            }
+        }
+
+        // The volatile write publishes the filled arrays to the readers
+        table = larger;
+        return larger;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR);
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Map can not hold " + expectedSize + " entries");
+        }
+        return Math.max(16, Integer.highestOneBit((int) needed - 1) << 1);
+    }
+
+    private static int hash(int key) {
+        // Account numbers are often sequential, so the bits are spread before masking
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Arrays of the map, replaced as a whole when the map grows.
+     */
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int threshold;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            threshold = (int) (capacity * LOAD_FACTOR);
+        }
+    }
+
+}
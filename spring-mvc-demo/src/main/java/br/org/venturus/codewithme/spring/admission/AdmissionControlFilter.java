@@ -0,0 +1,211 @@
+package br.org.venturus.codewithme.spring.admission;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * Keeps the server from taking more requests than it can handle. When the traffic goes
+ * beyond its capacity, the requests would otherwise pile up in the container and every
+ * one of them would get slower; instead, the requests beyond the limit of the
+ * {@link ConcurrencyLimiter} are rejected right away with a 503 (Service Unavailable)
+ * response and a Retry-After header, and the admitted ones keep their usual latency.
+ *
+ * The priority of each request comes from routePriorities, which maps path patterns
+ * (such as /api/**) to a {@link RequestPriority}, the first matching pattern winning;
+ * other requests get the defaultPriority. Requests that are queued by their priority
+ * wait at most maxQueueWaitMillis for a free slot.
+ *
+ * The filter is declared in web.xml ahead of the dispatcher servlet, after the response
+ * cache, as a page served from the cache costs less than rejecting it. An asynchronous
+ * request keeps its slot until it completes, as its handler is still using the server
+ * while it runs. The limit, the requests in flight and queued, and the admitted and
+ * rejected requests of each priority are shown in /metrics.
+ */
+public class AdmissionControlFilter extends OncePerRequestFilter {
+	private static final String HEADER_RETRY_AFTER = "Retry-After";
+
+	private final ConcurrencyLimiter limiter;
+	private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+	private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+	private Map<String, RequestPriority> routePriorities = Collections.emptyMap();
+	private RequestPriority defaultPriority = RequestPriority.NORMAL;
+	private long maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	private int retryAfterSeconds = 1;
+
+	private final LongAdder[] admitted = new LongAdder[RequestPriority.values().length];
+	private final LongAdder[] rejected = new LongAdder[RequestPriority.values().length];
+
+	public AdmissionControlFilter(ConcurrencyLimiter limiter) {
+		this.limiter = limiter;
+		for (int i = 0; i < admitted.length; i++) {
+			admitted[i] = new LongAdder();
+			rejected[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Sets the priority of the requests whose path matches each pattern, in order.
+	 */
+	public void setRoutePriorities(Map<String, RequestPriority> routePriorities) {
+		this.routePriorities = new LinkedHashMap<String, RequestPriority>(routePriorities);
+	}
+
+	public void setDefaultPriority(RequestPriority defaultPriority) {
+		this.defaultPriority = defaultPriority;
+	}
+
+	public void setMaxQueueWaitMillis(long maxQueueWaitMillis) {
+		this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMillis);
+	}
+
+	public void setRetryAfterSeconds(int retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public ConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	public long getAdmitted(RequestPriority priority) {
+		return admitted[priority.ordinal()].sum();
+	}
+
+	public long getRejected(RequestPriority priority) {
+		return rejected[priority.ordinal()].sum();
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		RequestPriority priority = priorityOf(urlPathHelper.getPathWithinApplication(request));
+
+		boolean admit;
+		try {
+			admit = limiter.acquire(priority, maxQueueWaitNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			admit = false;
+		}
+		if (!admit) {
+			rejected[priority.ordinal()].increment();
+			reject(response);
+			return;
+		}
+		admitted[priority.ordinal()].increment();
+
+		long start = System.nanoTime();
+		boolean released = true;
+		try {
+			filterChain.doFilter(request, response);
+			if (isAsyncStarted(request)) {
+				// The container only completes the request after this thread leaves it
+				request.getAsyncContext().addListener(new ReleaseOnComplete(start));
+				released = false;
+			}
+		} finally {
+			if (released) {
+				limiter.release(System.nanoTime() - start);
+			}
+		}
+	}
+
+	private RequestPriority priorityOf(String path) {
+		for (Map.Entry<String, RequestPriority> route : routePriorities.entrySet()) {
+			if (pathMatcher.match(route.getKey(), path)) {
+				return route.getValue();
+			}
+		}
+		return defaultPriority;
+	}
+
+	private void reject(HttpServletResponse response) throws IOException {
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setHeader(HEADER_RETRY_AFTER, Integer.toString(retryAfterSeconds));
+		response.setContentType("text/plain;charset=UTF-8");
+		response.getWriter().write("The server is overloaded, please retry later.\n");
+	}
+
+	/**
+	 * Writes the admission control counters in the Prometheus text format.
+	 *
+	 * @param out Where the metrics are written to
+	 */
+	public void writeTo(StringBuilder out) {
+		out.append("# HELP admission_concurrency_limit Requests that may be handled at the same time.\n");
+		out.append("# TYPE admission_concurrency_limit gauge\n");
+		out.append("admission_concurrency_limit ").append(limiter.getLimit()).append('\n');
+		out.append("# HELP admission_requests_in_flight Admitted requests being handled right now.\n");
+		out.append("# TYPE admission_requests_in_flight gauge\n");
+		out.append("admission_requests_in_flight ").append(limiter.getInFlight()).append('\n');
+		out.append("# HELP admission_queue_depth Requests waiting for a free slot.\n");
+		out.append("# TYPE admission_queue_depth gauge\n");
+		out.append("admission_queue_depth ").append(limiter.getQueued()).append('\n');
+
+		out.append("# HELP admission_requests_admitted_total Requests admitted, by priority.\n");
+		out.append("# TYPE admission_requests_admitted_total counter\n");
+		for (RequestPriority priority : RequestPriority.values()) {
+			out.append("admission_requests_admitted_total{priority=\"").append(label(priority)).append("\"} ")
+					.append(getAdmitted(priority)).append('\n');
+		}
+		out.append("# HELP admission_requests_rejected_total Requests rejected with a 503 status, by priority.\n");
+		out.append("# TYPE admission_requests_rejected_total counter\n");
+		for (RequestPriority priority : RequestPriority.values()) {
+			out.append("admission_requests_rejected_total{priority=\"").append(label(priority)).append("\"} ")
+					.append(getRejected(priority)).append('\n');
+		}
+	}
+
+	private static String label(RequestPriority priority) {
+		return priority.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Releases the slot of an asynchronous request once it completes, after an error or
+	 * a timeout as well.
+	 */
+	private final class ReleaseOnComplete implements AsyncListener {
+		private final long start;
+
+		ReleaseOnComplete(long start) {
+			this.start = start;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			limiter.release(System.nanoTime() - start);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			// Followed by onComplete
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			// Followed by onComplete
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// Started again by a later dispatch, which drops the listeners of the request
+			event.getAsyncContext().addListener(this);
+		}
+	}
+}
\ No newline at end of file
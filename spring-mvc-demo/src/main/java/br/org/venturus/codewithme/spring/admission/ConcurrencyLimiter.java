@@ -0,0 +1,262 @@
+package br.org.venturus.codewithme.spring.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many requests are handled at the same time. Requests beyond the limit wait
+ * in a short queue for a slot to be freed, and are rejected when the queue is full or
+ * when they waited too long.
+ *
+ * The limit is either fixed (maxLimit) or adaptive. The adaptive limit follows the
+ * latency of the requests, measured in windows of at least 100 ms and 10 requests, and
+ * compares it with the lowest latency of the last 10 to 20 seconds, which is what the
+ * requests take when they do not wait for anything. While the latency of a window stays
+ * below twice that, the limit grows by its square root; above it, requests are queueing
+ * somewhere (for the CPU, the database, a lock) and the limit shrinks in the same
+ * proportion, by half at most. Only a fifth of each change is applied per window, so a
+ * single slow window does not throw the limit off, and the limit stays between minLimit
+ * and maxLimit. The limit does not grow while fewer than half of its requests are in
+ * flight, as the latency then says nothing about what the server could handle.
+ *
+ * Admitting a request and releasing it only take a compare-and-set while no request is
+ * waiting; the lock is only used by the requests that wait in the queue, and by the
+ * releases that wake them up.
+ */
+public class ConcurrencyLimiter {
+	private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final int MIN_WINDOW_SAMPLES = 10;
+	private static final long LOWEST_LATENCY_PERIOD_NANOS = TimeUnit.SECONDS.toNanos(10);
+	private static final double LATENCY_TOLERANCE = 2.0;
+	private static final double SMOOTHING = 0.2;
+
+	private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+	private boolean adaptive = true;
+	private int minLimit = 4;
+	private int maxLimit = 200;
+	private int queueCapacity = 50;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile int limit = 20;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition[] slotFreed = new Condition[PRIORITIES.length];
+	private final int[] waiting = new int[PRIORITIES.length];
+	private volatile int queued;
+
+	// Latency samples of the current window
+	private final LongAdder windowCount = new LongAdder();
+	private final LongAdder windowNanos = new LongAdder();
+	private final AtomicInteger windowMaxInFlight = new AtomicInteger();
+	private final AtomicLong windowEnd = new AtomicLong(System.nanoTime() + WINDOW_NANOS);
+
+	// Only updated by the thread that closes a window. The lowest latency is kept for the
+	// current and the previous periods, so it can go up when the requests get slower
+	private double estimatedLimit = limit;
+	private double lowestLatencyNanos = Double.MAX_VALUE;
+	private double previousLowestLatencyNanos = Double.MAX_VALUE;
+	private long lowestLatencyPeriodEnd = System.nanoTime() + LOWEST_LATENCY_PERIOD_NANOS;
+
+	public ConcurrencyLimiter() {
+		for (int i = 0; i < slotFreed.length; i++) {
+			slotFreed[i] = lock.newCondition();
+		}
+	}
+
+	/**
+	 * Enables the adaptive limit. When disabled, the limit is fixed at maxLimit.
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		if (!adaptive) {
+			limit = maxLimit;
+		}
+	}
+
+	public void setInitialLimit(int initialLimit) {
+		this.estimatedLimit = initialLimit;
+		if (adaptive) {
+			limit = initialLimit;
+		}
+	}
+
+	public void setMinLimit(int minLimit) {
+		this.minLimit = minLimit;
+	}
+
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+		if (!adaptive) {
+			limit = maxLimit;
+		}
+	}
+
+	/**
+	 * Sets how many requests may wait for a free slot at the same time.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Gets how many requests are waiting for a free slot.
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * Admits a request, waiting for a free slot if needed. Requests that are not queued
+	 * by their priority never wait. An admitted request must be released once it is
+	 * finished.
+	 *
+	 * @param priority Priority of the request
+	 * @param maxWaitNanos How long the request may wait for a slot, in nanoseconds
+	 * @return Whether the request was admitted, or should be rejected
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	public boolean acquire(RequestPriority priority, long maxWaitNanos) throws InterruptedException {
+		// Requests do not take a slot ahead of the ones already waiting for it
+		if (queued == 0 && tryAcquire(priority)) {
+			return true;
+		}
+		if (!priority.isQueued() || maxWaitNanos <= 0) {
+			return false;
+		}
+
+		lock.lock();
+		try {
+			if (queued >= queueCapacity) {
+				return false;
+			}
+
+			int index = priority.ordinal();
+			waiting[index]++;
+			queued++;
+			try {
+				long remainingNanos = maxWaitNanos;
+				while (!tryAcquire(priority)) {
+					if (remainingNanos <= 0) {
+						return false;
+					}
+					remainingNanos = slotFreed[index].awaitNanos(remainingNanos);
+				}
+				return true;
+			} finally {
+				waiting[index]--;
+				queued--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean tryAcquire(RequestPriority priority) {
+		int max = priority.maxInFlight(limit);
+		for (;;) {
+			int current = inFlight.get();
+			if (current >= max) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases the slot of an admitted request, and records its latency to adapt the
+	 * limit.
+	 *
+	 * @param latencyNanos Time taken by the request once admitted, in nanoseconds
+	 */
+	public void release(long latencyNanos) {
+		int previous = inFlight.getAndDecrement();
+		if (adaptive) {
+			sample(latencyNanos, previous);
+		}
+		if (queued > 0) {
+			wakeUp(false);
+		}
+	}
+
+	/**
+	 * Wakes up the waiting requests of the highest priority, or of every priority.
+	 */
+	private void wakeUp(boolean all) {
+		lock.lock();
+		try {
+			for (RequestPriority priority : PRIORITIES) {
+				if (waiting[priority.ordinal()] > 0) {
+					if (!all) {
+						slotFreed[priority.ordinal()].signal();
+						return;
+					}
+					slotFreed[priority.ordinal()].signalAll();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void sample(long latencyNanos, int inFlightBefore) {
+		windowCount.increment();
+		windowNanos.add(latencyNanos);
+		if (inFlightBefore > windowMaxInFlight.get()) {
+			windowMaxInFlight.accumulateAndGet(inFlightBefore, Math::max);
+		}
+
+		long now = System.nanoTime();
+		long end = windowEnd.get();
+		if (now - end >= 0 && windowCount.sum() >= MIN_WINDOW_SAMPLES
+				&& windowEnd.compareAndSet(end, now + WINDOW_NANOS)) {
+			// Samples recorded by other threads while the window is read go to either window
+			long count = windowCount.sumThenReset();
+			long totalNanos = windowNanos.sumThenReset();
+			int maxInFlight = windowMaxInFlight.getAndSet(0);
+			if (count > 0) {
+				update((double) totalNanos / count, maxInFlight, now);
+			}
+		}
+	}
+
+	private void update(double latencyNanos, int maxInFlight, long now) {
+		if (now - lowestLatencyPeriodEnd >= 0) {
+			previousLowestLatencyNanos = lowestLatencyNanos;
+			lowestLatencyNanos = latencyNanos;
+			lowestLatencyPeriodEnd = now + LOWEST_LATENCY_PERIOD_NANOS;
+		} else {
+			lowestLatencyNanos = Math.min(lowestLatencyNanos, latencyNanos);
+		}
+		double baselineNanos = Math.min(lowestLatencyNanos, previousLowestLatencyNanos);
+
+		double gradient = Math.max(0.5, Math.min(1.0, LATENCY_TOLERANCE * baselineNanos / latencyNanos));
+		if (gradient == 1.0 && maxInFlight < estimatedLimit / 2) {
+			return;
+		}
+
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit,
+				estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+
+		int previous = limit;
+		limit = (int) estimatedLimit;
+		if (limit > previous && queued > 0) {
+			wakeUp(true);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,54 @@
+package br.org.venturus.codewithme.spring.admission;
+
+/**
+ * Priority of a request for the {@link AdmissionControlFilter}. Each priority may only
+ * use a share of the concurrency limit, so when the server is busy the least important
+ * requests are shed first and the most important ones still find a free slot.
+ */
+public enum RequestPriority {
+	/**
+	 * Requests that must always get through, such as the /metrics scrapes that show what
+	 * is going on during an overload. They may use the whole limit.
+	 */
+	CRITICAL(1.0, true),
+
+	/**
+	 * Regular requests. They may use 90% of the limit, and wait in the queue for a free
+	 * slot when there is none.
+	 */
+	NORMAL(0.9, true),
+
+	/**
+	 * Requests that can be rejected first, such as pages a client can simply ask for
+	 * again. They may use 75% of the limit, and are rejected right away when there is no
+	 * free slot, without waiting in the queue.
+	 */
+	SHEDDABLE(0.75, false);
+
+	private final double shareOfLimit;
+	private final boolean queued;
+
+	private RequestPriority(double shareOfLimit, boolean queued) {
+		this.shareOfLimit = shareOfLimit;
+		this.queued = queued;
+	}
+
+	/**
+	 * Gets how many requests may be in flight when a request of this priority is
+	 * admitted.
+	 *
+	 * @param limit Current concurrency limit
+	 * @return Requests in flight allowed for this priority, at least 1
+	 */
+	public int maxInFlight(int limit) {
+		return Math.max(1, (int) (limit * shareOfLimit));
+	}
+
+	/**
+	 * Checks whether requests of this priority wait in the queue when there is no free
+	 * slot, instead of being rejected right away.
+	 */
+	public boolean isQueued() {
+		return queued;
+	}
+}
\ No newline at end of file
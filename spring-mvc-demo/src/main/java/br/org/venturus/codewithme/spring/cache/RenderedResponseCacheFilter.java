@@ -0,0 +1,228 @@
+package br.org.venturus.codewithme.spring.cache;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.util.DigestUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.UrlPathHelper;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * Caches the rendered pages of deterministic GET requests (such as /hello/{name}), so
+ * repeated requests skip the controller and the view rendering entirely.
+ * 
+ * Pages are kept in memory, keyed by the request path, which includes the path
+ * variables. The cache holds at most maxEntries pages, evicting the least recently used
+ * one when full, and every page expires timeToLiveSeconds after it was rendered.
+ * 
+ * Every cached page gets a strong ETag (the MD5 digest of its contents). When a request
+ * brings a matching If-None-Match header, a 304 (Not Modified) response with no body is
+ * sent instead of the page.
+ * 
+ * The requests that can be cached are selected by the filter mapping in web.xml. The
+ * filter also works for asynchronous requests, in which case the page is stored when
+ * the asynchronous dispatch finishes rendering it.
+ */
+public class RenderedResponseCacheFilter extends OncePerRequestFilter {
+	private static final String HEADER_ETAG = "ETag";
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+	private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+	private int maxEntries = 10000;
+	private long timeToLiveNanos = TimeUnit.MINUTES.toNanos(5);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder notModified = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	// Kept in access order, so the eldest entry is the least recently used one
+	private final LinkedHashMap<String, CachedPage> pages = new LinkedHashMap<String, CachedPage>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedPage> eldest) {
+			if (size() > maxEntries) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	public void setTimeToLiveSeconds(long timeToLiveSeconds) {
+		this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds);
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getNotModified() {
+		return notModified.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public synchronized int getSize() {
+		return pages.size();
+	}
+
+	/**
+	 * Removes every cached page, for instance after the injected message changes.
+	 */
+	public synchronized void clear() {
+		pages.clear();
+	}
+
+	@Override
+	protected boolean shouldNotFilterAsyncDispatch() {
+		// The page of an asynchronous request is only rendered in the async dispatch
+		return false;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		if (!"GET".equals(request.getMethod())) {
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		String key = urlPathHelper.getPathWithinApplication(request);
+		ContentCachingResponseWrapper wrapper = WebUtils.getNativeResponse(response,
+				ContentCachingResponseWrapper.class);
+
+		// Only look the page up in the initial request, not in its async dispatch
+		if (wrapper == null) {
+			CachedPage page = get(key);
+			if (page != null) {
+				hits.increment();
+				send(page, request, response);
+				return;
+			}
+
+			misses.increment();
+			wrapper = new ContentCachingResponseWrapper(response);
+		}
+
+		filterChain.doFilter(request, wrapper);
+
+		if (isAsyncStarted(request)) {
+			// The wrapper is handed over to the async dispatch, which stores the page
+			return;
+		}
+
+		if (wrapper.getStatusCode() == HttpServletResponse.SC_OK) {
+			CachedPage page = new CachedPage(wrapper.getContentAsByteArray(), wrapper.getContentType(),
+					System.nanoTime());
+			put(key, page);
+
+			// The page was only written to the wrapper, so the response is still empty
+			wrapper.resetBuffer();
+			send(page, request, (HttpServletResponse) wrapper.getResponse());
+		} else {
+			wrapper.copyBodyToResponse();
+		}
+	}
+
+	private void send(CachedPage page, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setHeader(HEADER_ETAG, page.etag);
+		if (matches(request.getHeader(HEADER_IF_NONE_MATCH), page.etag)) {
+			notModified.increment();
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		if (page.contentType != null) {
+			response.setContentType(page.contentType);
+		}
+		response.setContentLength(page.body.length);
+		response.getOutputStream().write(page.body);
+	}
+
+	private synchronized CachedPage get(String key) {
+		CachedPage page = pages.get(key);
+		if (page != null && System.nanoTime() - page.renderedAt > timeToLiveNanos) {
+			pages.remove(key);
+			evictions.increment();
+			return null;
+		}
+		return page;
+	}
+
+	private synchronized void put(String key, CachedPage page) {
+		pages.put(key, page);
+
+		// Drop the expired pages at the head of the list, which were not used recently
+		Iterator<CachedPage> iterator = pages.values().iterator();
+		long now = System.nanoTime();
+		while (iterator.hasNext()) {
+			CachedPage eldest = iterator.next();
+			if (now - eldest.renderedAt <= timeToLiveNanos) {
+				break;
+			}
+			iterator.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Checks whether an If-None-Match header (a list of ETags, or *) matches an ETag.
+	 */
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Rendered page, with its strong ETag.
+	 */
+	private static final class CachedPage {
+		final byte[] body;
+		final String contentType;
+		final long renderedAt;
+		final String etag;
+
+		CachedPage(byte[] body, String contentType, long renderedAt) {
+			this.body = body;
+			this.contentType = contentType;
+			this.renderedAt = renderedAt;
+			this.etag = DigestUtils.appendMd5DigestAsHex(body, new StringBuilder("\"")).append('"').toString();
+		}
+	}
+}
\ No newline at end of file
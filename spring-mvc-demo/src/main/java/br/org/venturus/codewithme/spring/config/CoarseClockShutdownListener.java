@@ -0,0 +1,28 @@
+package br.org.venturus.codewithme.spring.config;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import com.brunotoffolo.codewithme.exceptions.model.CoarseClock;
+
+/**
+ * Stops the thread of the {@link CoarseClock} (used by the credit cards to check their
+ * expiration) when the webapp is stopped, so a redeploy does not leave it running and
+ * holding the classes of the previous deployment. Registered in web.xml rather than as a
+ * bean, so it also runs when the beans are created lazily.
+ */
+public class CoarseClockShutdownListener implements ServletContextListener {
+
+	@Override
+	public void contextInitialized(ServletContextEvent event) {
+	}
+
+	@Override
+	public void contextDestroyed(ServletContextEvent event) {
+		try {
+			CoarseClock.stop();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
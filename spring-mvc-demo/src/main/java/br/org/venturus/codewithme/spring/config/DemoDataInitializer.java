@@ -0,0 +1,82 @@
+package br.org.venturus.codewithme.spring.config;
+
+import java.util.Calendar;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.registry.AccountRegistry;
+
+/**
+ * Fills the account registry with sample accounts when the application starts, so the
+ * JSON endpoints have something to show. Configured in dispatcher-servlet.xml.
+ * 
+ * Accounts are numbered from 1, and each one gets a credit card numbered 4000000000000000
+ * plus the account number, with purchasesPerCard purchases made along the last year. If
+ * largeCardPurchases is set, the card of account 1 gets that many purchases instead, to
+ * try the pagination of long purchase histories. It is 0 (not set) by default, as creating
+ * hundreds of thousands of purchases slows the startup down.
+ */
+public class DemoDataInitializer implements InitializingBean {
+	private static final Log logger = LogFactory.getLog(DemoDataInitializer.class);
+
+	private static final long FIRST_CARD_NUMBER = 4000000000000000L;
+	private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+	private static final String[] DESCRIPTIONS = { "Groceries", "Restaurant", "Gas station", "Pharmacy",
+			"Bookstore", "Online store", "Cinema", "Coffee shop" };
+
+	private AccountRegistry registry;
+	private int accounts = 1000;
+	private int purchasesPerCard = 100;
+	private int largeCardPurchases;
+
+	public void setRegistry(AccountRegistry registry) {
+		this.registry = registry;
+	}
+
+	public void setAccounts(int accounts) {
+		this.accounts = accounts;
+	}
+
+	public void setPurchasesPerCard(int purchasesPerCard) {
+		this.purchasesPerCard = purchasesPerCard;
+	}
+
+	public void setLargeCardPurchases(int largeCardPurchases) {
+		this.largeCardPurchases = largeCardPurchases;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		Calendar expiration = Calendar.getInstance();
+		expiration.add(Calendar.YEAR, 3);
+		long now = System.currentTimeMillis();
+
+		for (int number = 1; number <= accounts; number++) {
+			String cpf = String.format("%03d.%03d.%03d-%02d", number / 1000000 % 1000, number / 1000 % 1000,
+					number % 1000, number % 100);
+			Account account = Account.open(number, new Customer(cpf, "Customer", "#" + number));
+			CreditCard card = new CreditCard(123456, expiration, 5000, "Visa", FIRST_CARD_NUMBER + number);
+
+			// Purchases are restored instead of made, so they can be dated in the past
+			// and do not depend on the card limit
+			int purchases = number == 1 && largeCardPurchases > 0 ? largeCardPurchases : purchasesPerCard;
+			for (int i = 0; i < purchases; i++) {
+				long epochMillis = now - YEAR_MILLIS + YEAR_MILLIS * i / purchases;
+				card.restorePurchase(epochMillis, 100 + (number * 31L + i * 17L) % 20000,
+						DESCRIPTIONS[(number + i) % DESCRIPTIONS.length]);
+			}
+			// The invoices of those purchases are considered paid
+			card.restoreBalance(0);
+
+			account.addCreditCard(card);
+			registry.register(account);
+		}
+
+		logger.info("Created " + accounts + " demo accounts");
+	}
+}
\ No newline at end of file
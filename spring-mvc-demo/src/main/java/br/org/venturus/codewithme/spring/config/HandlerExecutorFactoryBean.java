@@ -0,0 +1,102 @@
+package br.org.venturus.codewithme.spring.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Creates the executor that runs the asynchronous request handlers (the ones returning a
+ * Callable), configured in dispatcher-servlet.xml.
+ * 
+ * By default, handlers run on a fixed pool of platform threads. When virtual threads are
+ * enabled and the JDK supports them (Java 21 or later), every handler runs on its own
+ * virtual thread instead, so a handler waiting on I/O does not hold a platform thread.
+ * As the webapp is compiled for Java 11, the virtual thread executor is looked up by
+ * reflection; on older JDKs the platform pool is used.
+ */
+public class HandlerExecutorFactoryBean implements FactoryBean<AsyncTaskExecutor>, DisposableBean {
+	private static final Log logger = LogFactory.getLog(HandlerExecutorFactoryBean.class);
+
+	private boolean virtualThreads;
+	private int poolSize = 200;
+	private int queueCapacity = 10000;
+
+	private AsyncTaskExecutor executor;
+	private ExecutorService virtualThreadExecutor;
+	private ThreadPoolTaskExecutor platformThreadExecutor;
+
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	@Override
+	public synchronized AsyncTaskExecutor getObject() {
+		if (executor == null) {
+			if (virtualThreads) {
+				virtualThreadExecutor = createVirtualThreadExecutor();
+			}
+
+			if (virtualThreadExecutor != null) {
+				executor = new ConcurrentTaskExecutor(virtualThreadExecutor);
+			} else {
+				platformThreadExecutor = new ThreadPoolTaskExecutor();
+				platformThreadExecutor.setCorePoolSize(poolSize);
+				platformThreadExecutor.setMaxPoolSize(poolSize);
+				platformThreadExecutor.setQueueCapacity(queueCapacity);
+				platformThreadExecutor.setThreadNamePrefix("mvc-handler-");
+				platformThreadExecutor.initialize();
+				executor = platformThreadExecutor;
+			}
+		}
+		return executor;
+	}
+
+	@Override
+	public Class<?> getObjectType() {
+		return AsyncTaskExecutor.class;
+	}
+
+	@Override
+	public boolean isSingleton() {
+		return true;
+	}
+
+	@Override
+	public synchronized void destroy() {
+		if (virtualThreadExecutor != null) {
+			virtualThreadExecutor.shutdown();
+		}
+		if (platformThreadExecutor != null) {
+			platformThreadExecutor.shutdown();
+		}
+	}
+
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			ExecutorService executor = (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			logger.info("Asynchronous handlers will run on virtual threads");
+			return executor;
+		} catch (ReflectiveOperationException e) {
+			logger.warn("Virtual threads are not supported by this JDK (Java "
+					+ System.getProperty("java.specification.version")
+					+ "); asynchronous handlers will run on a platform thread pool");
+			return null;
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+package br.org.venturus.codewithme.spring.config;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+
+/**
+ * Marks every bean definition as lazy-init when enabled, so beans are only created when
+ * they are first needed instead of while the context starts. Configured in
+ * dispatcher-servlet.xml.
+ *
+ * This moves work from the startup to the first requests: a controller and the beans it
+ * depends on are created on the first request it handles. Beans that must run at startup
+ * (such as the one loading the demo data) are listed in eagerBeans. Beans looked up by
+ * type by the framework itself (the handler mappings and adapters, the interceptors) are
+ * still created at startup, lazy or not.
+ */
+public class LazyInitBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+	private static final Log logger = LogFactory.getLog(LazyInitBeanFactoryPostProcessor.class);
+
+	private boolean enabled;
+	private Set<String> eagerBeans = Collections.emptySet();
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setEagerBeans(Set<String> eagerBeans) {
+		this.eagerBeans = new HashSet<String>(eagerBeans);
+	}
+
+	@Override
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+		if (!enabled) {
+			return;
+		}
+
+		int count = 0;
+		for (String name : beanFactory.getBeanDefinitionNames()) {
+			BeanDefinition definition = beanFactory.getBeanDefinition(name);
+			if (!definition.isAbstract() && !definition.isLazyInit() && !eagerBeans.contains(name)) {
+				definition.setLazyInit(true);
+				count++;
+			}
+		}
+		logger.info("Lazy initialization enabled for " + count + " beans");
+	}
+}
\ No newline at end of file
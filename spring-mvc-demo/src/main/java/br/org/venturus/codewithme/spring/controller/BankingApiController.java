@@ -0,0 +1,112 @@
+package br.org.venturus.codewithme.spring.controller;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.PurchaseLedger;
+import com.brunotoffolo.codewithme.exceptions.registry.AccountRegistry;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import br.org.venturus.codewithme.spring.json.BankingJsonWriter;
+
+/**
+ * JSON endpoints showing the accounts and credit cards of the {@link AccountRegistry},
+ * and the purchase history of each card.
+ * 
+ * Responses are written straight to the servlet output stream while the model is read,
+ * so their size does not affect the memory used by the server. The purchase history is
+ * split in pages: each page brings a nextCursor value, to be sent back in the cursor
+ * parameter to get the next page, until a page comes without one. As purchases are only
+ * ever appended to a card, the cursor is simply the position of the next purchase, and
+ * the pages stay consistent while new purchases are made.
+ */
+@Controller
+@RequestMapping(value = "/api", method = RequestMethod.GET)
+public class BankingApiController {
+	private static final String JSON = "application/json;charset=UTF-8";
+	private static final int MAX_PAGE_SIZE = 10000;
+
+	// Thread-safe, and shared so its buffer recyclers are reused across requests
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	@Autowired
+	private AccountRegistry registry;
+
+	@RequestMapping("/accounts/{number}")
+	public void showAccount(@PathVariable int number, HttpServletResponse response) throws IOException {
+		Account account = registry.getAccount(number);
+		if (account == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Account " + number + " not found");
+			return;
+		}
+
+		try (JsonGenerator json = createGenerator(response)) {
+			BankingJsonWriter.writeAccount(json, account);
+		}
+	}
+
+	@RequestMapping("/cards/{number}")
+	public void showCard(@PathVariable long number, HttpServletResponse response) throws IOException {
+		CreditCard card = registry.getCard(number);
+		if (card == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Card " + number + " not found");
+			return;
+		}
+
+		try (JsonGenerator json = createGenerator(response)) {
+			BankingJsonWriter.writeCard(json, card);
+		}
+	}
+
+	@RequestMapping("/cards/{number}/purchases")
+	public void showPurchases(@PathVariable long number, @RequestParam(defaultValue = "0") int cursor,
+			@RequestParam(defaultValue = "100") int limit, HttpServletResponse response) throws IOException {
+		CreditCard card = registry.getCard(number);
+		if (card == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Card " + number + " not found");
+			return;
+		}
+		if (cursor < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+					"The cursor should not be negative and the limit should be between 1 and " + MAX_PAGE_SIZE);
+			return;
+		}
+
+		// The size is read once, so purchases made while the page is written are left for
+		// the next page instead of making it longer than the limit
+		PurchaseLedger purchases = card.getPurchases();
+		int size = purchases.size();
+		int from = Math.min(cursor, size);
+		int to = (int) Math.min((long) from + limit, size);
+
+		try (JsonGenerator json = createGenerator(response)) {
+			json.writeStartObject();
+			json.writeNumberField("cardNumber", number);
+			json.writeArrayFieldStart("purchases");
+			BankingJsonWriter.writePurchases(json, purchases, from, to);
+			json.writeEndArray();
+			if (to < size) {
+				json.writeStringField("nextCursor", Integer.toString(to));
+			} else {
+				json.writeNullField("nextCursor");
+			}
+			json.writeEndObject();
+		}
+	}
+
+	private static JsonGenerator createGenerator(HttpServletResponse response) throws IOException {
+		response.setContentType(JSON);
+		return JSON_FACTORY.createGenerator(response.getOutputStream(), JsonEncoding.UTF8);
+	}
+}
\ No newline at end of file
@@ -1,5 +1,9 @@
 package br.org.venturus.codewithme.spring.controller;
 
+import java.util.concurrent.Callable;
+
+import com.brunotoffolo.codewithme.exceptions.journal.EventJournal;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,9 +16,14 @@ import org.springframework.web.servlet.ModelAndView;
 public class HelloWorldController {
 	private String injected = "This message was injected through the Controller";
 
+	// Messages are handed over to the journal, which writes them to the console from a
+	// background thread instead of making every request wait on the console lock
+	@Autowired
+	private EventJournal journal;
+
 	@RequestMapping("/hello/{name}")
 	public ModelAndView showMessage(@PathVariable String name) {
-		System.out.println("in controller - name = " + name);
+		journal.message("in controller - name = ", name);
 
 		ModelAndView mv = new ModelAndView("helloSpring");
 		mv.addObject("injected", injected);
@@ -22,4 +31,15 @@ public class HelloWorldController {
 		
 		return mv;
 	}
+
+	/**
+	 * Same as {@link #showMessage(String)}, but handled asynchronously: the container
+	 * thread is released as soon as the Callable is returned, and the handler runs on the
+	 * executor configured in dispatcher-servlet.xml. Once it finishes, the request is
+	 * dispatched back to the container to render the view.
+	 */
+	@RequestMapping("/async/hello/{name}")
+	public Callable<ModelAndView> showMessageAsync(@PathVariable String name) {
+		return () -> showMessage(name);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package br.org.venturus.codewithme.spring.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import br.org.venturus.codewithme.spring.admission.AdmissionControlFilter;
+import br.org.venturus.codewithme.spring.metrics.LatencyMetrics;
+import br.org.venturus.codewithme.spring.metrics.StartupTimer;
+
+/**
+ * Exposes the request latency metrics, the admission control counters and the startup
+ * times as plain text, in the Prometheus text format.
+ */
+@Controller
+public class MetricsController {
+	@Autowired
+	private LatencyMetrics metrics;
+
+	@Autowired
+	private AdmissionControlFilter admissionControl;
+
+	@Autowired
+	private StartupTimer startupTimer;
+
+	@RequestMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+	@ResponseBody
+	public String showMetrics() {
+		StringBuilder out = new StringBuilder(1024);
+		metrics.writeTo(out);
+		admissionControl.writeTo(out);
+		startupTimer.writeTo(out);
+		return out.toString();
+	}
+}
\ No newline at end of file
@@ -0,0 +1,90 @@
+package br.org.venturus.codewithme.spring.json;
+
+import java.io.IOException;
+
+import com.brunotoffolo.codewithme.exceptions.model.Account;
+import com.brunotoffolo.codewithme.exceptions.model.AccountSnapshot;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCard;
+import com.brunotoffolo.codewithme.exceptions.model.CreditCardSnapshot;
+import com.brunotoffolo.codewithme.exceptions.model.Customer;
+import com.brunotoffolo.codewithme.exceptions.model.PurchaseLedger;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the state of the banking model as JSON, through the Jackson streaming API.
+ * 
+ * Values are read straight from the model and written to the generator one by one, so
+ * no intermediate objects (such as maps or DTOs) are created. Purchases in particular
+ * are read with the primitive accessors of the ledger, without creating a Purchase for
+ * each of them. Amounts are written as whole numbers of cents and dates as milliseconds
+ * since the epoch, which is how the model keeps them.
+ * 
+ * Balances, limits and blocked flags come from a snapshot of the account (or card), so
+ * an account and its cards are written as they were at a single moment, even while
+ * operations change them. The purchase count is read from the card afterwards.
+ */
+public final class BankingJsonWriter {
+	private BankingJsonWriter() {
+	}
+
+	public static void writeAccount(JsonGenerator json, Account account) throws IOException {
+		AccountSnapshot snapshot = account.snapshot();
+		json.writeStartObject();
+		json.writeNumberField("number", account.getNumber());
+		json.writeNumberField("creationEpochMillis", account.getCreationDate().getTimeInMillis());
+		json.writeNumberField("balanceCents", snapshot.getBalanceCents());
+		json.writeNumberField("creditLimitCents", snapshot.getCreditLimitCents());
+
+		Customer customer = account.getCustomer();
+		json.writeObjectFieldStart("customer");
+		json.writeStringField("cpf", customer.getCpf());
+		json.writeStringField("firstName", customer.getFirstName());
+		json.writeStringField("lastName", customer.getLastName());
+		json.writeEndObject();
+
+		json.writeArrayFieldStart("creditCards");
+		for (CreditCardSnapshot card : snapshot.getCreditCards()) {
+			writeCard(json, card);
+		}
+		json.writeEndArray();
+		json.writeEndObject();
+	}
+
+	public static void writeCard(JsonGenerator json, CreditCard card) throws IOException {
+		writeCard(json, card.snapshot());
+	}
+
+	private static void writeCard(JsonGenerator json, CreditCardSnapshot snapshot) throws IOException {
+		CreditCard card = snapshot.getCard();
+		json.writeStartObject();
+		json.writeNumberField("number", card.getNumber());
+		json.writeStringField("brand", card.getBrand());
+		json.writeNumberField("expirationEpochMillis", card.getExpirationDate().getTimeInMillis());
+		json.writeNumberField("limitCents", snapshot.getLimitCents());
+		json.writeNumberField("balanceCents", snapshot.getBalanceCents());
+		json.writeBooleanField("blocked", snapshot.isBlocked());
+		json.writeBooleanField("expired", card.isExpired());
+		json.writeNumberField("purchaseCount", card.getPurchases().size());
+		json.writeEndObject();
+	}
+
+	/**
+	 * Writes a range of purchases of a ledger as the elements of an array (the array
+	 * itself should be started and ended by the caller).
+	 * 
+	 * @param json Generator the purchases are written to
+	 * @param purchases Ledger the purchases are read from
+	 * @param from Index of the first purchase to be written
+	 * @param to Index after the last purchase to be written
+	 */
+	public static void writePurchases(JsonGenerator json, PurchaseLedger purchases, int from, int to)
+			throws IOException {
+		for (int i = from; i < to; i++) {
+			json.writeStartObject();
+			json.writeNumberField("epochMillis", purchases.timestampAt(i));
+			json.writeNumberField("amountCents", purchases.amountCentsAt(i));
+			json.writeStringField("description", purchases.descriptionAt(i));
+			json.writeEndObject();
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,44 @@
+package br.org.venturus.codewithme.spring.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * Measures the first request served by the application and reports it to the
+ * {@link StartupTimer}. Declared in web.xml ahead of the other filters, so the whole
+ * request is measured; every later request only pays for a volatile read.
+ *
+ * The request is measured until the container thread leaves the filter, so for an
+ * asynchronous request the time until its handler is started.
+ */
+public class FirstRequestTimer extends OncePerRequestFilter {
+	private final StartupTimer timer;
+	private final UrlPathHelper urlPathHelper = new UrlPathHelper();
+
+	public FirstRequestTimer(StartupTimer timer) {
+		this.timer = timer;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		if (!timer.claimFirstRequest()) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			timer.firstRequestFinished(urlPathHelper.getPathWithinApplication(request), System.nanoTime() - start);
+		}
+	}
+}
\ No newline at end of file
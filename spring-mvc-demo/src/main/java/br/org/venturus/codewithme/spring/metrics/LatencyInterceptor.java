@@ -0,0 +1,52 @@
+package br.org.venturus.codewithme.spring.metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Measures the time taken by every request, from the moment its handler is found until
+ * the view is rendered, and records it in {@link LatencyMetrics} under the URL pattern of
+ * the handler (such as /hello/{name}).
+ * 
+ * Asynchronous requests are dispatched twice: the first dispatch returns as soon as the
+ * handler starts running on another thread, and the second one renders the view. They
+ * are measured from the start of the first dispatch to the end of the second one.
+ */
+public class LatencyInterceptor extends HandlerInterceptorAdapter implements AsyncHandlerInterceptor {
+	private static final String START_ATTRIBUTE = LatencyInterceptor.class.getName() + ".START";
+
+	private final LatencyMetrics metrics;
+
+	public LatencyInterceptor(LatencyMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		// Already set when this is the second dispatch of an asynchronous request
+		if (request.getAttribute(START_ATTRIBUTE) == null) {
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+			metrics.requestStarted();
+		}
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		if (start == null) {
+			return;
+		}
+		request.removeAttribute(START_ATTRIBUTE);
+
+		long elapsed = System.nanoTime() - (Long) start;
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String name = pattern != null ? pattern.toString() : "unmapped";
+		metrics.requestFinished(name, elapsed, ex != null || response.getStatus() >= 500);
+	}
+}
\ No newline at end of file
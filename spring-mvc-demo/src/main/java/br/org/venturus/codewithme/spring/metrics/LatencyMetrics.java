@@ -0,0 +1,123 @@
+package br.org.venturus.codewithme.spring.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latency of the requests served by each handler, kept in high dynamic range histograms.
+ * 
+ * Recording a request is wait-free: it only increments a counter of the handler
+ * histogram and a couple of LongAdders, so many threads can record at the same time
+ * without contending on a lock. Latencies from 1 microsecond to 1 minute are kept with 2
+ * significant digits, that is with a 1% error (longer requests are recorded as 1 minute),
+ * using a fixed amount of memory per handler no matter how many requests are recorded.
+ * More digits would make the histograms (which are copied on every read of the metrics)
+ * ten times bigger for a precision no percentile needs.
+ * 
+ * The histograms are cumulative since the application started.
+ */
+public class LatencyMetrics {
+	private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+	private final ConcurrentMap<String, HandlerLatency> handlers = new ConcurrentHashMap<String, HandlerLatency>();
+	private final LongAdder inFlight = new LongAdder();
+
+	/**
+	 * Called when a request starts being handled.
+	 */
+	public void requestStarted() {
+		inFlight.increment();
+	}
+
+	/**
+	 * Called when a request finishes, with the time it took.
+	 * 
+	 * @param handler Name of the handler, such as its URL pattern
+	 * @param elapsedNanos Time taken by the request, in nanoseconds
+	 * @param failed Whether the request failed (an exception or a 5xx status)
+	 */
+	public void requestFinished(String handler, long elapsedNanos, boolean failed) {
+		inFlight.decrement();
+
+		HandlerLatency latency = handlers.get(handler);
+		if (latency == null) {
+			HandlerLatency created = new HandlerLatency();
+			latency = handlers.putIfAbsent(handler, created);
+			if (latency == null) {
+				latency = created;
+			}
+		}
+		latency.record(elapsedNanos, failed);
+	}
+
+	public long getInFlight() {
+		return inFlight.sum();
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format, with the latencies in seconds.
+	 * 
+	 * @param out Where the metrics are written to
+	 */
+	public void writeTo(StringBuilder out) {
+		out.append("# HELP http_requests_in_flight Requests being handled right now.\n");
+		out.append("# TYPE http_requests_in_flight gauge\n");
+		out.append("http_requests_in_flight ").append(getInFlight()).append('\n');
+
+		// Sorted by handler, so the output is stable between scrapes
+		Map<String, HandlerLatency> sorted = new TreeMap<String, HandlerLatency>(handlers);
+
+		out.append("# HELP http_request_duration_seconds Time taken to handle the requests.\n");
+		out.append("# TYPE http_request_duration_seconds summary\n");
+		for (Map.Entry<String, HandlerLatency> entry : sorted.entrySet()) {
+			String label = "handler=\"" + entry.getKey() + "\"";
+			Histogram histogram = entry.getValue().histogram.copy();
+			for (double quantile : QUANTILES) {
+				out.append("http_request_duration_seconds{").append(label).append(",quantile=\"").append(quantile)
+						.append("\"} ").append(seconds(histogram.getValueAtPercentile(quantile * 100))).append('\n');
+			}
+			out.append("http_request_duration_seconds_max{").append(label).append("} ")
+					.append(seconds(histogram.getMaxValue())).append('\n');
+			out.append("http_request_duration_seconds_sum{").append(label).append("} ")
+					.append(seconds(entry.getValue().totalNanos.sum())).append('\n');
+			out.append("http_request_duration_seconds_count{").append(label).append("} ")
+					.append(histogram.getTotalCount()).append('\n');
+		}
+
+		out.append("# HELP http_request_errors_total Requests that failed with an exception or a 5xx status.\n");
+		out.append("# TYPE http_request_errors_total counter\n");
+		for (Map.Entry<String, HandlerLatency> entry : sorted.entrySet()) {
+			out.append("http_request_errors_total{handler=\"").append(entry.getKey()).append("\"} ")
+					.append(entry.getValue().errors.sum()).append('\n');
+		}
+	}
+
+	private static String seconds(long nanos) {
+		return Double.toString(nanos / 1e9);
+	}
+
+	/**
+	 * Latency histogram and error count of a single handler.
+	 */
+	private static final class HandlerLatency {
+		final ConcurrentHistogram histogram = new ConcurrentHistogram(1000, HIGHEST_TRACKABLE_NANOS, 2);
+		final LongAdder totalNanos = new LongAdder();
+		final LongAdder errors = new LongAdder();
+
+		void record(long elapsedNanos, boolean failed) {
+			histogram.recordValue(Math.max(1000, Math.min(elapsedNanos, HIGHEST_TRACKABLE_NANOS)));
+			totalNanos.add(elapsedNanos);
+			if (failed) {
+				errors.increment();
+			}
+		}
+	}
+}
\ No newline at end of file
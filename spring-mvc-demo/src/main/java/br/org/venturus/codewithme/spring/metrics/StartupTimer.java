@@ -0,0 +1,158 @@
+package br.org.venturus.codewithme.spring.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+
+/**
+ * Measures how long the application takes to start: the time taken to create each bean,
+ * the time taken by the whole context refresh and the latency of the first request,
+ * which pays for everything left to be done lazily (such as compiling the JSPs that were
+ * not precompiled, or creating the lazy-init beans).
+ *
+ * Bean times are measured from the instantiation of the bean until its initialization
+ * ends, so they include the beans created for it as dependencies. Beans created before
+ * the post-processors are registered (the post-processors themselves) are not measured.
+ * Once the context is refreshed, a summary with the slowest beans is logged; the first
+ * request is measured by the {@link FirstRequestTimer} filter and logged as well. The
+ * times are also exposed in /metrics.
+ */
+public class StartupTimer extends InstantiationAwareBeanPostProcessorAdapter
+		implements PriorityOrdered, ApplicationContextAware, ApplicationListener<ContextRefreshedEvent> {
+	private static final Log logger = LogFactory.getLog(StartupTimer.class);
+
+	private static final int SLOWEST_BEANS = 5;
+
+	private final ConcurrentMap<String, Long> creationStarts = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentMap<String, Long> creationNanos = new ConcurrentHashMap<String, Long>();
+	private final AtomicBoolean firstRequestClaimed = new AtomicBoolean();
+
+	private ApplicationContext context;
+	private volatile long refreshMillis = -1;
+	private volatile long jvmUptimeMillis = -1;
+	private volatile long firstRequestNanos = -1;
+
+	@Override
+	public void setApplicationContext(ApplicationContext context) {
+		this.context = context;
+	}
+
+	@Override
+	public int getOrder() {
+		// Registered before the other post-processors, so their work is measured too
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@Override
+	public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) {
+		creationStarts.put(beanName, System.nanoTime());
+		return null;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		Long start = creationStarts.remove(beanName);
+		if (start != null) {
+			creationNanos.put(beanName, System.nanoTime() - start);
+		}
+		return bean;
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		if (event.getApplicationContext() != context || refreshMillis >= 0) {
+			return;
+		}
+
+		refreshMillis = System.currentTimeMillis() - context.getStartupDate();
+		jvmUptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+		StringBuilder message = new StringBuilder();
+		message.append("Context refreshed in ").append(refreshMillis).append(" ms, ")
+				.append(jvmUptimeMillis).append(" ms after the JVM started. Slowest beans:");
+		for (Map.Entry<String, Long> bean : getSlowestBeans(SLOWEST_BEANS)) {
+			message.append(' ').append(bean.getKey()).append(" (")
+					.append(TimeUnit.NANOSECONDS.toMillis(bean.getValue())).append(" ms)");
+		}
+		logger.info(message);
+	}
+
+	/**
+	 * Gets the beans that took the longest to be created.
+	 *
+	 * @param count Maximum number of beans
+	 * @return Names and creation times in nanoseconds, slowest first
+	 */
+	public List<Map.Entry<String, Long>> getSlowestBeans(int count) {
+		List<Map.Entry<String, Long>> beans = new ArrayList<Map.Entry<String, Long>>(creationNanos.entrySet());
+		beans.sort(Map.Entry.<String, Long> comparingByValue().reversed());
+		return beans.subList(0, Math.min(count, beans.size()));
+	}
+
+	/**
+	 * Lets a single request, the first one, be measured.
+	 *
+	 * @return Whether the calling request is the first one
+	 */
+	boolean claimFirstRequest() {
+		return firstRequestClaimed.get() ? false : firstRequestClaimed.compareAndSet(false, true);
+	}
+
+	/**
+	 * Called when the first request finishes, with the time it took.
+	 *
+	 * @param path Path of the request
+	 * @param elapsedNanos Time taken by the request, in nanoseconds
+	 */
+	void firstRequestFinished(String path, long elapsedNanos) {
+		firstRequestNanos = elapsedNanos;
+		logger.info("First request (" + path + ") served in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+				+ " ms, " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after the JVM started");
+	}
+
+	public long getRefreshMillis() {
+		return refreshMillis;
+	}
+
+	public long getFirstRequestNanos() {
+		return firstRequestNanos;
+	}
+
+	/**
+	 * Writes the startup times in the Prometheus text format, in seconds. Times not
+	 * measured yet are left out.
+	 *
+	 * @param out Where the metrics are written to
+	 */
+	public void writeTo(StringBuilder out) {
+		if (refreshMillis >= 0) {
+			out.append("# HELP startup_context_refresh_seconds Time taken to refresh the application context.\n");
+			out.append("# TYPE startup_context_refresh_seconds gauge\n");
+			out.append("startup_context_refresh_seconds ").append(refreshMillis / 1e3).append('\n');
+			out.append("# HELP startup_jvm_uptime_seconds Time from the JVM start until the context was refreshed.\n");
+			out.append("# TYPE startup_jvm_uptime_seconds gauge\n");
+			out.append("startup_jvm_uptime_seconds ").append(jvmUptimeMillis / 1e3).append('\n');
+		}
+		if (firstRequestNanos >= 0) {
+			out.append("# HELP startup_first_request_seconds Time taken to serve the first request.\n");
+			out.append("# TYPE startup_first_request_seconds gauge\n");
+			out.append("startup_first_request_seconds ").append(firstRequestNanos / 1e9).append('\n');
+		}
+	}
+}
\ No newline at end of file